@@ -16,6 +16,7 @@ import org.paluchlab.agentcortex.display.JavaScriptTerminal;
 import org.paluchlab.agentcortex.geometry.Line3D;
 import org.paluchlab.agentcortex.integrators.*;
 import org.paluchlab.agentcortex.interactions.CrosslinkedFilaments;
+import org.paluchlab.agentcortex.interactions.FilamentAdjacency;
 import org.paluchlab.agentcortex.interactions.MyosinMotorBinding;
 import org.paluchlab.agentcortex.io.SimulationWriter;
 import org.paluchlab.agentcortex.io.TimePoint;
@@ -37,6 +38,8 @@ public class CortexModel {
 
     protected List<CrosslinkedFilaments> xlinked = new ArrayList<>();
     protected List<MyosinMotorBinding> bindings = new ArrayList<>();
+    //filaments crosslinked by xlinked, by filament id.
+    protected final FilamentAdjacency adjacency = new FilamentAdjacency();
     
     public Random number_generator = new Random();
     public double time;
@@ -44,6 +47,11 @@ public class CortexModel {
 
 
     protected double max_out_of_eq = 0;
+    //sum of the out of balance forces, and number of relaxation steps, when the last relaxation finished.
+    protected double residual = 0;
+    protected int relax_steps = 0;
+    //called after each sub step of stepSimulation, eg. for recording metrics.
+    private Runnable subStepListener;
     ForcePreparation prepare;
 
     protected Integrator integrator;
@@ -99,6 +107,18 @@ public class CortexModel {
      *           myosin motor bindings.
      */
     public void setTimePoint(TimePoint tp){
+        setTimePoint(tp, true);
+    }
+
+    /**
+     * Sets the simulation to a timepoint, the integrator is only needed for stepping the simulation, measurements
+     * only use the agents.
+     *
+     * @param tp timepoint containing actins, myosins, crosslinker bindings
+     *           myosin motor bindings.
+     * @param prepareIntegrator false to skip creating a new integrator, when the time point is only measured.
+     */
+    public void setTimePoint(TimePoint tp, boolean prepareIntegrator){
         actins.clear();
         actins.addAll(tp.getFilaments());
         myosins.clear();
@@ -109,8 +129,12 @@ public class CortexModel {
         xlinked.addAll(tp.getLinkers());
         linkers.clear();
         xlinked.forEach((w) -> linkers.add(w.getLink()));
+        assignIds();
+        adjacency.build(actins.size(), xlinked);
         time  = tp.getTime();
-        initializeIntegrator();
+        if(prepareIntegrator){
+            initializeIntegrator();
+        }
         number_generator = new Random();
     }
 
@@ -624,6 +648,7 @@ public class CortexModel {
         myosins.clear();
         linkers.clear();
         xlinked.clear();
+        adjacency.clear();
         bindings.clear();
 
         if(GRAPHING) {
@@ -670,7 +695,7 @@ public class CortexModel {
             f.position[2] = z;
 
             f.updateBounds();
-            actins.add(f);
+            addActin(f);
         }
     }
 
@@ -684,7 +709,7 @@ public class CortexModel {
             MyosinMotorBinding bind = new MyosinMotorBinding(this, motor);
             placeBoundMyosinMotor(motor, bind);
             bindings.add(bind);
-            myosins.add(motor);
+            addMyosin(motor);
         }
     }
 
@@ -924,10 +949,43 @@ public class CortexModel {
             count++;
 
         }while(working);
+        residual = starting;
+        relax_steps = count;
         clearForces();
         constants.ERROR_THRESHOLD= starting_threshold;
     }
 
+    /**
+     * Sets a callback that is run after every update of the interactions and relaxation in stepSimulation, the model
+     * is relaxed and the forces are cleared when it is called.
+     *
+     * @param listener callback, or null to remove it.
+     */
+    public void setSubStepListener(Runnable listener){
+        subStepListener = listener;
+    }
+
+    /**
+     * @return sum of the out of balance forces when the last relaxation finished.
+     */
+    public double getResidual(){
+        return residual;
+    }
+
+    /**
+     * @return the largest out of balance force when the last relaxation finished.
+     */
+    public double getMaxOutOfEquilibrium(){
+        return max_out_of_eq;
+    }
+
+    /**
+     * @return number of relaxation steps taken by the last relaxation.
+     */
+    public int getRelaxSteps(){
+        return relax_steps;
+    }
+
     /**
      * Loops over all of the steps per frame. Updates the interactions with a time step of dt, then relaxes the stresses
      * in the network.
@@ -947,6 +1005,10 @@ public class CortexModel {
             relaxStresses();
             t = System.currentTimeMillis();
             relaxations += t - s;
+            if(subStepListener!=null){
+                subStepListener.run();
+                t = System.currentTimeMillis();
+            }
         }
         center();
 
@@ -1002,7 +1064,7 @@ public class CortexModel {
      * @param fb
      */
     public void crosslinkFilaments(ActinFilament fa, ActinFilament fb){
-        if(fa.isBound(fb)) return;
+        if(adjacency.contains(fa.id, fb.id)) return;
 
         Crosslinker x = createNewCrossLinker();
 
@@ -1063,8 +1125,9 @@ public class CortexModel {
         double duration = Double.MAX_VALUE;
 
         xlinked.add(new CrosslinkedFilaments(this, fa, fb, x, as, bs, duration));
+        adjacency.add(fa.id, fb.id);
 
-        linkers.add(x);
+        addXLinker(x);
     }
 
     /**
@@ -1188,10 +1251,41 @@ public class CortexModel {
     }
 
 
-    public int getActinIndex(Rod i){
+    /**
+     *
+     * @return the integrator used for relaxing stresses, it carries the current adaptive time step.
+     */
+    public Integrator getIntegrator(){
+        return integrator;
+    }
 
-        return actins.indexOf(i);
+    /**
+     * Finds the index of an actin filament using its id.
+     *
+     * @param i rod that might be an actin filament in this model.
+     * @return the index of the filament, or -1 if it is not one of the actin filaments.
+     */
+    public int getActinIndex(Rod i){
+        int id = i.id;
+        if(id>=0 && id<actins.size() && actins.get(id)==i){
+            return id;
+        }
+        return -1;
+    }
 
+    /**
+     * Sets the id of every agent to its index, used after the agent lists have been replaced.
+     */
+    private void assignIds(){
+        for(int i = 0; i<actins.size(); i++){
+            actins.get(i).id = i;
+        }
+        for(int i = 0; i<myosins.size(); i++){
+            myosins.get(i).id = i;
+        }
+        for(int i = 0; i<linkers.size(); i++){
+            linkers.get(i).id = i;
+        }
     }
 
 
@@ -1216,6 +1310,14 @@ public class CortexModel {
 
 
 
+    /**
+     *
+     * @return the filaments that are crosslinked to each other, by filament id.
+     */
+    public FilamentAdjacency getCrosslinkAdjacency(){
+        return adjacency;
+    }
+
     public List<Crosslinker> getCrosslinkers() {
         return Collections.unmodifiableList(linkers);
     }
@@ -1252,11 +1354,23 @@ public class CortexModel {
     }
 
 
+    /**
+     * Adds a motor, and sets its id to its index.
+     *
+     * @param m
+     */
     public void addMyosin(MyosinMotor m){
+        m.id = myosins.size();
         myosins.add(m);
     }
 
+    /**
+     * Adds a filament, and sets its id to its index.
+     *
+     * @param f
+     */
     public void addActin(ActinFilament f){
+        f.id = actins.size();
         actins.add(f);
     }
 
@@ -1264,12 +1378,19 @@ public class CortexModel {
         bindings.add(binding);
     }
 
+    /**
+     * Adds a crosslinker, and sets its id to its index.
+     *
+     * @param link
+     */
     public void addXLinker(Crosslinker link){
+        link.id = linkers.size();
         linkers.add(link);
     }
 
     public void addCrossLinking(CrosslinkedFilaments linkage){
         xlinked.add(linkage);
+        adjacency.add(linkage.a.id, linkage.b.id);
     }
 
     public JavaScriptTerminal showTerminal() {
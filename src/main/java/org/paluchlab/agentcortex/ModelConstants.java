@@ -44,4 +44,15 @@ public class ModelConstants {
 
     public double K_x = 100;
 
+    //output
+    public double CHECKPOINT_INTERVAL = 10; //frames between checkpoints, 0 to disable.
+    public double SYNC_INTERVAL = 1; //frames between forcing data to disk, 0 to force only when closing.
+    public double WRITE_QUEUE = 2; //frame buffers, the simulation waits when all of them are waiting to be written.
+    public double ROD_PRECISION = 0; //rods are stored rounded to this precision, 0 stores full doubles.
+    public double KEYFRAME_INTERVAL = 100; //frames between rods and interactions that are stored without differences.
+    public double INTERACTION_DELTAS = 0; //1 stores interactions as differences from the previous frame.
+    public double SEGMENT_FRAMES = 0; //frames in each segment of the data files, 0 for no limit.
+    public double SEGMENT_MEGABYTES = 0; //approximate size of each segment of the data files, 0 for no limit.
+    public double METRICS_INTERVAL = 0; //sub steps between records of the metrics file, 0 to disable.
+
 }
\ No newline at end of file
@@ -9,21 +9,16 @@ import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 
 /**
- * A rod implementation for actin. Implements Agent so it can be drawn and keeps track of the other actinfilaments it
- * is crosslinked too.
+ * A rod implementation for actin. Implements Agent so it can be drawn. The filaments it is crosslinked to are kept by
+ * the model, see CortexModel#getCrosslinkAdjacency.
  *
  * Created on 4/25/14.
  */
 public class ActinFilament extends Rod implements Agent {
 
-
-    public List<ActinFilament> bound = new ArrayList<>();
-
     @Override
     public void draw(Painter3D painter) {
         double[] a = new double[]{
@@ -44,35 +39,6 @@ public class ActinFilament extends Rod implements Agent {
         painter.drawLine(a, b);
     }
 
-    /**
-     * Binds an actin filament.
-     *
-     * @param f filament that will be bound.
-     */
-    public void bind(ActinFilament f){
-        bound.add(f);
-    }
-
-    /**
-     * for unbinding filaments.
-     *
-     * @param f
-     */
-    public void unbind(ActinFilament f){
-        bound.remove(f);
-    }
-
-
-    /**
-     * Checks if this filament is crosslinked to the argument filamnet.
-     *
-     * @param f
-     * @return true if bound contains f.
-     */
-    public boolean isBound(ActinFilament f){
-        return bound.contains(f);
-    }
-
     @Override
     public double[] getPosition() {
         return position;
@@ -14,6 +14,8 @@ public class Crosslinker implements Agent {
     double radius = 0.04;
     public double length;
     public double K_x;
+    //index of the crosslinker in the list of crosslinkers of its model, -1 when it has not been added.
+    public int id = -1;
     Color color = new Color(155, 255, 155);
     @Override
     public void draw(Painter3D graphics) {
@@ -11,6 +11,7 @@ public class ProxyRod extends Rod {
         System.arraycopy(r.direction, 0, direction, 0, 3);
         length = r.length;
         diameter = r.diameter;
+        id = r.id;
         proxy = r;
         bounds = r.bounds;
     }
@@ -20,6 +21,7 @@ public class ProxyRod extends Rod {
         System.arraycopy(r.direction, 0, direction, 0, 3);
         length = r.length;
         diameter = r.diameter;
+        id = r.id;
         proxy = r;
         updateBounds();
     }
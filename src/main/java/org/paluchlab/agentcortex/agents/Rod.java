@@ -24,6 +24,8 @@ public class Rod{
     final public double[] direction;
     public double length;
     public double diameter;
+    //index of the rod in the list of actin filaments or myosin motors of its model, -1 when it has not been added.
+    public int id = -1;
 
     public double alpha_rotational;
     public double alpha_longitudinal;
@@ -11,6 +11,7 @@ import org.paluchlab.agentcortex.display.XYProjection;
 import org.paluchlab.agentcortex.display.XZProjection;
 import org.paluchlab.agentcortex.display.YZProjection;
 import org.paluchlab.agentcortex.geometry.Box3D;
+import org.paluchlab.agentcortex.io.PrefetchingIterator;
 import org.paluchlab.agentcortex.io.SimulationReader;
 import org.paluchlab.agentcortex.io.TimePoint;
 
@@ -201,15 +202,24 @@ public class CreateMovieFromLock {
         SimulationReader reads = SimulationReader.fromLockFile(lock);
         ImageStack stack = null;
 
-        for(TimePoint tp: reads){
-            reads.model.setTimePoint(tp);
-            BufferedImage frame = getMovieFrame(reads.model);
+        try(PrefetchingIterator points = reads.prefetch(4)){
+            int count = 0;
+            while(points.hasNext()){
+                TimePoint tp = points.next();
+                if(tp==null){
+                    System.err.println("could not decode time point " + count + ", stopping after " + count + " time points.");
+                    break;
+                }
+                reads.model.setTimePoint(tp);
+                count++;
+                BufferedImage frame = getMovieFrame(reads.model);
 
-            if(stack==null){
-                stack = new ImageStack(frame.getWidth(), frame.getHeight());
-            }
+                if(stack==null){
+                    stack = new ImageStack(frame.getWidth(), frame.getHeight());
+                }
 
-            stack.addSlice(new ColorProcessor(frame));
+                stack.addSlice(new ColorProcessor(frame));
+            }
         }
 
 
@@ -114,9 +114,17 @@ public class DirectoryCollector {
 
             if(r!=null) {
 
-                List<double[]> t = r.generateTensionMeasurements();
-                List<double[]> o = r.generateOrderMeasurements();
-                List<double[]> average_positions = r.generateAverageFilamentPositions();
+                MetricPipeline pipeline = new MetricPipeline();
+                MeasurementSeries tension = pipeline.add(MeasurementSeries.tension());
+                MeasurementSeries order = pipeline.add(MeasurementSeries.orientation());
+                MeasurementSeries positions = pipeline.add(MeasurementSeries.averageActinPositions());
+                MeasurementSeries heads = pipeline.add(MeasurementSeries.boundHeads());
+                pipeline.run(r, Runtime.getRuntime().availableProcessors());
+
+                List<double[]> t = tension.getValues();
+                List<double[]> o = order.getValues();
+                List<double[]> average_positions = positions.getValues();
+                List<double[]> bound_heads = heads.getValues();
 
                 actin_filament_count += r.constants.filaments;
                 actin_filament_counter += 1;
@@ -136,7 +144,7 @@ public class DirectoryCollector {
                     double[] average_position = average_positions.get(i);
 
                     if(i>50) {
-                        bound_myosins += r.getBoundMyosinHeadCount(i);
+                        bound_myosins += bound_heads.get(i)[0];
                         global_t_sum += t1 + t2;
                         global_t_sum_sqd +=  t1*t1 + t2*t2;
                         double qxy = q1 + q2;
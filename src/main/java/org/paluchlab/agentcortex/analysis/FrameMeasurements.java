@@ -0,0 +1,529 @@
+package org.paluchlab.agentcortex.analysis;
+
+import org.paluchlab.agentcortex.agents.MyosinMotor;
+import org.paluchlab.agentcortex.io.FrameView;
+
+import java.util.Arrays;
+
+/**
+ * The measurements of CortexModel performed on a FrameView, without creating agents or loading the time point into a
+ * model. The results are the same as CortexModel#measureTension, CortexModel#measureOrientation and
+ * CortexModel#measureAverageActinPositions, the forces are applied in the same order so the sums are identical.
+ *
+ * The working arrays are reused between time points, so an instance should only be used by one thread.
+ *
+ * Created on 10/19/26.
+ */
+public class FrameMeasurements {
+    final static int[] heads = {MyosinMotor.FRONT, MyosinMotor.BACK};
+    final static double[] ORIGIN = {0, 0, 0};
+    final static double[] X_DIR = {1, 0, 0};
+    final static double[] Y_DIR = {0, 1, 0};
+
+    FrameView view;
+    final RodForces forces = new RodForces();
+    //crosslinker end points, as set by CrosslinkedFilaments#applyForces
+    double[] linkA = new double[0];
+    double[] linkB = new double[0];
+
+    final double[] a = new double[3];
+    final double[] b = new double[3];
+    final double[] c = new double[3];
+    final double[] back = new double[3];
+    final double[] front = new double[3];
+
+    /**
+     *  Measures the tension of a time point, see CortexModel#measureTension. The values in the array are:
+     *
+     *  time, filament tension y-z, actin only y-z, filament tension x-y, actin only x-y, myosin_dipole, bind count, double bound, dXX, dYY, dZZ
+     *  0     1                     2               3                     4               5              6           7             8    9    10
+     *
+     * @param view time point.
+     * @return the *unscaled* results.
+     */
+    public double[] measureTension(FrameView view){
+        prepareForces(view);
+        double[] yz = sliceNetwork(ORIGIN, X_DIR);
+        double[] xz = sliceNetwork(ORIGIN, Y_DIR);
+        double[] ayz = sliceActinFilaments(ORIGIN, X_DIR);
+        double[] axz = sliceActinFilaments(ORIGIN, Y_DIR);
+        double bind_count = 0;
+        double double_bound = 0;
+        double myosin_dipole = 0;
+        double dipoleXX = 0;
+        double dipoleYY = 0;
+        double dipoleZZ = 0;
+        double[] direction = new double[3];
+        for(int i = 0; i<view.getBindingCount(); i++){
+            boolean f = false;
+            if(view.getBoundFilament(i, MyosinMotor.FRONT)>=0){
+                bind_count++;
+                f = true;
+            }
+            if(view.getBoundFilament(i, MyosinMotor.BACK)>=0){
+                bind_count++;
+                if(f){
+                    double dipole = getForceDipole(i, direction);
+                    myosin_dipole += dipole;
+                    double dx = dipole*direction[0]*direction[0];
+                    double dy = dipole*direction[1]*direction[1];
+                    double dz = dipole*direction[2]*direction[2];
+                    dipoleXX += dx*dx;
+                    dipoleYY += dy*dy;
+                    dipoleZZ += dz*dz;
+
+                    double_bound++;
+                }
+            }
+        }
+
+        double_bound = double_bound==0?1:double_bound;
+
+        return new double[]{
+                view.getTime(),
+                0.5*(yz[0] + yz[1]),
+                0.5*(ayz[0] + ayz[1]),
+                0.5*(xz[0] + xz[1]),
+                0.5*(axz[0] + axz[1]),
+                myosin_dipole/double_bound,
+                bind_count,
+                double_bound,
+                dipoleXX/double_bound,
+                dipoleYY/double_bound,
+                dipoleZZ/double_bound
+        };
+    }
+
+    /**
+     * Calculates p, the average direction of filaments, and Q, see CortexModel#measureOrientation.
+     *
+     * @param view time point.
+     * @return time, px, py, pz, qxx, qxy, qxz, qyx, qyy, qyz, qzx, qzy, qzz, mqxx, mqyy, mqzz
+     */
+    public double[] measureOrientation(FrameView view){
+        double[] p = new double[3];
+        double[] Q = new double[9];
+        int actins = view.getActinCount();
+        int motors = view.getMotorCount();
+        double[] dir = new double[3];
+        for(int f = 0; f<actins; f++){
+            view.getDirection(f, dir);
+            for(int i = 0; i<3; i++){
+                p[i] += dir[i];
+                for(int j = 0; j<3; j++){
+                    Q[i + 3*j] += dir[i]*dir[j] + (i==j?-1.0/3.0:0.0);
+                }
+            }
+        }
+
+        double[] MQ = new double[9];
+        for(int m = 0; m<motors; m++){
+            view.getDirection(actins + m, dir);
+            for(int i = 0; i<3; i++){
+                for(int j = 0; j<3; j++){
+                    MQ[i + 3*j] += dir[i]*dir[j] + (i==j?-1.0/3.0:0.0);
+                }
+            }
+        }
+
+        for(int i = 0; i<3; i++){
+            p[i] = p[i]/actins;
+        }
+        for(int i = 0; i<9; i++){
+            Q[i] = Q[i]/actins;
+            MQ[i] = MQ[i]/motors;
+        }
+
+        return new double[]{
+                view.getTime(),
+                p[0],p[1],p[2],
+                Q[0],Q[1],Q[2],
+                Q[3],Q[4],Q[5],
+                Q[6],Q[7],Q[8],
+                MQ[0], MQ[4], MQ[8]
+        };
+    }
+
+    /**
+     * Finds the average position and standard deviation of position for the actin filaments, see
+     * CortexModel#measureAverageActinPositions.
+     *
+     * @param view time point.
+     * @return {cx, cy, cz, stdx, stdy, stdz, nx}
+     */
+    public double[] measureAverageActinPositions(FrameView view){
+        double[] p = new double[7];
+        int actins = view.getActinCount();
+        for(int f = 0; f<actins; f++){
+            double x = view.getPosition(f, 0);
+            double y = view.getPosition(f, 1);
+            double z = view.getPosition(f, 2);
+            p[0] += x;
+            p[3] += x*x;
+            p[1] += y;
+            p[4] += y*y;
+            p[2] += z;
+            p[5] += z*z;
+        }
+
+        p[0] = p[0]/actins;
+        p[1] = p[1]/actins;
+        p[2] = p[2]/actins;
+        p[3] = Math.sqrt(p[3]/actins - p[0]*p[0]);
+        p[4] = Math.sqrt(p[4]/actins - p[1]*p[1]);
+        p[5] = Math.sqrt(p[5]/actins - p[2]*p[2]);
+
+        p[6] = view.getLinkCount();
+        return p;
+    }
+
+    /**
+     * Applies the crosslinker and motor forces, in the same order as CortexModel#prepareNonStericForces.
+     */
+    void prepareForces(FrameView view){
+        this.view = view;
+        int actins = view.getActinCount();
+        int links = view.getLinkCount();
+        int bindings = view.getBindingCount();
+        forces.reset(actins + view.getMotorCount(), 2*links + 4*bindings);
+        if(linkA.length<3*links){
+            linkA = new double[3*links];
+            linkB = new double[3*links];
+        }
+        for(int pass = 0; pass<2; pass++){
+            for(int i = 0; i<links; i++){
+                linkForces(i, pass==1);
+            }
+            for(int i = 0; i<bindings; i++){
+                int motor = actins + view.getBindingMotor(i);
+                for(int head: heads){
+                    int filament = view.getBoundFilament(i, head);
+                    if(filament<0){
+                        continue;
+                    }
+                    if(pass==0){
+                        forces.count(motor);
+                        forces.count(filament);
+                    } else{
+                        headForce(i, head, c);
+                        double ml = head==MyosinMotor.FRONT?0.5*view.getLength(motor):-0.5*view.getLength(motor);
+                        forces.add(motor, c[0], c[1], c[2], ml);
+                        forces.add(filament, -c[0], -c[1], -c[2], view.getBindingPosition(i, head));
+                    }
+                }
+            }
+            if(pass==0){
+                forces.allocate();
+            }
+        }
+    }
+
+    /**
+     * Counts or applies the forces of a crosslink, see CrosslinkedFilaments#applyForces.
+     */
+    void linkForces(int link, boolean apply){
+        int fa = view.getLinkedFilament(link, 0);
+        int fb = view.getLinkedFilament(link, 1);
+        double as = view.getLinkPosition(link, 0);
+        double bs = view.getLinkPosition(link, 1);
+        view.getPoint(fa, as, a);
+        view.getPoint(fb, bs, b);
+        view.getReflectedPoint(a, b, b);
+        System.arraycopy(a, 0, linkA, 3*link, 3);
+        System.arraycopy(b, 0, linkB, 3*link, 3);
+
+        double rx = b[0] - a[0];
+        double ry = b[1] - a[1];
+        double rz = b[2] - a[2];
+        double mag = Math.sqrt(rx*rx + ry*ry + rz*rz);
+        if(mag==0){
+            return;
+        }
+        if(!apply){
+            forces.count(fa);
+            forces.count(fb);
+            return;
+        }
+        double ds = mag - view.getConstants().CROSS_LINK_LENGTH;
+        double f = view.getConstants().K_x * ds/ mag;
+        forces.add(fa, rx*f, ry*f, rz*f, as);
+        forces.add(fb, -rx*f, -ry*f, -rz*f, bs);
+    }
+
+    /**
+     * Force on a motor head, see MyosinMotorBinding#getHeadForce
+     *
+     * @param binding index of the binding.
+     * @param head bound head.
+     * @param out {fx, fy, fz}
+     */
+    void headForce(int binding, int head, double[] out){
+        int motor = view.getActinCount() + view.getBindingMotor(binding);
+        double length = view.getLength(motor);
+        double ml = head==MyosinMotor.FRONT?0.5*length:-0.5*length;
+        view.getPoint(motor, ml, a);
+        view.getPoint(view.getBoundFilament(binding, head), view.getBindingPosition(binding, head), b);
+        view.getReflectedPoint(a, b, b);
+
+        double rx = b[0] - a[0];
+        double ry = b[1] - a[1];
+        double rz = b[2] - a[2];
+        double mag = Math.sqrt(rx*rx + ry*ry + rz*rz);
+        double separation = mag - view.getConstants().MYOSIN_BIND_LENGTH;
+        double f = mag==0?0:view.getConstants().K_m/mag*separation;
+        out[0] = f*rx;
+        out[1] = f*ry;
+        out[2] = f*rz;
+    }
+
+    /**
+     * Force dipole of a doubly bound motor, see MyosinMotorBinding#getForceDipole
+     *
+     * @param binding index of the binding.
+     * @param direction receives the normalized back to front direction.
+     * @return the dipole.
+     */
+    double getForceDipole(int binding, double[] direction){
+        double[] f = new double[3];
+        headForce(binding, MyosinMotor.FRONT, f);
+        headForce(binding, MyosinMotor.BACK, c);
+        f[0] -= c[0];
+        f[1] -= c[1];
+        f[2] -= c[2];
+
+        view.getPoint(view.getBoundFilament(binding, MyosinMotor.FRONT), view.getBindingPosition(binding, MyosinMotor.FRONT), a);
+        view.getPoint(view.getBoundFilament(binding, MyosinMotor.BACK), view.getBindingPosition(binding, MyosinMotor.BACK), b);
+        view.getReflectedPoint(a, b, b);
+        double dx = a[0] - b[0];
+        double dy = a[1] - b[1];
+        double dz = a[2] - b[2];
+        double mag = Math.sqrt(dx*dx + dy*dy + dz*dz);
+        direction[0] = dx/mag;
+        direction[1] = dy/mag;
+        direction[2] = dz/mag;
+        double dot = direction[0]*f[0] + direction[1]*f[1] + direction[2]*f[2];
+        return dot*(mag)/2.0;
+    }
+
+    /**
+     * see CortexModel#sliceNetwork
+     */
+    double[] sliceNetwork(double[] pos, double[] dir){
+        double[] aT = sliceActinFilaments(pos, dir);
+        double[] mT = sliceMyosinMotors(pos, dir);
+        double[] cT = sliceCrossLinkers(pos, dir);
+        return new double[]{
+                aT[0] + mT[0] + cT[0],
+                aT[1] + mT[1] + cT[1]
+        };
+    }
+
+    /**
+     * see CortexModel#sliceActinFilaments
+     */
+    double[] sliceActinFilaments(double[] pos, double[] dir){
+        double[] forward_backwards = new double[2];
+        double[] center = new double[3];
+        double[] direction = new double[3];
+        for(int f = 0; f<view.getActinCount(); f++){
+            view.getReflectedPoint(pos, view.getPosition(f, center), center);
+            view.getDirection(f, direction);
+            double location = intersection(center, direction, pos, dir);
+            if(2*Math.abs(location)>view.getLength(f)){
+                continue;
+            }
+            sliceRod(f, direction, location, dir, forward_backwards);
+        }
+        return forward_backwards;
+    }
+
+    /**
+     * see CortexModel#sliceMyosinMotors
+     */
+    double[] sliceMyosinMotors(double[] pos, double[] dir){
+        double[] forward_backwards = new double[2];
+        double[] center = new double[3];
+        double[] direction = new double[3];
+        double[] plane = new double[3];
+        double bind = view.getConstants().MYOSIN_BIND_LENGTH;
+        double k = view.getConstants().K_m;
+        for(int i = 0; i<view.getBindingCount(); i++){
+            int motor = view.getActinCount() + view.getBindingMotor(i);
+            double length = view.getLength(motor);
+            for(int head: heads){
+                int filament = view.getBoundFilament(i, head);
+                if(filament<0){
+                    continue;
+                }
+                double[] p = new double[3];
+                double[] q = new double[3];
+                view.getPoint(motor, head==MyosinMotor.FRONT?length*0.5:-length*0.5, p);
+                view.getPoint(filament, view.getBindingPosition(i, head), q);
+                double f = sliceSpring(p, q, bind, pos, dir);
+                forward_backwards[0] += k*f;
+                forward_backwards[1] += k*f;
+            }
+
+            view.getPosition(motor, center);
+            view.getDirection(motor, direction);
+            double location = intersection(center, direction, view.getReflectedPoint(center, pos, plane), dir);
+            if(Math.abs(location)>0.5*length){
+                continue;
+            }
+            sliceRod(motor, direction, location, dir, forward_backwards);
+        }
+        return forward_backwards;
+    }
+
+    /**
+     * see CortexModel#sliceCrossLinkers
+     */
+    double[] sliceCrossLinkers(double[] pos, double[] dir){
+        double[] forward_backwards = new double[2];
+        double[] p = new double[3];
+        double[] q = new double[3];
+        double length = view.getConstants().CROSS_LINK_LENGTH;
+        double k = view.getConstants().K_x;
+        for(int i = 0; i<view.getLinkCount(); i++){
+            System.arraycopy(linkA, 3*i, p, 0, 3);
+            System.arraycopy(linkB, 3*i, q, 0, 3);
+            double f = sliceSpring(p, q, length, pos, dir);
+            forward_backwards[0] += f*k;
+            forward_backwards[1] += f*k;
+        }
+        return forward_backwards;
+    }
+
+    /**
+     * Adds the internal force of a rod at the slice location, see Rod#internalForce
+     */
+    void sliceRod(int rod, double[] direction, double location, double[] dir, double[] forward_backwards){
+        forces.internalForce(rod, location, back, front);
+        double dot = dot(dir, direction);
+        if(dot>0){
+            //facing the same direction.
+            forward_backwards[0] +=  dot(dir, front);
+            forward_backwards[1] +=  -dot(dir, back);
+        } else{
+            //facing the opposite direction.
+            forward_backwards[0] +=  dot(dir, back);
+            forward_backwards[1] +=  -dot(dir, front);
+        }
+    }
+
+    /**
+     * see CortexModel#sliceSpring
+     */
+    double sliceSpring(double[] a, double[] b, double rest_length, double[] pos, double[] normal){
+        double[] O = view.getReflectedPoint(a, b, new double[3]);
+        double dx = a[0] - O[0];
+        double dy = a[1] - O[1];
+        double dz = a[2] - O[2];
+
+        double l = Math.sqrt(dx*dx + dy*dy + dz*dz);
+        double[] center = new double[3];
+
+        double[] direction = new double[]{dx/l, dy/l, dz/l};
+
+        for(int i = 0; i<3; i++){
+            center[i] = 0.5*(a[i] + O[i]);
+        }
+
+        double[] close_pos = view.getReflectedPoint(center, pos, new double[3]);
+
+        double location = intersection(center, direction, close_pos, normal);
+        double force_magnitude = 0;
+        if(Math.abs(location)<0.5*l){
+            double dot = Math.abs(dot(direction, normal));
+            force_magnitude = (l - rest_length)*dot;
+        }
+        return force_magnitude;
+    }
+
+    static double dot(double[] a, double[] b){
+        return a[0]*b[0] + a[1]*b[1] + a[2]*b[2];
+    }
+
+    /**
+     * see Line3D#intersection
+     */
+    static double intersection(double[] center, double[] direction, double[] plane, double[] normal){
+        double unit = dot(direction, normal);
+        double proj = (plane[0] - center[0])*normal[0] + (plane[1] - center[1])*normal[1] + (plane[2] - center[2])*normal[2];
+        return proj/unit;
+    }
+}
+
+/**
+ * Forces applied to each rod, {fx, fy, fz, s} stored contiguously for each rod in the order they were applied.
+ */
+class RodForces{
+    int[] start = new int[1];
+    int[] filled = new int[0];
+    double[] values = new double[0];
+    int rods;
+
+    /**
+     * Starts counting forces for a new time point.
+     *
+     * @param rods number of rods.
+     * @param expected expected number of forces.
+     */
+    void reset(int rods, int expected){
+        this.rods = rods;
+        if(start.length<rods + 1){
+            start = new int[rods + 1];
+            filled = new int[rods];
+        } else{
+            Arrays.fill(start, 0, rods + 1, 0);
+        }
+        if(values.length<4*expected){
+            values = new double[4*expected];
+        }
+    }
+
+    void count(int rod){
+        start[rod + 1]++;
+    }
+
+    /**
+     * Converts the counts into offsets, after all forces have been counted.
+     */
+    void allocate(){
+        for(int i = 0; i<rods; i++){
+            start[i + 1] += start[i];
+            filled[i] = start[i];
+        }
+        if(values.length<4*start[rods]){
+            values = new double[4*start[rods]];
+        }
+    }
+
+    void add(int rod, double fx, double fy, double fz, double s){
+        int dex = 4*filled[rod]++;
+        values[dex] = fx;
+        values[dex + 1] = fy;
+        values[dex + 2] = fz;
+        values[dex + 3] = s;
+    }
+
+    /**
+     * Sums the forces on both sides of a cut, forces with s greater than the location are in front.
+     */
+    void internalForce(int rod, double s, double[] back, double[] front){
+        back[0] = back[1] = back[2] = 0;
+        front[0] = front[1] = front[2] = 0;
+        for(int i = start[rod]; i<filled[rod]; i++){
+            int dex = 4*i;
+            if(values[dex + 3]>s){
+                front[0] += values[dex];
+                front[1] += values[dex + 1];
+                front[2] += values[dex + 2];
+            } else{
+                back[0] += values[dex];
+                back[1] += values[dex + 1];
+                back[2] += values[dex + 2];
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.paluchlab.agentcortex.analysis;
+
+import org.paluchlab.agentcortex.CortexModel;
+import org.paluchlab.agentcortex.io.FrameView;
+import org.paluchlab.agentcortex.io.TimePoint;
+
+/**
+ * A measurement that is accumulated one time point at a time, so any number of metrics can be computed with a single
+ * pass over a simulation, see MetricPipeline.
+ *
+ * Measuring and collecting are separate so the time points can be measured in parallel, each thread with its own
+ * model, while the results are still collected in order. A metric that can also measure a FrameView, see
+ * FrameMeasurements, lets a parallel run read the time points without creating agents.
+ *
+ * Created on 10/19/26.
+ */
+public interface FrameMetric {
+
+    /**
+     * Measures a time point. In a parallel run this is called from several threads, so it should not change the
+     * metric, only the model it is given.
+     *
+     * @param model model that has been set to the time point.
+     * @param frame index of the time point.
+     * @return the measurement of the time point.
+     */
+    double[] measure(CortexModel model, int frame);
+
+    /**
+     * Measures a time point that has been read into a view, the result must be the same as #measure with a model set
+     * to the time point. Only called when #measuresViews is true.
+     *
+     * @param measurements working arrays of the thread measuring the view.
+     * @param view the time point.
+     * @param frame index of the time point.
+     * @return the measurement of the time point.
+     */
+    default double[] measure(FrameMeasurements measurements, FrameView view, int frame){
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not measure views.");
+    }
+
+    /**
+     *
+     * @return true if the metric can measure a FrameView.
+     */
+    default boolean measuresViews(){
+        return false;
+    }
+
+    /**
+     * Receives the measurement of each time point, in order, on the thread running the pipeline.
+     *
+     * @param frame index of the time point.
+     * @param value returned by #measure for the time point.
+     */
+    void collect(int frame, double[] value);
+
+    /**
+     *
+     * @return sections of the time points that are measured, see TimePoint#ALL.
+     */
+    default int getSections(){
+        return TimePoint.ALL;
+    }
+}
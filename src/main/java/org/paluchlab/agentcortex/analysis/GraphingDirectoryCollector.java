@@ -82,9 +82,15 @@ public class GraphingDirectoryCollector {
                 //convert from to
                 double invSigma0 = 1.0/(r.model.constants.WIDTH*r.model.getT0());
 
-                List<double[]> t = r.generateTensionMeasurements();
-                List<double[]> o = r.generateOrderMeasurements();
-                List<double[]> average_positions = r.generateAverageFilamentPositions();
+                MetricPipeline pipeline = new MetricPipeline();
+                MeasurementSeries tension = pipeline.add(MeasurementSeries.tension());
+                MeasurementSeries order = pipeline.add(MeasurementSeries.orientation());
+                MeasurementSeries positions = pipeline.add(MeasurementSeries.averageActinPositions());
+                pipeline.run(r, Runtime.getRuntime().availableProcessors());
+
+                List<double[]> t = tension.getValues();
+                List<double[]> o = order.getValues();
+                List<double[]> average_positions = positions.getValues();
 
                 actin_filament_count += r.constants.filaments;
                 actin_filament_counter += 1;
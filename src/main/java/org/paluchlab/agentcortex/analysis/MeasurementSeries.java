@@ -0,0 +1,144 @@
+package org.paluchlab.agentcortex.analysis;
+
+import org.paluchlab.agentcortex.CortexModel;
+import org.paluchlab.agentcortex.agents.MyosinMotor;
+import org.paluchlab.agentcortex.io.FrameView;
+import org.paluchlab.agentcortex.io.TimePoint;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+/**
+ * A metric that keeps the measurement of each time point, one double[] per time point in the same format as the
+ * CortexModel measurement it uses.
+ *
+ * Created on 10/19/26.
+ */
+public class MeasurementSeries implements FrameMetric {
+    final int sections;
+    final BiConsumer<CortexModel, Collection<double[]>> measurement;
+    final BiFunction<FrameMeasurements, FrameView, double[]> viewMeasurement;
+    final List<double[]> values = new ArrayList<>();
+
+    /**
+     * @param sections sections of the time point the measurement uses.
+     * @param measurement adds one double[] for the current time point of the model.
+     */
+    public MeasurementSeries(int sections, BiConsumer<CortexModel, Collection<double[]>> measurement){
+        this(sections, measurement, null);
+    }
+
+    /**
+     * @param sections sections of the time point the measurement uses.
+     * @param measurement adds one double[] for the current time point of the model.
+     * @param viewMeasurement the same measurement of a view, or null if views cannot be measured.
+     */
+    public MeasurementSeries(
+            int sections,
+            BiConsumer<CortexModel, Collection<double[]>> measurement,
+            BiFunction<FrameMeasurements, FrameView, double[]> viewMeasurement
+    ){
+        this.sections = sections;
+        this.measurement = measurement;
+        this.viewMeasurement = viewMeasurement;
+    }
+
+    /**
+     *
+     * @return see CortexModel#measureTension
+     */
+    public static MeasurementSeries tension(){
+        return new MeasurementSeries(TimePoint.ALL, CortexModel::measureTension, FrameMeasurements::measureTension);
+    }
+
+    /**
+     *
+     * @return see CortexModel#measureTensionByParts
+     */
+    public static MeasurementSeries tensionByParts(){
+        return new MeasurementSeries(TimePoint.ALL, CortexModel::measureTensionByParts);
+    }
+
+    /**
+     *
+     * @return see CortexModel#measureOrientation
+     */
+    public static MeasurementSeries orientation(){
+        return new MeasurementSeries(
+                TimePoint.GEOMETRY, CortexModel::measureOrientation, FrameMeasurements::measureOrientation
+        );
+    }
+
+    /**
+     *
+     * @return see CortexModel#measureAverageActinPositions
+     */
+    public static MeasurementSeries averageActinPositions(){
+        return new MeasurementSeries(
+                TimePoint.ACTINS | TimePoint.CROSSLINKS,
+                (model, output) -> output.add(model.measureAverageActinPositions()),
+                FrameMeasurements::measureAverageActinPositions
+        );
+    }
+
+    /**
+     *
+     * @return see CortexModel#measureThickness
+     */
+    public static MeasurementSeries thickness(){
+        return new MeasurementSeries(TimePoint.ACTINS, (model, output) -> output.add(model.measureThickness()));
+    }
+
+    /**
+     *
+     * @return {number of bound myosin heads}, the same as SimulationReader#getBoundMyosinHeadCount.
+     */
+    public static MeasurementSeries boundHeads(){
+        return new MeasurementSeries(TimePoint.ALL, (model, output) -> output.add(new double[]{
+                model.getMyosins().stream().mapToDouble(
+                        m->(m.isBound(MyosinMotor.FRONT)?1:0) + (m.isBound(MyosinMotor.BACK)?1:0)
+                ).sum()
+        }));
+    }
+
+    @Override
+    public double[] measure(CortexModel model, int frame){
+        List<double[]> output = new ArrayList<>(1);
+        measurement.accept(model, output);
+        return output.get(0);
+    }
+
+    @Override
+    public double[] measure(FrameMeasurements measurements, FrameView view, int frame){
+        if(viewMeasurement==null){
+            return FrameMetric.super.measure(measurements, view, frame);
+        }
+        return viewMeasurement.apply(measurements, view);
+    }
+
+    @Override
+    public boolean measuresViews(){
+        return viewMeasurement!=null;
+    }
+
+    @Override
+    public void collect(int frame, double[] value){
+        values.add(value);
+    }
+
+    @Override
+    public int getSections(){
+        return sections;
+    }
+
+    /**
+     *
+     * @return the measurement of each time point that has been visited.
+     */
+    public List<double[]> getValues(){
+        return values;
+    }
+}
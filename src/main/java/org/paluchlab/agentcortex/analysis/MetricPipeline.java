@@ -0,0 +1,219 @@
+package org.paluchlab.agentcortex.analysis;
+
+import org.paluchlab.agentcortex.CortexModel;
+import org.paluchlab.agentcortex.io.FrameView;
+import org.paluchlab.agentcortex.io.MappedSimulationReader;
+import org.paluchlab.agentcortex.io.PrefetchingIterator;
+import org.paluchlab.agentcortex.io.SimulationReader;
+import org.paluchlab.agentcortex.io.TimePoint;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Computes several metrics with one pass over a simulation. Each time point is decoded and set to the model once, then
+ * every metric measures it, only the sections of the time points that the metrics need are read. The time points can
+ * also be measured in parallel, see #run(SimulationReader, int), and when every metric can measure a FrameView the
+ * parallel run reads the time points into views instead of creating agents.
+ *
+ * <pre>
+ *     MetricPipeline pipeline = new MetricPipeline();
+ *     MeasurementSeries tension = pipeline.add(MeasurementSeries.tension());
+ *     MeasurementSeries order = pipeline.add(MeasurementSeries.orientation());
+ *     pipeline.run(reader);
+ * </pre>
+ *
+ * Created on 10/19/26.
+ */
+public class MetricPipeline {
+    final static int LOOK_AHEAD = 4;
+    final List<FrameMetric> metrics = new ArrayList<>();
+
+    /**
+     * Adds a metric to be computed by #run.
+     *
+     * @param metric
+     * @return the metric, for retrieving the results after the run.
+     */
+    public <T extends FrameMetric> T add(T metric){
+        metrics.add(metric);
+        return metric;
+    }
+
+    /**
+     *
+     * @return the sections needed by all of the metrics.
+     */
+    public int getSections(){
+        int sections = 0;
+        for(FrameMetric metric: metrics){
+            sections |= metric.getSections();
+        }
+        return sections;
+    }
+
+    /**
+     * Visits each time point of the simulation, in order, with every metric. If a time point cannot be decoded the
+     * run stops there, so all of the metrics have measured the same time points.
+     *
+     * @param reader reader with the time points loaded.
+     * @return the number of time points measured.
+     */
+    public int run(SimulationReader reader){
+        CortexModel model = reader.model;
+        int frame = 0;
+        try(PrefetchingIterator points = reader.prefetch(LOOK_AHEAD, getSections())){
+            while(points.hasNext()){
+                TimePoint tp = points.next();
+                if(tp==null){
+                    System.err.println("could not decode time point " + frame + ", stopping after " + frame + " time points.");
+                    break;
+                }
+                model.setTimePoint(tp, false);
+                for(FrameMetric metric: metrics){
+                    metric.collect(frame, metric.measure(model, frame));
+                }
+                frame++;
+            }
+        }
+        return frame;
+    }
+
+    /**
+     *
+     * @return true if every metric can measure a FrameView.
+     */
+    public boolean measuresViews(){
+        for(FrameMetric metric: metrics){
+            if(!metric.measuresViews()){
+                return false;
+            }
+        }
+        return metrics.size()>0;
+    }
+
+    /**
+     * Measures the time points in parallel, then the measurements are collected in order as with
+     * #run(SimulationReader). When every metric can measure a FrameView, each thread reads consecutive time points
+     * into its own view with its own MappedSimulationReader, see FrameMeasurements, otherwise each thread decodes
+     * consecutive time points and measures them with its own model, which shares the constants of the reader's model.
+     *
+     * If a time point cannot be decoded, the run stops there as with #run(SimulationReader).
+     *
+     * @param reader reader with the time points loaded.
+     * @param threads number of threads, 1 or less runs on the current thread.
+     * @return the number of time points measured.
+     * @throws IllegalStateException if a metric fails, or the run is interrupted, none of the measurements are
+     * collected.
+     */
+    public int run(SimulationReader reader, int threads){
+        if(threads<=1){
+            return run(reader);
+        }
+        double[][][] measured = new double[reader.getPointCount()][][];
+        Runnable measure = measuresViews() ? ()->measureViews(reader, measured) : ()->measureModels(reader, measured);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try{
+            pool.submit(measure).get();
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while measuring time points.", e);
+        } catch(ExecutionException e){
+            throw new IllegalStateException("failed to measure the time points of " + reader.getTag(), e.getCause());
+        } finally{
+            pool.shutdown();
+        }
+
+        int frame = 0;
+        while(frame<measured.length && measured[frame]!=null){
+            for(int i = 0; i<metrics.size(); i++){
+                metrics.get(i).collect(frame, measured[frame][i]);
+            }
+            measured[frame] = null;
+            frame++;
+        }
+        if(frame<measured.length){
+            System.err.println("could not decode time point " + frame + ", stopping after " + frame + " time points.");
+        }
+        return frame;
+    }
+
+    /**
+     * Decodes the time points with the parallel stream of the reader, and measures them with a model for each thread.
+     * The time points are decoded without the cache of the reader, so each one belongs to the thread measuring it, and
+     * its interactions are set to that thread's model. Time points that cannot be decoded are left null.
+     */
+    private void measureModels(SimulationReader reader, double[][][] measured){
+        ThreadLocal<CortexModel> models = ThreadLocal.withInitial(()->new CortexModel(reader.getConstants()));
+        reader.parallelStream(getSections(), false).forEach(tp->{
+            if(tp==null){
+                return;
+            }
+            CortexModel model = models.get();
+            tp.setModel(model);
+            model.setTimePoint(tp, false);
+            double[][] values = new double[metrics.size()][];
+            for(int i = 0; i<values.length; i++){
+                values[i] = metrics.get(i).measure(model, tp.getIndex());
+            }
+            measured[tp.getIndex()] = values;
+        });
+    }
+
+    /**
+     * Reads the time points into a view for each thread. The threads measure ranges of consecutive time points, so a
+     * mapped reader only walks back to a keyframe at the start of each range. Time points that cannot be read are left
+     * null.
+     */
+    private void measureViews(SimulationReader reader, double[][][] measured){
+        List<ViewWorker> workers = Collections.synchronizedList(new ArrayList<>());
+        ThreadLocal<ViewWorker> local = ThreadLocal.withInitial(()->{
+            try{
+                ViewWorker worker = new ViewWorker(new MappedSimulationReader(reader));
+                workers.add(worker);
+                return worker;
+            } catch(IOException e){
+                throw new UncheckedIOException(e);
+            }
+        });
+        try{
+            IntStream.range(0, measured.length).parallel().forEach(frame->{
+                ViewWorker worker = local.get();
+                try{
+                    worker.mapped.readFrame(frame, worker.view);
+                } catch(IOException e){
+                    return;
+                }
+                double[][] values = new double[metrics.size()][];
+                for(int i = 0; i<values.length; i++){
+                    values[i] = metrics.get(i).measure(worker.measurements, worker.view, frame);
+                }
+                measured[frame] = values;
+            });
+        } finally{
+            for(ViewWorker worker: workers){
+                worker.mapped.close();
+            }
+        }
+    }
+
+    /**
+     * The mapped reader, view and working arrays of one thread.
+     */
+    static class ViewWorker{
+        final MappedSimulationReader mapped;
+        final FrameView view;
+        final FrameMeasurements measurements = new FrameMeasurements();
+
+        ViewWorker(MappedSimulationReader mapped){
+            this.mapped = mapped;
+            view = mapped.createView();
+        }
+    }
+}
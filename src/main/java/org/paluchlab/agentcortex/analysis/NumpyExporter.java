@@ -0,0 +1,325 @@
+package org.paluchlab.agentcortex.analysis;
+
+import org.paluchlab.agentcortex.agents.MyosinMotor;
+import org.paluchlab.agentcortex.io.FrameView;
+import org.paluchlab.agentcortex.io.MappedSimulationReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Exports a simulation as NumPy .npy arrays, which can be opened with numpy.load, including with mmap_mode. The
+ * shape of every array is known from the index before any data is read, so each header is written once and the data
+ * is streamed as little endian values.
+ *
+ * <pre>
+ * time.npy               float64 (frames,)
+ * positions.npy          float64 (frames, rods, 3)     actins followed by motors.
+ * directions.npy         float64 (frames, rods, 3)
+ * bound.npy              int32   (frames, motors, 2)   filament bound by the front and back head, -1 if free.
+ * binding_positions.npy  float64 (frames, motors, 2)
+ * link_offsets.npy       int64   (frames + 1,)         crosslinks of frame i are offsets[i] to offsets[i+1]
+ * links.npy              int32   (crosslinks, 2)       filaments of each crosslink.
+ * link_positions.npy     float64 (crosslinks, 2)
+ * tension.npy            float64 (frames, 11)          rows of CortexModel#measureTension
+ * orientation.npy        float64 (frames, 16)          rows of CortexModel#measureOrientation
+ * </pre>
+ *
+ * Created on 10/19/26.
+ */
+public class NumpyExporter {
+    final static int TENSION_COLUMNS = 11;
+    final static int ORIENTATION_COLUMNS = 16;
+    final static int[] heads = {MyosinMotor.FRONT, MyosinMotor.BACK};
+
+    /**
+     * Writes the arrays for a simulation into a directory. If the export fails, the arrays that were started are
+     * deleted.
+     *
+     * @param reader source simulation.
+     * @param directory destination, created if it does not exist.
+     * @return the files written.
+     * @throws IOException
+     */
+    public static List<File> export(MappedSimulationReader reader, File directory) throws IOException {
+        Files.createDirectories(directory.toPath());
+        int frames = reader.getPointCount();
+        int rods = reader.getRodValueCount()/6;
+        int actins = reader.getActinLengths().length;
+        int motors = reader.getConstants().motors;
+        long[] offsets = new long[frames + 1];
+        for(int i = 0; i<frames; i++){
+            offsets[i + 1] = offsets[i] + reader.getLinkCount(i);
+        }
+        long links = offsets[frames];
+
+        List<NpyWriter> arrays = new ArrayList<>();
+        try{
+            NpyWriter time = add(arrays, new NpyWriter(new File(directory, "time.npy"), NpyWriter.FLOAT64, frames));
+            NpyWriter positions = add(arrays, new NpyWriter(new File(directory, "positions.npy"), NpyWriter.FLOAT64, frames, rods, 3));
+            NpyWriter directions = add(arrays, new NpyWriter(new File(directory, "directions.npy"), NpyWriter.FLOAT64, frames, rods, 3));
+            NpyWriter bound = add(arrays, new NpyWriter(new File(directory, "bound.npy"), NpyWriter.INT32, frames, motors, 2));
+            NpyWriter bindingPositions = add(arrays, new NpyWriter(new File(directory, "binding_positions.npy"), NpyWriter.FLOAT64, frames, motors, 2));
+            NpyWriter linkOffsets = add(arrays, new NpyWriter(new File(directory, "link_offsets.npy"), NpyWriter.INT64, frames + 1));
+            NpyWriter linked = add(arrays, new NpyWriter(new File(directory, "links.npy"), NpyWriter.INT32, links, 2));
+            NpyWriter linkPositions = add(arrays, new NpyWriter(new File(directory, "link_positions.npy"), NpyWriter.FLOAT64, links, 2));
+            NpyWriter tension = add(arrays, new NpyWriter(new File(directory, "tension.npy"), NpyWriter.FLOAT64, frames, TENSION_COLUMNS));
+            NpyWriter orientation = add(arrays, new NpyWriter(new File(directory, "orientation.npy"), NpyWriter.FLOAT64, frames, ORIENTATION_COLUMNS));
+
+            for(long offset: offsets){
+                linkOffsets.putLong(offset);
+            }
+
+            FrameView view = reader.createView();
+            FrameMeasurements measurements = new FrameMeasurements();
+            double[] point = new double[3];
+            for(int i = 0; i<frames; i++){
+                reader.readFrame(i, view);
+                if(view.getActinCount()!=actins || view.getBindingCount()!=motors){
+                    throw new IOException("the number of actins or bindings at time point " + i + " does not match the simulation file");
+                }
+                time.putDouble(view.getTime());
+                for(int r = 0; r<rods; r++){
+                    positions.putDoubles(view.getPosition(r, point), 3);
+                    directions.putDoubles(view.getDirection(r, point), 3);
+                }
+                for(int b = 0; b<motors; b++){
+                    for(int head: heads){
+                        bound.putInt(view.getBoundFilament(b, head));
+                        bindingPositions.putDouble(view.getBindingPosition(b, head));
+                    }
+                }
+                for(int l = 0; l<view.getLinkCount(); l++){
+                    linked.putInt(view.getLinkedFilament(l, 0));
+                    linked.putInt(view.getLinkedFilament(l, 1));
+                    linkPositions.putDouble(view.getLinkPosition(l, 0));
+                    linkPositions.putDouble(view.getLinkPosition(l, 1));
+                }
+                double[] t = measurements.measureTension(view);
+                tension.putDoubles(t, t.length);
+                double[] o = measurements.measureOrientation(view);
+                orientation.putDoubles(o, o.length);
+            }
+        } catch(IOException | RuntimeException | Error e){
+            for(NpyWriter array: arrays){
+                try{
+                    array.discard();
+                } catch(IOException suppressed){
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw e;
+        }
+        IOException failure = null;
+        for(NpyWriter array: arrays){
+            try{
+                array.close();
+            } catch(IOException e){
+                if(failure==null){
+                    failure = e;
+                } else{
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if(failure!=null){
+            for(NpyWriter array: arrays){
+                Files.deleteIfExists(array.file.toPath());
+            }
+            throw failure;
+        }
+        List<File> files = new ArrayList<>();
+        for(NpyWriter array: arrays){
+            files.add(array.file);
+        }
+        return files;
+    }
+
+    static NpyWriter add(List<NpyWriter> arrays, NpyWriter array){
+        arrays.add(array);
+        return array;
+    }
+
+    /**
+     * Combines .npy files into a .npz archive. The entries are stored without compression, so they can be read
+     * directly from the archive.
+     *
+     * @param files .npy files.
+     * @param destination archive.
+     * @throws IOException
+     */
+    public static void zip(List<File> files, File destination) throws IOException {
+        byte[] buffer = new byte[1<<16];
+        try(ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(destination.toPath()))){
+            for(File file: files){
+                //stored entries need the crc before the data.
+                CRC32 crc = new CRC32();
+                try(InputStream in = Files.newInputStream(file.toPath())){
+                    int r;
+                    while((r = in.read(buffer))>0){
+                        crc.update(buffer, 0, r);
+                    }
+                }
+                ZipEntry entry = new ZipEntry(file.getName());
+                entry.setMethod(ZipEntry.STORED);
+                entry.setSize(file.length());
+                entry.setCompressedSize(file.length());
+                entry.setCrc(crc.getValue());
+                zos.putNextEntry(entry);
+                Files.copy(file.toPath(), (OutputStream)zos);
+                zos.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * Exports a simulation.
+     *
+     * @param args tag-simulation.txt output-directory [npz]
+     */
+    public static void main(String[] args) throws IOException {
+        if(args.length<2){
+            System.out.println("usage: NumpyExporter tag-simulation.txt output-directory [npz]");
+            System.out.println("  npz: also combine the arrays into output-directory.npz");
+            return;
+        }
+        File directory = new File(args[1]);
+        try(MappedSimulationReader reader = MappedSimulationReader.fromSimulationFile(new File(args[0]))){
+            if(reader==null){
+                return;
+            }
+            List<File> files = export(reader, directory);
+            System.out.println("exported " + reader.getPointCount() + " time points to " + directory);
+            if(args.length>2 && args[2].equals("npz")){
+                File archive = new File(directory.getAbsoluteFile().getParentFile(), directory.getName() + ".npz");
+                zip(files, archive);
+                System.out.println("wrote " + archive);
+            }
+        }
+    }
+}
+
+/**
+ * Writes a single .npy array. The header is written when the file is opened, and the values are buffered and written
+ * in little endian order. Closing checks that the number of values matches the shape, a failed array is discarded
+ * instead.
+ */
+class NpyWriter implements AutoCloseable{
+    final static String FLOAT64 = "<f8";
+    final static String INT32 = "<i4";
+    final static String INT64 = "<i8";
+    final static int BUFFER = 1<<20;
+    final static byte[] MAGIC = {(byte)0x93, 'N', 'U', 'M', 'P', 'Y', 1, 0};
+
+    final File file;
+    final FileChannel channel;
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+    final long expected;
+    long written;
+
+    NpyWriter(File file, String type, long... shape) throws IOException {
+        this.file = file;
+        long count = 1;
+        StringBuilder dims = new StringBuilder();
+        for(long s: shape){
+            count *= s;
+            dims.append(s).append(", ");
+        }
+        expected = count;
+        String tuple = shape.length==1 ? "(" + shape[0] + ",)" : "(" + dims.substring(0, dims.length() - 2) + ")";
+        StringBuilder header = new StringBuilder(
+                "{'descr': '" + type + "', 'fortran_order': False, 'shape': " + tuple + ", }"
+        );
+        //the data starts on a multiple of 64 bytes, the header ends with a newline.
+        while((MAGIC.length + 2 + header.length() + 1)%64!=0){
+            header.append(' ');
+        }
+        header.append('\n');
+        channel = FileChannel.open(
+                file.toPath(),
+                StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING
+        );
+        buffer.put(MAGIC);
+        buffer.putShort((short)header.length());
+        buffer.put(header.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    void putDouble(double v) throws IOException {
+        ensure(8);
+        buffer.putDouble(v);
+        written++;
+    }
+
+    void putDoubles(double[] values, int count) throws IOException {
+        ensure(8*count);
+        buffer.asDoubleBuffer().put(values, 0, count);
+        buffer.position(buffer.position() + 8*count);
+        written += count;
+    }
+
+    void putInt(int v) throws IOException {
+        ensure(4);
+        buffer.putInt(v);
+        written++;
+    }
+
+    void putLong(long v) throws IOException {
+        ensure(8);
+        buffer.putLong(v);
+        written++;
+    }
+
+    void ensure(int bytes) throws IOException {
+        if(buffer.remaining()<bytes){
+            flush();
+        }
+    }
+
+    void flush() throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining()){
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try{
+            flush();
+        } finally{
+            channel.close();
+        }
+        if(written!=expected){
+            throw new IOException(file + " has " + written + " values, the shape requires " + expected);
+        }
+    }
+
+    /**
+     * Closes the file without writing the buffered values, and deletes it.
+     *
+     * @throws IOException
+     */
+    void discard() throws IOException {
+        try{
+            channel.close();
+        } finally{
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+}
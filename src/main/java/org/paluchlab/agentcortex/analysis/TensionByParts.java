@@ -80,18 +80,20 @@ public class TensionByParts {
             SimulationReader r = SimulationReader.fromLockFile(f);
 
             if(r!=null) {
-                List<double[]> tensions = new ArrayList<>();
                 CortexModel model = r.model;
-                for(int i = 0; i<r.getPointCount(); i++){
-                    TimePoint tp = r.getTimePoint(i);
-                    model.setTimePoint(tp);
-                    model.measureTensionByParts(tensions);
-                    if(i>=50){
-                        double fils = model.getActin().size();
-                        double n =  model.getCrosslinkers().size()/fils;
-                        nx += n;
-                        nx_sqd += n*n;
-                    }
+                MetricPipeline pipeline = new MetricPipeline();
+                MeasurementSeries parts = pipeline.add(MeasurementSeries.tensionByParts());
+                MeasurementSeries links = pipeline.add(new MeasurementSeries(
+                        TimePoint.ACTINS | TimePoint.CROSSLINKS,
+                        (m, output) -> output.add(new double[]{m.getCrosslinkers().size()/(double)m.getActin().size()})
+                ));
+                pipeline.run(r, Runtime.getRuntime().availableProcessors());
+                List<double[]> tensions = parts.getValues();
+                List<double[]> linksPerFilament = links.getValues();
+                for(int i = 50; i<linksPerFilament.size(); i++){
+                    double n = linksPerFilament.get(i)[0];
+                    nx += n;
+                    nx_sqd += n*n;
                 }
                 double it0 = 1/(model.constants.WIDTH*model.getT0());
                 double it0sqd = it0*it0;
@@ -11,7 +11,9 @@ import org.paluchlab.agentcortex.ModelController;
 import org.paluchlab.agentcortex.agents.Agent;
 import org.paluchlab.agentcortex.agents.Rod;
 import org.paluchlab.agentcortex.geometry.Box3D;
+import org.paluchlab.agentcortex.io.SimulationFollower;
 import org.paluchlab.agentcortex.io.SimulationReader;
+import org.paluchlab.agentcortex.io.TimePoint;
 
 import javax.swing.*;
 import java.awt.*;
@@ -485,7 +487,11 @@ class SimulationViewer{
     SwingDisplay parent;
     JLabel indexLabel;
     String labelFormat= "%d/%d";
+    //milliseconds between checking a followed simulation.
+    final static long FOLLOW_INTERVAL = 2000;
     JCheckBox record;
+    JCheckBox follow;
+    SimulationFollower follower;
     List<JButton> buttons = new ArrayList<>();
     SimulationViewer(ModelController mc, SwingDisplay p){
         frame = new JFrame("History Viewer");
@@ -506,12 +512,15 @@ class SimulationViewer{
         previousTimePoint.addActionListener((evt)->previous());
         JButton play = new JButton("play");
         record = new JCheckBox("record graphs");
+        follow = new JCheckBox("follow");
+        follow.addActionListener((evt)->follow(follow.isSelected()));
 
         play.addActionListener((evt)->play());
         content.add(nextTimePoint);
         content.add(previousTimePoint);
         content.add(play);
         content.add(record);
+        content.add(follow);
 
         indexLabel = new JLabel("0/0");
         content.add(indexLabel);
@@ -596,9 +605,13 @@ class SimulationViewer{
      * refresh and redraw.
      */
     void updateDisplay(){
-        indexLabel.setText(String.format("%d/%d", index+1, reader.getPointCount()));
-        controller.setTimePoint(reader.getTimePoint(index));
-        controller.submit(parent::drawImages);
+        int count = reader.getPointCount();
+        index = Math.max(0, Math.min(index, count - 1));
+        indexLabel.setText(String.format("%d/%d", index+1, count));
+        if(count>0){
+            controller.setTimePoint(reader.getTimePoint(index));
+            controller.submit(parent::drawImages);
+        }
     }
 
     /**
@@ -607,12 +620,56 @@ class SimulationViewer{
      * @param reader
      */
     public void setSimulationReader(SimulationReader reader){
+        follow(false);
+        follow.setSelected(false);
         this.reader=reader;
         index = 0;
         updateDisplay();
 
     }
 
+    /**
+     * Watches the simulation for new time points while it is being written. When the last time point is displayed,
+     * the display moves to each new time point. When time points are removed, the display moves back to the last time
+     * point if it was showing a removed one.
+     *
+     * @param following start or stop following.
+     */
+    void follow(boolean following){
+        if(follower!=null){
+            follower.close();
+            follower = null;
+        }
+        if(following && reader!=null){
+            follower = new SimulationFollower(reader);
+            follower.addListener(new SimulationFollower.Listener(){
+                @Override
+                public void frameAdded(int i, TimePoint point){
+                    EventQueue.invokeLater(()->{
+                        if(index==i-1){
+                            index = i;
+                            updateDisplay();
+                        } else{
+                            indexLabel.setText(String.format(labelFormat, index+1, reader.getPointCount()));
+                        }
+                    });
+                }
+
+                @Override
+                public void framesRemoved(int count){
+                    EventQueue.invokeLater(()->{
+                        if(index>=reader.getPointCount()){
+                            updateDisplay();
+                        } else{
+                            indexLabel.setText(String.format(labelFormat, index+1, reader.getPointCount()));
+                        }
+                    });
+                }
+            });
+            follower.start(FOLLOW_INTERVAL);
+        }
+    }
+
     /**
      * show this.
      */
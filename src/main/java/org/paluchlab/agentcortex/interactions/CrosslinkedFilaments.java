@@ -49,8 +49,6 @@ public class CrosslinkedFilaments{
         this.b_s = b_s;
         this.duration = duration;
         this.time = 0;
-        a.bind(b);
-        b.bind(a);
 
         double[] x1 = a.getPoint(a_s);
         double[] x2 = b.getPoint(b_s);
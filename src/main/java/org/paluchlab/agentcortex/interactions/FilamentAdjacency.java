@@ -0,0 +1,275 @@
+package org.paluchlab.agentcortex.interactions;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Which actin filaments are crosslinked to each other, by filament id. Each crosslinked pair is stored once in a
+ * primitive hash table, so checking or adding a pair takes constant time regardless of how many filaments are
+ * crosslinked to either filament.
+ *
+ * The neighbours of each filament are kept in compressed rows, an offset for each filament into a single array of
+ * neighbour ids, which are rebuilt from the pairs in one pass the first time they are used after a change.
+ *
+ * Created on 10/19/26.
+ */
+public class FilamentAdjacency {
+    final static long EMPTY = -1;
+
+    //open addressing table of pair keys, and the index of each pair in first/second.
+    long[] keys = new long[16];
+    int[] slots = new int[16];
+    int[] first = new int[8];
+    int[] second = new int[8];
+    int pairs;
+    int filaments;
+
+    //compressed rows, neighbours of filament i are neighbours[offsets[i]] to neighbours[offsets[i+1]-1].
+    int[] offsets = new int[1];
+    int[] neighbours = new int[0];
+    boolean rowsValid = true;
+
+    public FilamentAdjacency(){
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * Replaces the pairs with the filaments of each crosslink, eg. after the crosslinks of a time point have been
+     * loaded.
+     *
+     * @param filaments number of filaments, the ids are from 0 to filaments - 1.
+     * @param crosslinks crosslinks with filament ids that are set.
+     */
+    public void build(int filaments, List<CrosslinkedFilaments> crosslinks){
+        clear();
+        this.filaments = filaments;
+        ensureCapacity(crosslinks.size());
+        for(CrosslinkedFilaments x: crosslinks){
+            add(x.a.id, x.b.id);
+        }
+    }
+
+    /**
+     * Removes all of the pairs.
+     */
+    public void clear(){
+        Arrays.fill(keys, EMPTY);
+        pairs = 0;
+        filaments = 0;
+        rowsValid = false;
+    }
+
+    /**
+     * Adds a crosslinked pair.
+     *
+     * @param a id of a filament.
+     * @param b id of the other filament.
+     * @return false if the filaments were already crosslinked.
+     */
+    public boolean add(int a, int b){
+        ensureCapacity(pairs + 1);
+        long key = key(a, b);
+        int slot = find(key);
+        if(keys[slot]!=EMPTY){
+            return false;
+        }
+        keys[slot] = key;
+        slots[slot] = pairs;
+        first[pairs] = a;
+        second[pairs] = b;
+        pairs++;
+        filaments = Math.max(filaments, Math.max(a, b) + 1);
+        rowsValid = false;
+        return true;
+    }
+
+    /**
+     * Removes a crosslinked pair.
+     *
+     * @param a id of a filament.
+     * @param b id of the other filament.
+     * @return false if the filaments were not crosslinked.
+     */
+    public boolean remove(int a, int b){
+        int slot = find(key(a, b));
+        if(keys[slot]==EMPTY){
+            return false;
+        }
+        int index = slots[slot];
+        deleteSlot(slot);
+
+        //the last pair takes the place of the removed pair.
+        pairs--;
+        if(index!=pairs){
+            first[index] = first[pairs];
+            second[index] = second[pairs];
+            slots[find(key(first[index], second[index]))] = index;
+        }
+        rowsValid = false;
+        return true;
+    }
+
+    /**
+     * Checks if two filaments are crosslinked.
+     *
+     * @param a id of a filament.
+     * @param b id of the other filament.
+     * @return true if the pair has been added.
+     */
+    public boolean contains(int a, int b){
+        return keys[find(key(a, b))]!=EMPTY;
+    }
+
+    /**
+     *
+     * @return number of crosslinked pairs.
+     */
+    public int size(){
+        return pairs;
+    }
+
+    /**
+     *
+     * @param f id of a filament.
+     * @return number of filaments crosslinked to f.
+     */
+    public int degree(int f){
+        updateRows();
+        return f<filaments ? offsets[f + 1] - offsets[f] : 0;
+    }
+
+    /**
+     *
+     * @param f id of a filament.
+     * @param k index of the neighbour, less than #degree.
+     * @return id of the k'th filament crosslinked to f.
+     */
+    public int getNeighbour(int f, int k){
+        updateRows();
+        if(k<0 || k>=degree(f)){
+            throw new IndexOutOfBoundsException("neighbour " + k + " of filament " + f);
+        }
+        return neighbours[offsets[f] + k];
+    }
+
+    /**
+     * Passes the id of each filament crosslinked to f.
+     *
+     * @param f id of a filament.
+     * @param action receives the neighbour ids.
+     */
+    public void forEachNeighbour(int f, IntConsumer action){
+        updateRows();
+        if(f>=filaments){
+            return;
+        }
+        for(int i = offsets[f]; i<offsets[f + 1]; i++){
+            action.accept(neighbours[i]);
+        }
+    }
+
+    /**
+     * Counts the pairs for each filament, then places them, so the rows are rebuilt in linear time.
+     */
+    void updateRows(){
+        if(rowsValid){
+            return;
+        }
+        if(offsets.length<filaments + 1){
+            offsets = new int[filaments + 1];
+        } else{
+            Arrays.fill(offsets, 0);
+        }
+        for(int i = 0; i<pairs; i++){
+            offsets[first[i] + 1]++;
+            offsets[second[i] + 1]++;
+        }
+        for(int i = 0; i<filaments; i++){
+            offsets[i + 1] += offsets[i];
+        }
+        if(neighbours.length<2*pairs){
+            neighbours = new int[2*pairs];
+        }
+        int[] next = Arrays.copyOf(offsets, filaments);
+        for(int i = 0; i<pairs; i++){
+            neighbours[next[first[i]]++] = second[i];
+            neighbours[next[second[i]]++] = first[i];
+        }
+        rowsValid = true;
+    }
+
+    static long key(int a, int b){
+        if(a<0 || b<0){
+            throw new IllegalArgumentException("filament ids have not been assigned: " + a + ", " + b);
+        }
+        return a<b ? ((long)a<<32)|b : ((long)b<<32)|a;
+    }
+
+    static int hash(long key){
+        long h = key*0x9E3779B97F4A7C15L;
+        return (int)(h^(h>>>32));
+    }
+
+    /**
+     * Linear probing.
+     *
+     * @return the slot containing key, or the empty slot where it would be added.
+     */
+    int find(long key){
+        int mask = keys.length - 1;
+        int slot = hash(key)&mask;
+        while(keys[slot]!=EMPTY && keys[slot]!=key){
+            slot = (slot + 1)&mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Empties a slot and moves the following keys back, so every key can still be found without probing past an
+     * empty slot.
+     */
+    void deleteSlot(int slot){
+        int mask = keys.length - 1;
+        int empty = slot;
+        int next = (slot + 1)&mask;
+        while(keys[next]!=EMPTY){
+            int home = hash(keys[next])&mask;
+            //the key can move to the empty slot if its home is not between the empty slot and its current slot.
+            boolean movable = empty<=next ? (home<=empty || home>next) : (home<=empty && home>next);
+            if(movable){
+                keys[empty] = keys[next];
+                slots[empty] = slots[next];
+                empty = next;
+            }
+            next = (next + 1)&mask;
+        }
+        keys[empty] = EMPTY;
+    }
+
+    /**
+     * Grows the table so the load stays below one half, and the pair arrays.
+     */
+    void ensureCapacity(int n){
+        if(first.length<n){
+            int size = Math.max(n, 2*first.length);
+            first = Arrays.copyOf(first, size);
+            second = Arrays.copyOf(second, size);
+        }
+        if(2*n<=keys.length){
+            return;
+        }
+        int size = keys.length;
+        while(2*n>size){
+            size = size<<1;
+        }
+        keys = new long[size];
+        slots = new int[size];
+        Arrays.fill(keys, EMPTY);
+        for(int i = 0; i<pairs; i++){
+            int slot = find(key(first[i], second[i]));
+            keys[slot] = key(first[i], second[i]);
+            slots[slot] = i;
+        }
+    }
+}
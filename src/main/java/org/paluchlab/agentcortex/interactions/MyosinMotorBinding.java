@@ -67,6 +67,24 @@ public class MyosinMotorBinding {
         unbind_time[head] = -motor.tau_B*Math.log(model.number_generator.nextDouble());
     }
 
+    /**
+     * Binds a head with a previously saved state. Unlike bind, no unbinding time is drawn, so the random number
+     * generator of the model is not used.
+     *
+     * @param f filament the head is bound to.
+     * @param head FRONT or BACK.
+     * @param position location along the filament.
+     * @param current time elapsed since binding.
+     * @param unbind time when the head will unbind.
+     */
+    public void restoreHead(ActinFilament f, int head, double position, double current, double unbind){
+        binding_position[head] = position;
+        motor.bind(f, head);
+        bound = true;
+        current_time[head] = current;
+        unbind_time[head] = unbind;
+    }
+
     /**
      * Applys forces to the tracked myosin motor.
      *
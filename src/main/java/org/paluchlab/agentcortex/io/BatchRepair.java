@@ -0,0 +1,197 @@
+package org.paluchlab.agentcortex.io;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Checks, and optionally repairs, every simulation found in directory trees, eg. after a cluster outage. Simulations
+ * are checked in parallel, and only the chunk headers of the data files are read, see FrameIndex#load, when the chunks
+ * have checksums the last committed time point is also verified. A simulation is broken when either data file
+ * continues after the last complete time point, in the modifyEnd scan mode the files are truncated after it.
+ *
+ * The report is tab separated, with one line for each simulation in the order they finish:
+ *
+ * simulation, status, time points, rod bytes after the last time point, interaction bytes after the last time point,
+ * message
+ *
+ * Created on 10/19/26.
+ */
+public class BatchRepair {
+    final static String SIMULATION_TAIL = "-simulation.txt";
+    final static int PROGRESS_INTERVAL = 1000;
+
+    enum Status{
+        ok, broken, repaired, missing, failed
+    }
+
+    /**
+     * The outcome of checking one simulation.
+     */
+    static class Result{
+        final File simulation;
+        Status status = Status.ok;
+        int points;
+        long rodExcess, interactionExcess;
+        String message = "";
+
+        Result(File simulation){
+            this.simulation = simulation;
+        }
+
+        String toLine(){
+            return String.format(
+                    "%s\t%s\t%d\t%d\t%d\t%s",
+                    simulation.getPath(), status, points, rodExcess, interactionExcess, message
+            );
+        }
+    }
+
+    /**
+     * Finds the simulation files in directory trees.
+     *
+     * @param roots directories to search.
+     * @return every tag-simulation.txt, sorted by path.
+     * @throws IOException
+     */
+    static List<File> findSimulations(List<Path> roots) throws IOException {
+        List<File> found = new ArrayList<>();
+        for(Path root: roots){
+            try(Stream<Path> paths = Files.walk(root)){
+                found.addAll(
+                        paths.filter(p->p.getFileName().toString().endsWith(SIMULATION_TAIL))
+                             .filter(Files::isRegularFile)
+                             .map(Path::toFile)
+                             .collect(Collectors.toList())
+                );
+            }
+        }
+        found.sort(null);
+        return found;
+    }
+
+    /**
+     * Checks a simulation by walking its chunk headers, and repairs it when the mode is modifyEnd.
+     *
+     * @param simFile tag-simulation.txt
+     * @param mode scan mode.
+     * @return the outcome, exceptions are recorded as failures.
+     */
+    static Result check(File simFile, RemoveBrokenTimePoints.ScanMode mode){
+        Result result = new Result(simFile);
+        String tag = simFile.getName().substring(0, simFile.getName().length() - SIMULATION_TAIL.length());
+        File d = simFile.getAbsoluteFile().getParentFile();
+        File rods = new File(d, tag + SimulationReader.ROD_TAIL);
+        File interactions = new File(d, tag + SimulationReader.INT_TAIL);
+        if(!rods.exists() || !interactions.exists()){
+            result.status = Status.missing;
+            result.message = "no data files";
+            return result;
+        }
+        try{
+            SimulationReader reader = new SimulationReader(simFile, rods, interactions);
+            reader.loadSimulation();
+            File index = FrameIndex.getIndexFile(simFile);
+            List<TimePointKey> keys = FrameIndex.load(index, rods, interactions, reader.getFormat());
+            long rodEnd = 0;
+            long interactionEnd = 0;
+            if(keys.size()>0){
+                TimePointKey last = keys.get(keys.size() - 1);
+                rodEnd = last.rodPosition + last.rodLength;
+                interactionEnd = last.interactionPosition + last.interactionLength;
+            }
+            result.points = keys.size();
+            result.rodExcess = Segments.length(rods) - rodEnd;
+            result.interactionExcess = Segments.length(interactions) - interactionEnd;
+            if(result.rodExcess==0 && result.interactionExcess==0){
+                return result;
+            }
+            result.status = Status.broken;
+            if(mode==RemoveBrokenTimePoints.ScanMode.modifyEnd){
+                Segments.truncate(rods, interactions, rodEnd, interactionEnd);
+                FrameIndex.write(index, keys);
+                result.status = Status.repaired;
+            }
+        } catch(Exception e){
+            result.status = Status.failed;
+            result.message = String.valueOf(e.getMessage()).replace('\t', ' ').replace('\n', ' ');
+        }
+        return result;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if(args.length<4){
+            System.out.println("usage: BatchRepair mode threads report.txt directory [directory ...]");
+            System.out.println("  mode 0: only check, 1: truncate broken simulations after the last complete time point.");
+            System.exit(0);
+        }
+        RemoveBrokenTimePoints.ScanMode mode;
+        int threads;
+        try{
+            mode = Integer.parseInt(args[0])==1 ?
+                    RemoveBrokenTimePoints.ScanMode.modifyEnd :
+                    RemoveBrokenTimePoints.ScanMode.doNothing;
+            threads = Integer.parseInt(args[1]);
+        } catch(NumberFormatException exc){
+            System.out.println("the mode and number of threads must be integers!");
+            System.exit(-1);
+            return;
+        }
+        List<Path> roots = new ArrayList<>();
+        for(int i = 3; i<args.length; i++){
+            roots.add(Paths.get(args[i]));
+        }
+        List<File> simulations = findSimulations(roots);
+        System.out.println("found " + simulations.size() + " simulations.");
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        CompletionService<Result> results = new ExecutorCompletionService<>(pool);
+        for(File simulation: simulations){
+            results.submit(()->check(simulation, mode));
+        }
+        int[] counts = new int[Status.values().length];
+        try(BufferedWriter report = Files.newBufferedWriter(Paths.get(args[2]), StandardCharsets.UTF_8)){
+            report.write("#simulation\tstatus\tpoints\trod excess\tinteraction excess\tmessage\n");
+            for(int i = 0; i<simulations.size(); i++){
+                Result result;
+                try{
+                    result = results.take().get();
+                } catch(ExecutionException e){
+                    //check records its own failures.
+                    e.printStackTrace();
+                    continue;
+                }
+                counts[result.status.ordinal()]++;
+                report.write(result.toLine());
+                report.write('\n');
+                if(result.status!=Status.ok){
+                    System.out.println(result.toLine());
+                }
+                if((i + 1)%PROGRESS_INTERVAL==0){
+                    report.flush();
+                    System.out.println("checked " + (i + 1) + " of " + simulations.size());
+                }
+            }
+        } finally{
+            pool.shutdownNow();
+        }
+        StringBuilder summary = new StringBuilder("finished:");
+        for(Status status: Status.values()){
+            summary.append(" ").append(status).append(" ").append(counts[status.ordinal()]);
+        }
+        System.out.println(summary);
+    }
+}
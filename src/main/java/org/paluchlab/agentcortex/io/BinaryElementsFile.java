@@ -4,11 +4,12 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
-import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Loads chunks of binary data, elements, in a file as byte[] chunks. The first 3 bytes indicate the length of
@@ -19,7 +20,8 @@ import java.util.List;
  *
  * The position of the first chunk starts at 4. and the length is the length of the data not including the index.
  *
- * This class cann also be used for removing chunks.
+ * This class cann also be used for removing chunks. Any number of chunks can be marked for removal, and they are all
+ * removed in a single pass when the file is closed.
  *
  * Created on 13/04/16.
  */
@@ -37,10 +39,13 @@ public class BinaryElementsFile implements AutoCloseable{
         }
     }
     private List<LineInformation> lineLocs = new ArrayList<>();
-    private List<LineInformation> toRemove = new ArrayList<>();
+    //position and length of the chunks to remove, sorted by position.
+    private TreeMap<Long, Integer> toRemove = new TreeMap<>();
+    //size of the buffer used to move the data that follows removed chunks.
+    final static int BLOCK = 8<<20;
 
     final RandomAccessFile file;
-    final SeekableByteChannel channel;
+    final FileChannel channel;
 
     /**
      * Opens an elements file, read only.
@@ -84,8 +89,50 @@ public class BinaryElementsFile implements AutoCloseable{
         return chunk;
     }
 
+    /**
+     * Reads the size of the next chunk and moves past its data without reading it. A chunk that extends past the end of
+     * the file, eg. when writing was interrupted, is not complete and the file position is left at its start.
+     *
+     * @return the size of the skipped chunk, or -1 if there are no more complete chunks.
+     * @throws IOException
+     */
+    public int skipNextChunk() throws IOException {
+        long start = file.getFilePointer();
+        long position = start + 4l;
+        long length = file.length();
+        if(position>=length){
+            return -1;
+        }
+        int size = file.readInt();
+        if(size<0 || position + size>length){
+            file.seek(start);
+            return -1;
+        }
+        file.seek(position + size);
+        lineLocs.add(new LineInformation(position, size));
+        return size;
+    }
+
     public void removeLastLine(){
-        toRemove.add(lineLocs.get(lineLocs.size()-1));
+        removeLine(lineLocs.size()-1);
+    }
+
+    /**
+     * Marks a chunk that has been read, or skipped, to be removed when the file is closed.
+     *
+     * @param index index of the chunk, in the order the chunks were read.
+     */
+    public void removeLine(int index){
+        LineInformation information = lineLocs.get(index);
+        toRemove.put(information.position, information.length);
+    }
+
+    /**
+     *
+     * @return the number of chunks that have been read or skipped.
+     */
+    public int getLineCount(){
+        return lineLocs.size();
     }
 
     public long getLastPosition(){
@@ -97,46 +144,73 @@ public class BinaryElementsFile implements AutoCloseable{
     }
 
     /**
-     * Closes the file,
+     * Closes the file, removing any chunks that have been marked for removal.
+     *
      * @throws IOException
      */
     @Override
     public void close() throws IOException {
-        long truncated = 0;
-        if(toRemove.size()>0){
-            Iterator<LineInformation> iter = toRemove.iterator();
-            int longest = 0;
-            for(LineInformation lif: lineLocs){
-                longest = lif.length+4>longest?lif.length+4:longest;
+        try{
+            if(toRemove.size()>0){
+                compact();
             }
+        } finally{
+            channel.close();
+            file.close();
+        }
+    }
 
-            ByteBuffer buff = ByteBuffer.wrap(new byte[longest]);
-
-            for(LineInformation information: lineLocs){
-                //go through all of the lineLocs, remove if nescessary.
-                if(toRemove.contains(information)){
-                    //remove the line, and its length.
-                    truncated += 4 + information.length;
-                } else if(truncated>0){
-                    //read the old bytes, and their size.
-                    channel.position(information.position-4);
-                    buff.limit(information.length+4);
-                    channel.read(buff);
-                    buff.rewind();
-                    channel.position(information.position - truncated - 4);
-                    channel.write(buff);
-                    buff.rewind();
-                }
-
+    /**
+     * Removes the marked chunks in one pass. The data between consecutive removed chunks, and after the last one, is
+     * moved towards the start of the file in large blocks, so each byte is moved at most once, then the file is
+     * truncated.
+     *
+     * @throws IOException
+     */
+    private void compact() throws IOException {
+        long size = channel.size();
+        ByteBuffer block = ByteBuffer.allocateDirect((int)Math.min(BLOCK, size));
+        //where the next surviving data will be moved to, and where it starts.
+        long destination = -1;
+        long next = 0;
+        for(Map.Entry<Long, Integer> removal: toRemove.entrySet()){
+            long start = removal.getKey() - 4;
+            if(destination<0){
+                //the data before the first removed chunk stays in place.
+                destination = start;
+            } else{
+                destination = move(block, next, start, destination);
             }
-
-            //
-            channel.truncate(channel.size()-truncated);
+            next = removal.getKey() + removal.getValue();
         }
-
-        channel.close();
-        file.close();
+        destination = move(block, next, size, destination);
+        channel.truncate(destination);
     }
 
-
+    /**
+     * Moves a region of the file to an earlier position, in order, so the region can overlap its destination.
+     *
+     * @param block buffer used for copying.
+     * @param from start of the region.
+     * @param to end of the region.
+     * @param destination new start of the region.
+     * @return the new end of the region.
+     * @throws IOException
+     */
+    private long move(ByteBuffer block, long from, long to, long destination) throws IOException {
+        if(destination==from){
+            return to;
+        }
+        while(from<to){
+            block.clear();
+            block.limit((int)Math.min(block.capacity(), to - from));
+            FrameIndex.readFully(channel, block, from);
+            from += block.position();
+            block.flip();
+            while(block.hasRemaining()){
+                destination += channel.write(block, destination);
+            }
+        }
+        return destination;
+    }
 }
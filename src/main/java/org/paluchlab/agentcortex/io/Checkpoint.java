@@ -0,0 +1,274 @@
+package org.paluchlab.agentcortex.io;
+
+import org.paluchlab.agentcortex.CortexModel;
+import org.paluchlab.agentcortex.agents.ActinFilament;
+import org.paluchlab.agentcortex.agents.Crosslinker;
+import org.paluchlab.agentcortex.agents.MyosinMotor;
+import org.paluchlab.agentcortex.agents.Rod;
+import org.paluchlab.agentcortex.interactions.CrosslinkedFilaments;
+import org.paluchlab.agentcortex.interactions.MyosinMotorBinding;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The complete state of a running simulation. Unlike a time point, a checkpoint also stores the binding timers, the
+ * adaptive time step of the integrator, the error threshold and the random number generator, so a simulation restored
+ * from a checkpoint continues exactly as the uninterrupted simulation would have.
+ *
+ * The checkpoint also records how many time points had been written, and the length of the rod and interaction files,
+ * so data written after the checkpoint can be discarded before continuing.
+ *
+ * Created on 10/19/26.
+ */
+public class Checkpoint {
+    final static String CHECKPOINT_TAIL = "-checkpoint.dat";
+    final static int MAGIC = 0x43444350;
+    final static int FORMAT = 1;
+
+    /** number of time points written when the checkpoint was taken. */
+    public int frames;
+    /** length of the rods file when the checkpoint was taken. */
+    public long rodsLength;
+    /** length of the interactions file when the checkpoint was taken. */
+    public long interactionsLength;
+
+    /**
+     * Writes the state of the model to a temporary file, and then moves it over the previous checkpoint, so there is
+     * always one complete checkpoint.
+     *
+     * @param model simulation that will be saved.
+     * @param destination checkpoint file.
+     * @param frames number of time points written.
+     * @param rodsLength length of the rods file including the last time point.
+     * @param interactionsLength length of the interactions file including the last time point.
+     * @throws IOException
+     */
+    public static void write(CortexModel model, File destination, int frames, long rodsLength, long interactionsLength) throws IOException {
+        File tmp = new File(destination.getParentFile(), destination.getName() + ".tmp");
+        try(FileOutputStream fos = new FileOutputStream(tmp)){
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeInt(frames);
+            out.writeLong(rodsLength);
+            out.writeLong(interactionsLength);
+            out.writeDouble(model.time);
+            out.writeDouble(model.getIntegrator().dt);
+            out.writeDouble(model.constants.ERROR_THRESHOLD);
+
+            byte[] generator = serializeGenerator(model.number_generator);
+            out.writeInt(generator.length);
+            out.write(generator);
+
+            List<ActinFilament> actins = model.getActin();
+            out.writeInt(actins.size());
+            for(ActinFilament f: actins){
+                out.writeDouble(f.length);
+                writeRod(out, f);
+            }
+
+            List<MyosinMotor> motors = model.getMyosins();
+            out.writeInt(motors.size());
+            for(MyosinMotor m: motors){
+                writeRod(out, m);
+            }
+
+            List<MyosinMotorBinding> bindings = model.getMotorBindings();
+            out.writeInt(bindings.size());
+            for(MyosinMotorBinding binding: bindings){
+                MyosinMotor m = binding.motor;
+                out.writeInt(m.id);
+                for(int head: SimulationReader.heads){
+                    out.writeInt(m.isBound(head)?m.getBound(head).id:-1);
+                    out.writeDouble(binding.binding_position[head]);
+                    out.writeDouble(binding.current_time[head]);
+                    out.writeDouble(binding.unbind_time[head]);
+                }
+            }
+
+            List<CrosslinkedFilaments> xlinked = model.getCrosslinkedFilaments();
+            out.writeInt(xlinked.size());
+            for(CrosslinkedFilaments x: xlinked){
+                out.writeInt(x.a.id);
+                out.writeInt(x.b.id);
+                out.writeDouble(x.a_s);
+                out.writeDouble(x.b_s);
+                out.writeDouble(x.time);
+                out.writeDouble(x.duration);
+            }
+            out.flush();
+            fos.getChannel().force(true);
+        }
+        Files.move(tmp.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Restores a checkpoint into a model. The model should have its constants loaded, eg. from the simulation file, and
+     * not contain any agents.
+     *
+     * @param model empty model that will receive the saved state.
+     * @param source checkpoint file.
+     * @return the checkpoint information for the time points written.
+     * @throws IOException if the file is not a valid checkpoint.
+     */
+    public static Checkpoint restore(CortexModel model, File source) throws IOException{
+        Checkpoint checkpoint = new Checkpoint();
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(source.toPath())))){
+            if(in.readInt()!=MAGIC){
+                throw new IOException(source + " is not a checkpoint file.");
+            }
+            int format = in.readInt();
+            if(format!=FORMAT){
+                throw new IOException("unsupported checkpoint version: " + format);
+            }
+            checkpoint.frames = in.readInt();
+            checkpoint.rodsLength = in.readLong();
+            checkpoint.interactionsLength = in.readLong();
+            double time = in.readDouble();
+            double dt = in.readDouble();
+            model.constants.ERROR_THRESHOLD = in.readDouble();
+
+            byte[] generator = new byte[in.readInt()];
+            in.readFully(generator);
+
+            int actinCount = in.readInt();
+            ActinFilament[] actins = new ActinFilament[actinCount];
+            for(int i = 0; i<actinCount; i++){
+                ActinFilament f = model.createNewFilament();
+                f.length = in.readDouble();
+                readRod(in, f);
+                actins[i] = f;
+                model.addActin(f);
+            }
+
+            int motorCount = in.readInt();
+            MyosinMotor[] motors = new MyosinMotor[motorCount];
+            for(int i = 0; i<motorCount; i++){
+                MyosinMotor m = model.createNewMyosinMotor();
+                readRod(in, m);
+                motors[i] = m;
+                model.addMyosin(m);
+            }
+
+            int bindingCount = in.readInt();
+            for(int i = 0; i<bindingCount; i++){
+                MyosinMotorBinding binding = new MyosinMotorBinding(model, motors[in.readInt()]);
+                for(int head: SimulationReader.heads){
+                    int dex = in.readInt();
+                    double s = in.readDouble();
+                    double current = in.readDouble();
+                    double unbind = in.readDouble();
+                    if(dex>=0){
+                        binding.restoreHead(actins[dex], head, s, current, unbind);
+                    } else{
+                        binding.binding_position[head] = s;
+                        binding.current_time[head] = current;
+                        binding.unbind_time[head] = unbind;
+                    }
+                }
+                model.addBinding(binding);
+            }
+
+            int linkCount = in.readInt();
+            for(int i = 0; i<linkCount; i++){
+                ActinFilament a = actins[in.readInt()];
+                ActinFilament b = actins[in.readInt()];
+                double as = in.readDouble();
+                double bs = in.readDouble();
+                double t = in.readDouble();
+                double duration = in.readDouble();
+                Crosslinker link = model.createNewCrossLinker();
+                CrosslinkedFilaments x = new CrosslinkedFilaments(model, a, b, link, as, bs, duration);
+                x.time = t;
+                model.addCrossLinking(x);
+                model.addXLinker(link);
+            }
+
+            model.time = time;
+            model.initializeIntegrator();
+            model.getIntegrator().dt = dt;
+            model.number_generator = deserializeGenerator(generator);
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Discards any data written after this checkpoint was taken.
+     *
+     * @param rods rods file.
+     * @param interactions interactions file.
+     * @return false if either file is shorter than when the checkpoint was taken, and cannot be used with it.
+     * @throws IOException
+     */
+    public boolean truncateData(File rods, File interactions) throws IOException {
+        if(Segments.length(rods)<rodsLength || Segments.length(interactions)<interactionsLength){
+            return false;
+        }
+        Segments.truncate(rods, interactions, rodsLength, interactionsLength);
+        return true;
+    }
+
+    /**
+     * The checkpoint file used with a simulation file.
+     *
+     * @param simFile tag-simulation.txt
+     * @return tag-checkpoint.dat in the same directory.
+     */
+    public static File getCheckpointFile(File simFile){
+        int last = simFile.getName().indexOf("-simulation.txt");
+        String tag = simFile.getName().substring(0, last);
+        return new File(simFile.getAbsoluteFile().getParentFile(), tag + CHECKPOINT_TAIL);
+    }
+
+    static void writeRod(DataOutputStream out, Rod r) throws IOException {
+        out.writeDouble(r.position[0]);
+        out.writeDouble(r.position[1]);
+        out.writeDouble(r.position[2]);
+        out.writeDouble(r.direction[0]);
+        out.writeDouble(r.direction[1]);
+        out.writeDouble(r.direction[2]);
+    }
+
+    static void readRod(DataInputStream in, Rod r) throws IOException {
+        r.position[0] = in.readDouble();
+        r.position[1] = in.readDouble();
+        r.position[2] = in.readDouble();
+        r.direction[0] = in.readDouble();
+        r.direction[1] = in.readDouble();
+        r.direction[2] = in.readDouble();
+        r.updateBounds();
+    }
+
+    /**
+     * Random is serializable, which keeps the seed and any cached gaussian value.
+     */
+    static byte[] serializeGenerator(Random generator) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(ObjectOutputStream oos = new ObjectOutputStream(bytes)){
+            oos.writeObject(generator);
+        }
+        return bytes.toByteArray();
+    }
+
+    static Random deserializeGenerator(byte[] data) throws IOException{
+        try(ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data))){
+            return (Random)ois.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("could not restore random number generator", e);
+        }
+    }
+}
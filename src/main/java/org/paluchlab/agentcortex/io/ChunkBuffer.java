@@ -0,0 +1,49 @@
+package org.paluchlab.agentcortex.io;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A direct buffer that is reused for each chunk, the first 4 bytes are reserved for the size of the chunk. The buffer
+ * grows when a chunk does not fit. When trailer is set, that many bytes are reserved after the data and counted in
+ * the size.
+ *
+ * Created on 10/19/26.
+ */
+class ChunkBuffer{
+    ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+    int trailer;
+
+    /**
+     * Clears the buffer and reserves space for the chunk size.
+     *
+     * @param size largest number of data bytes that will be written.
+     * @return buffer for writing the chunk data.
+     */
+    ByteBuffer begin(int size){
+        int needed = size + 4 + trailer;
+        if(buffer.capacity()<needed){
+            buffer = ByteBuffer.allocateDirect(Math.max(needed, 2*buffer.capacity()));
+        }
+        buffer.clear();
+        buffer.putInt(-1);
+        return buffer;
+    }
+
+    /**
+     * Writes the size of the chunk data, not including the 4 bytes of the size, in the reserved space and prepares
+     * the buffer to be written. The trailer is included in the size, but is not written until the chunk is sealed.
+     */
+    void finish(){
+        int end = buffer.position() + trailer;
+        buffer.putInt(0, end - 4);
+        buffer.limit(end);
+        buffer.position(0);
+    }
+
+    /**
+     * @return number of bytes in the chunk, including the size.
+     */
+    int size(){
+        return buffer.limit();
+    }
+}
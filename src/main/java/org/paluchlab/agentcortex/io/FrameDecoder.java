@@ -0,0 +1,37 @@
+package org.paluchlab.agentcortex.io;
+
+/**
+ * The decoders for chunks that are stored as differences from the previous time point, so they have to be decoded in
+ * order. Each thread that decodes time points needs its own. A decoder is null when its chunks are stored complete.
+ *
+ * Created on 10/19/26.
+ */
+class FrameDecoder{
+    final QuantizedRods.Decoder rods;
+    final InteractionDeltas.Decoder interactions;
+
+    FrameDecoder(StorageFormat format){
+        rods = format.isQuantized() ? new QuantizedRods.Decoder(format) : null;
+        interactions = format.hasInteractionDeltas() ? new InteractionDeltas.Decoder() : null;
+    }
+
+    /**
+     *
+     * @return true if time points have to be decoded in order.
+     */
+    boolean isSequential(){
+        return rods!=null || interactions!=null;
+    }
+
+    /**
+     * Forgets the previous time point, eg. after the files have changed.
+     */
+    void invalidate(){
+        if(rods!=null){
+            rods.valid = false;
+        }
+        if(interactions!=null){
+            interactions.valid = false;
+        }
+    }
+}
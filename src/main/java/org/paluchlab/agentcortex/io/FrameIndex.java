@@ -0,0 +1,385 @@
+package org.paluchlab.agentcortex.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Sidecar index of the time points in the rods and interactions files, {tag}-index.dat. After an 8 byte header the
+ * index contains one fixed size record for each time point:
+ *
+ * int frame, double time, long rod position, int rod length, long interaction position, int interaction length,
+ * int flags
+ *
+ * Positions are the start of the chunk data, after the chunk size, so a time point can be read without reading any
+ * other part of the files. The writer appends a record after both chunks of a time point have been written. Records
+ * that do not match the data files, eg. after the files have been truncated, are ignored, and time points that are
+ * missing from the index are found by walking the chunk headers.
+ *
+ * When the format has checksums, each chunk ends with a trailer, int sequence and int crc, inside the chunk size. The
+ * sequence is the index of the time point, so the two chunks of a time point can be matched, and the crc covers the
+ * chunk size, the data and the sequence. The index record is appended after both chunks, so it marks the time point as
+ * committed. When a simulation is opened only the last committed time point is verified, and any time points after it
+ * are verified as they are found, so after a crash the files only need to be truncated after the last time point that
+ * verifies.
+ *
+ * When the data files are segmented, positions are positions in the continuous file formed by the segments, see
+ * Segments.
+ *
+ * Created on 10/19/26.
+ */
+public class FrameIndex {
+    final static String INDEX_TAIL = "-index.dat";
+    final static int MAGIC = 0x43444958;
+    final static int FORMAT = 1;
+    final static int HEADER = 8;
+    final static int RECORD = 40;
+    /** the rods of the time point can be decoded without the previous time points. */
+    public final static int KEYFRAME = 1;
+    /** the interactions of the time point can be decoded without the previous time points. */
+    public final static int INTERACTION_KEYFRAME = 2;
+    /** bytes at the end of a chunk for the sequence and crc, when the format has checksums. */
+    final static int TRAILER = 8;
+
+    /**
+     * Reads the records of an index file, an incomplete record at the end is ignored.
+     *
+     * @param index index file.
+     * @return keys for each record in the file.
+     * @throws IOException if the file is not an index file.
+     */
+    static List<TimePointKey> read(File index) throws IOException {
+        byte[] bytes = Files.readAllBytes(index.toPath());
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if(bytes.length<HEADER || buffer.getInt()!=MAGIC){
+            throw new IOException(index + " is not an index file.");
+        }
+        int format = buffer.getInt();
+        if(format!=FORMAT){
+            throw new IOException("unsupported index version: " + format);
+        }
+        List<TimePointKey> keys = new ArrayList<>((bytes.length - HEADER)/RECORD);
+        while(buffer.remaining()>=RECORD){
+            keys.add(getRecord(buffer));
+        }
+        return keys;
+    }
+
+    static TimePointKey getRecord(ByteBuffer buffer){
+        int frame = buffer.getInt();
+        double time = buffer.getDouble();
+        long rodPosition = buffer.getLong();
+        int rodLength = buffer.getInt();
+        TimePointKey key = new TimePointKey(frame, rodPosition, rodLength);
+        key.setInteractionPositions(buffer.getLong(), buffer.getInt());
+        key.time = time;
+        key.flags = buffer.getInt();
+        return key;
+    }
+
+    static void putRecord(ByteBuffer buffer, TimePointKey key){
+        buffer.putInt(key.point);
+        buffer.putDouble(key.time);
+        buffer.putLong(key.rodPosition);
+        buffer.putInt(key.rodLength);
+        buffer.putLong(key.interactionPosition);
+        buffer.putInt(key.interactionLength);
+        buffer.putInt(key.flags);
+    }
+
+    /**
+     * Writes a complete index file, replacing any existing index.
+     *
+     * @param index destination.
+     * @param keys records in order.
+     * @throws IOException
+     */
+    static void write(File index, List<TimePointKey> keys) throws IOException {
+        File tmp = new File(index.getAbsoluteFile().getParentFile(), index.getName() + ".tmp");
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER + RECORD*keys.size());
+        buffer.putInt(MAGIC);
+        buffer.putInt(FORMAT);
+        for(TimePointKey key: keys){
+            putRecord(buffer, key);
+        }
+        buffer.flip();
+        try(FileChannel channel = FileChannel.open(
+                tmp.toPath(),
+                StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING
+        )){
+            while(buffer.hasRemaining()){
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+        Files.move(tmp.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Checks if an index file contains exactly the provided keys, eg. to find out if it needs to be rewritten.
+     *
+     * @param index index file, it might not exist.
+     * @param keys records the index should contain.
+     * @return true if the index has a record for each key, and no other records.
+     */
+    static boolean matches(File index, List<TimePointKey> keys){
+        if(!index.exists() || index.length()!=HEADER + (long)RECORD*keys.size()){
+            return false;
+        }
+        List<TimePointKey> records;
+        try{
+            records = read(index);
+        } catch(IOException e){
+            return false;
+        }
+        for(int i = 0; i<keys.size(); i++){
+            TimePointKey a = keys.get(i);
+            TimePointKey b = records.get(i);
+            if(a.point!=b.point || a.time!=b.time || a.flags!=b.flags
+                    || a.rodPosition!=b.rodPosition || a.rodLength!=b.rodLength
+                    || a.interactionPosition!=b.interactionPosition || a.interactionLength!=b.interactionLength){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the time points for a simulation. The records of the index are used as long as they match the data files,
+     * and then the chunk headers are walked to find any remaining complete time points.
+     *
+     * @param index index file, it might not exist.
+     * @param rods rods file.
+     * @param interactions interactions file.
+     * @param format used to find keyframes when walking the chunks.
+     * @return keys of every complete time point.
+     * @throws IOException
+     */
+    static List<TimePointKey> load(File index, File rods, File interactions, StorageFormat format) throws IOException {
+        List<TimePointKey> keys = new ArrayList<>();
+        if(index.exists()){
+            try{
+                keys = read(index);
+            } catch(IOException e){
+                System.err.println("ignoring index: " + e.getMessage());
+            }
+        }
+        try(
+                FileChannel rodChannel = Segments.open(rods);
+                FileChannel interactionChannel = Segments.open(interactions)
+        ){
+            keys = validPrefix(keys, rodChannel, interactionChannel);
+            if(format.hasChecksums()){
+                //the last committed time point can be damaged if it was not forced before a crash.
+                while(keys.size()>0 && !verify(keys.get(keys.size() - 1), rodChannel, interactionChannel)){
+                    keys.remove(keys.size() - 1);
+                }
+            }
+            scan(keys, rodChannel, interactionChannel, format);
+        }
+        return keys;
+    }
+
+    /**
+     * Keeps the records that follow one another in both files and are within the files. The size stored before the
+     * last record's chunks is checked against the record.
+     *
+     * @return the leading records that match the files.
+     */
+    static List<TimePointKey> validPrefix(List<TimePointKey> keys, FileChannel rods, FileChannel interactions) throws IOException {
+        long rodNext = 4;
+        long interactionNext = 4;
+        long rodSize = rods.size();
+        long interactionSize = interactions.size();
+        int valid = 0;
+        for(TimePointKey key: keys){
+            if(key.point!=valid || key.rodPosition!=rodNext || key.interactionPosition!=interactionNext){
+                break;
+            }
+            rodNext = key.rodPosition + key.rodLength + 4;
+            interactionNext = key.interactionPosition + key.interactionLength + 4;
+            if(rodNext - 4>rodSize || interactionNext - 4>interactionSize){
+                break;
+            }
+            valid++;
+        }
+        if(valid>0){
+            TimePointKey last = keys.get(valid - 1);
+            if(readInt(rods, last.rodPosition - 4)!=last.rodLength
+                    || readInt(interactions, last.interactionPosition - 4)!=last.interactionLength){
+                //the files have been modified, walk the chunks instead.
+                valid = 0;
+            }
+        }
+        return new ArrayList<>(keys.subList(0, valid));
+    }
+
+    /**
+     * Checks that a time point is still in the data files, eg. they have not been truncated and rewritten by a restart
+     * since the time point was found. The chunk sizes and the time are checked, and when the format has checksums both
+     * chunks are verified.
+     *
+     * @param key time point that was found earlier.
+     * @return true if both chunks of the time point are unchanged.
+     * @throws IOException
+     */
+    static boolean isCurrent(TimePointKey key, FileChannel rods, FileChannel interactions, StorageFormat format) throws IOException {
+        if(key.rodPosition + key.rodLength>rods.size()
+                || key.interactionPosition + key.interactionLength>interactions.size()){
+            return false;
+        }
+        if(readInt(rods, key.rodPosition - 4)!=key.rodLength
+                || readInt(interactions, key.interactionPosition - 4)!=key.interactionLength){
+            return false;
+        }
+        ByteBuffer time = ByteBuffer.allocate(8);
+        readFully(rods, time, key.rodPosition);
+        if(time.getDouble(0)!=key.time){
+            return false;
+        }
+        return !format.hasChecksums() || verify(key, rods, interactions);
+    }
+
+    /**
+     * Walks the chunk headers after the last key, and adds a key for each complete pair of chunks. Only the size,
+     * time and flags of each rod chunk, and the flags of each delta interactions chunk, are read, unless the format has checksums, then both chunks are verified and
+     * the walk stops at the first pair that does not verify.
+     *
+     * @param keys existing keys, new keys are appended.
+     */
+    static void scan(List<TimePointKey> keys, FileChannel rods, FileChannel interactions, StorageFormat format) throws IOException {
+        long rodNext = 0;
+        long interactionNext = 0;
+        if(keys.size()>0){
+            TimePointKey last = keys.get(keys.size() - 1);
+            rodNext = last.rodPosition + last.rodLength;
+            interactionNext = last.interactionPosition + last.interactionLength;
+        }
+        long rodSize = rods.size();
+        long interactionSize = interactions.size();
+        ByteBuffer header = ByteBuffer.allocate(QuantizedRods.FLAGS_OFFSET + 1);
+        while(rodNext + 4<=rodSize && interactionNext + 4<=interactionSize){
+            int rodLength = readInt(rods, rodNext);
+            int interactionLength = readInt(interactions, interactionNext);
+            if(rodLength<8 || interactionLength<0
+                    || rodNext + 4 + rodLength>rodSize
+                    || interactionNext + 4 + interactionLength>interactionSize){
+                break;
+            }
+            TimePointKey key = new TimePointKey(keys.size(), rodNext + 4, rodLength);
+            key.setInteractionPositions(interactionNext + 4, interactionLength);
+            if(format.hasChecksums() && !verify(key, rods, interactions)){
+                break;
+            }
+
+            header.clear();
+            header.limit(format.isQuantized()? QuantizedRods.FLAGS_OFFSET + 1 : 8);
+            readFully(rods, header, rodNext + 4);
+            key.time = header.getDouble(0);
+            key.flags = format.isQuantized()? header.get(QuantizedRods.FLAGS_OFFSET)&QuantizedRods.KEYFRAME : KEYFRAME;
+            if(format.hasInteractionDeltas()){
+                header.clear();
+                header.limit(InteractionDeltas.FLAGS_OFFSET + 1);
+                readFully(interactions, header, key.interactionPosition);
+                if((header.get(InteractionDeltas.FLAGS_OFFSET)&InteractionDeltas.KEYFRAME)!=0){
+                    key.flags |= INTERACTION_KEYFRAME;
+                }
+            } else{
+                key.flags |= INTERACTION_KEYFRAME;
+            }
+            keys.add(key);
+
+            rodNext = key.rodPosition + rodLength;
+            interactionNext = key.interactionPosition + interactionLength;
+        }
+    }
+
+    /**
+     * Writes the trailer of a chunk. The buffer contains the complete chunk, starting with the size, and ends with
+     * TRAILER bytes reserved for the trailer.
+     *
+     * @param chunk buffer with the chunk between 0 and the limit.
+     * @param sequence index of the time point.
+     */
+    static void seal(ByteBuffer chunk, int sequence){
+        int end = chunk.limit();
+        chunk.putInt(end - TRAILER, sequence);
+        ByteBuffer covered = chunk.duplicate();
+        covered.position(0);
+        covered.limit(end - 4);
+        CRC32 crc = new CRC32();
+        crc.update(covered);
+        chunk.putInt(end - 4, (int)crc.getValue());
+    }
+
+    /**
+     * Checks that both chunks of a time point are intact and belong to the time point.
+     *
+     * @param key time point, the index is the expected sequence.
+     * @return true if both trailers match.
+     * @throws IOException
+     */
+    static boolean verify(TimePointKey key, FileChannel rods, FileChannel interactions) throws IOException {
+        return verify(rods, key.rodPosition, key.rodLength, key.point)
+                && verify(interactions, key.interactionPosition, key.interactionLength, key.point);
+    }
+
+    /**
+     * Checks the trailer of a single chunk.
+     *
+     * @param channel data file.
+     * @param position start of the chunk data, after the size.
+     * @param length size of the chunk data including the trailer.
+     * @param sequence expected index of the time point.
+     * @return true if the sequence matches and the crc of the chunk is correct.
+     * @throws IOException
+     */
+    static boolean verify(FileChannel channel, long position, int length, int sequence) throws IOException {
+        if(length<TRAILER){
+            return false;
+        }
+        ByteBuffer chunk = ByteBuffer.allocate(length + 4);
+        readFully(channel, chunk, position - 4);
+        if(chunk.getInt(length - 4)!=sequence){
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(chunk.array(), 0, length);
+        return chunk.getInt(length)==(int)crc.getValue();
+    }
+
+    static int readInt(FileChannel channel, long position) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(4);
+        readFully(channel, b, position);
+        return b.getInt(0);
+    }
+
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()){
+            if(channel.read(buffer, position + buffer.position())<0){
+                throw new IOException("unexpected end of file");
+            }
+        }
+    }
+
+    /**
+     * The index file used with a simulation file.
+     *
+     * @param simFile tag-simulation.txt
+     * @return tag-index.dat in the same directory.
+     */
+    public static File getIndexFile(File simFile){
+        int last = simFile.getName().indexOf("-simulation.txt");
+        String tag = simFile.getName().substring(0, last);
+        return new File(simFile.getAbsoluteFile().getParentFile(), tag + INDEX_TAIL);
+    }
+}
@@ -0,0 +1,75 @@
+package org.paluchlab.agentcortex.io;
+
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Splits the time points of a simulation into ranges of consecutive time points, for parallel streams. Each range
+ * decodes its time points in order with its own decoder. With quantized rods or interaction deltas, ranges are split
+ * at time points that are keyframes for both, so no time point is decoded twice.
+ *
+ * Created on 10/19/26.
+ */
+class FrameSpliterator implements Spliterator<TimePoint>{
+    final SimulationReader reader;
+    //time points when the stream was created, see SimulationReader#refresh.
+    final List<TimePointKey> keys;
+    int current;
+    final int end;
+    final FrameDecoder decoder;
+    final int sections;
+    //false to decode every time point, see SimulationReader#parallelStream(int, boolean).
+    final boolean cached;
+
+    FrameSpliterator(SimulationReader reader, List<TimePointKey> keys, int start, int end, int sections, boolean cached){
+        this.reader = reader;
+        this.keys = keys;
+        this.cached = cached;
+        this.current = start;
+        this.end = end;
+        this.sections = sections;
+        decoder = reader.createDecoder();
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super TimePoint> action) {
+        if(current>=end){
+            return false;
+        }
+        TimePointKey key = keys.get(current++);
+        action.accept(cached ? reader.loadTimePoint(key, decoder, sections) : reader.decodeTimePoint(key, decoder, sections));
+        return true;
+    }
+
+    @Override
+    public Spliterator<TimePoint> trySplit() {
+        int mid = (current + end)>>>1;
+        int required = 0;
+        if(reader.getFormat().isQuantized()){
+            required |= FrameIndex.KEYFRAME;
+        }
+        if(reader.getFormat().hasInteractionDeltas()){
+            required |= FrameIndex.INTERACTION_KEYFRAME;
+        }
+        while(mid<end && (keys.get(mid).flags&required)!=required){
+            mid++;
+        }
+        if(mid<=current || mid>=end){
+            return null;
+        }
+        FrameSpliterator first = new FrameSpliterator(reader, keys, current, mid, sections, cached);
+        current = mid;
+        return first;
+    }
+
+    @Override
+    public long estimateSize() {
+        return end - current;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | SIZED | SUBSIZED | IMMUTABLE;
+    }
+}
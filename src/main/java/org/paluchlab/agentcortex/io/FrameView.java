@@ -0,0 +1,218 @@
+package org.paluchlab.agentcortex.io;
+
+import org.paluchlab.agentcortex.ModelConstants;
+
+/**
+ * A read only view of a single time point, stored as primitive arrays instead of agents. Rods are numbered with the
+ * actin filaments first, followed by the myosin motors, as in the rods file. Bindings have one entry per motor, and
+ * each binding has a front and back head.
+ *
+ * A view is filled by MappedSimulationReader#readFrame, and the same view can be reused for each time point.
+ *
+ * Created on 10/19/26.
+ */
+public class FrameView {
+    final ModelConstants constants;
+    final double[] lengths;
+    double time;
+    int actins;
+    int motors;
+    double[] rods = new double[0];
+    final MappedSimulationReader.Interactions interactions = new MappedSimulationReader.Interactions();
+
+    /**
+     * Creates an empty view for time points of a simulation.
+     *
+     * @param constants simulation constants, for the geometry and spring constants.
+     * @param actinLengths length of each actin filament.
+     */
+    public FrameView(ModelConstants constants, double[] actinLengths){
+        this.constants = constants;
+        this.lengths = actinLengths;
+    }
+
+    public ModelConstants getConstants(){
+        return constants;
+    }
+
+    public double getTime(){
+        return time;
+    }
+
+    public int getActinCount(){
+        return actins;
+    }
+
+    public int getMotorCount(){
+        return motors;
+    }
+
+    /**
+     * @param rod index of the rod.
+     * @return true if the rod is a myosin motor.
+     */
+    public boolean isMotor(int rod){
+        return rod>=actins;
+    }
+
+    /**
+     * @param rod index of the rod.
+     * @return length of the filament, or the motor length.
+     */
+    public double getLength(int rod){
+        return rod<actins ? lengths[rod] : constants.MYOSIN_LENGTH;
+    }
+
+    /**
+     * @param rod index of the rod.
+     * @param i component, 0, 1 or 2.
+     * @return component of the center of the rod.
+     */
+    public double getPosition(int rod, int i){
+        return rods[6*rod + i];
+    }
+
+    /**
+     * @param rod index of the rod.
+     * @param i component, 0, 1 or 2.
+     * @return component of the unit direction of the rod.
+     */
+    public double getDirection(int rod, int i){
+        return rods[6*rod + 3 + i];
+    }
+
+    /**
+     * Copies the position of a rod.
+     *
+     * @param rod index of the rod.
+     * @param out {x, y, z} destination.
+     * @return out
+     */
+    public double[] getPosition(int rod, double[] out){
+        System.arraycopy(rods, 6*rod, out, 0, 3);
+        return out;
+    }
+
+    /**
+     * Copies the direction of a rod.
+     *
+     * @param rod index of the rod.
+     * @param out {x, y, z} destination.
+     * @return out
+     */
+    public double[] getDirection(int rod, double[] out){
+        System.arraycopy(rods, 6*rod + 3, out, 0, 3);
+        return out;
+    }
+
+    /**
+     * Calculates the position along a rod, the same as Rod#getPoint
+     *
+     * @param rod index of the rod.
+     * @param s s=0 is the center, s=l/2 or s=-l/2 are the ends.
+     * @param out {x, y, z} destination.
+     * @return out
+     */
+    public double[] getPoint(int rod, double s, double[] out){
+        int dex = 6*rod;
+        out[0] = rods[dex] + s*rods[dex + 3];
+        out[1] = rods[dex + 1] + s*rods[dex + 4];
+        out[2] = rods[dex + 2] + s*rods[dex + 5];
+        return out;
+    }
+
+    /**
+     * Moves target across the periodic boundaries, so it is the shortest distance from src. The same as
+     * CortexModel#getReflectedPoint
+     *
+     * @param src this point will not be moved
+     * @param target point that will be reflected.
+     * @param out {x, y, z} destination, can be the same array as target.
+     * @return out
+     */
+    public double[] getReflectedPoint(double[] src, double[] target, double[] out){
+        double width = constants.WIDTH;
+        double hw = width*0.5;
+        out[0] = reflect(target[0], src[0], width, hw);
+        out[1] = reflect(target[1], src[1], width, hw);
+        out[2] = target[2];
+        return out;
+    }
+
+    static double reflect(double target, double src, double width, double hw){
+        if(target - src>hw){
+            return target - width;
+        } else if(target - src<-hw){
+            return target + width;
+        }
+        return target;
+    }
+
+    /**
+     *
+     * @return number of motor bindings, one for each motor.
+     */
+    public int getBindingCount(){
+        return interactions.bindings;
+    }
+
+    /**
+     * @param binding index of the binding.
+     * @return index of the motor, the rod index is getActinCount() + motor.
+     */
+    public int getBindingMotor(int binding){
+        return interactions.motor[binding];
+    }
+
+    /**
+     * @param binding index of the binding.
+     * @param head MyosinMotor.FRONT or MyosinMotor.BACK
+     * @return index of the bound filament, or -1 if the head is free.
+     */
+    public int getBoundFilament(int binding, int head){
+        return interactions.filament[2*binding + head];
+    }
+
+    /**
+     * @param binding index of the binding.
+     * @param head MyosinMotor.FRONT or MyosinMotor.BACK
+     * @return position of the head along the bound filament.
+     */
+    public double getBindingPosition(int binding, int head){
+        return interactions.position[2*binding + head];
+    }
+
+    /**
+     *
+     * @return number of crosslinked filament pairs.
+     */
+    public int getLinkCount(){
+        return interactions.links;
+    }
+
+    /**
+     * @param link index of the crosslink.
+     * @param side 0 for the first filament, 1 for the second.
+     * @return index of the filament.
+     */
+    public int getLinkedFilament(int link, int side){
+        return interactions.linked[2*link + side];
+    }
+
+    /**
+     * @param link index of the crosslink.
+     * @param side 0 for the first filament, 1 for the second.
+     * @return position of the crosslink along the filament.
+     */
+    public double getLinkPosition(int link, int side){
+        return interactions.linkPosition[2*link + side];
+    }
+
+    /**
+     * @param link index of the crosslink.
+     * @return time the crosslink remains bound.
+     */
+    public double getLinkDuration(int link){
+        return interactions.linkDuration[link];
+    }
+}
@@ -0,0 +1,282 @@
+package org.paluchlab.agentcortex.io;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Keyframe and delta encoding of the interactions chunk. The motor bindings and crosslinks are fixed size records,
+ * see SimulationWriter, and most of them are the same from one frame to the next, crosslinks never change after they
+ * are created. Every 'keyframes' frames all of the records are stored, in between only the records that differ from
+ * the record at the same index in the previous frame are stored.
+ *
+ * The chunk layout is:
+ *
+ * <pre>
+ * double time, byte flags
+ * keyframe:  int bindings, binding records..., int crosslinks, crosslink records...
+ * delta:     int bindings, int changed, (int index, binding record)...,
+ *            int crosslinks, int changed, (int index, crosslink record)...
+ * </pre>
+ *
+ * The decoder rebuilds the original interactions chunk, so decoded chunks are read the same way as chunks that were
+ * stored complete.
+ *
+ * Created on 10/19/26.
+ */
+class InteractionDeltas {
+    final static byte KEYFRAME = 1;
+    final static int FLAGS_OFFSET = 8;
+
+    /**
+     * Checks the flags of an encoded chunk.
+     *
+     * @param chunk interactions chunk without the size.
+     * @return true if the chunk can be decoded without the previous frames.
+     */
+    static boolean isKeyframe(byte[] chunk){
+        return (chunk[FLAGS_OFFSET]&KEYFRAME)!=0;
+    }
+
+    /**
+     * Finds the number of crosslinks of an encoded chunk without decoding it.
+     *
+     * @param chunk interactions chunk without the size, positioned at the start.
+     * @return number of crosslinks.
+     */
+    static int getLinkCount(ByteBuffer chunk){
+        int start = chunk.position();
+        boolean keyframe = (chunk.get(start + FLAGS_OFFSET)&KEYFRAME)!=0;
+        int bindings = chunk.getInt(start + FLAGS_OFFSET + 1);
+        if(keyframe){
+            return chunk.getInt(start + FLAGS_OFFSET + 5 + SimulationWriter.BINDING_BYTES*bindings);
+        }
+        int changed = chunk.getInt(start + FLAGS_OFFSET + 5);
+        return chunk.getInt(start + FLAGS_OFFSET + 9 + (4 + SimulationWriter.BINDING_BYTES)*changed);
+    }
+
+    /**
+     * Fixed size records of one frame.
+     */
+    static class Table{
+        final int size;
+        int count;
+        byte[] records = new byte[0];
+
+        Table(int size){
+            this.size = size;
+        }
+
+        /**
+         * Changes the number of records, keeping the existing records.
+         */
+        void setCount(int n){
+            if(records.length<n*size){
+                byte[] larger = new byte[Math.max(n*size, 2*records.length)];
+                System.arraycopy(records, 0, larger, 0, count*size);
+                records = larger;
+            }
+            count = n;
+        }
+
+        /**
+         * Reads the count followed by all of the records.
+         */
+        void read(ByteBuffer buffer){
+            int n = buffer.getInt();
+            if(n<0){
+                throw new BufferUnderflowException();
+            }
+            setCount(n);
+            buffer.get(records, 0, n*size);
+        }
+
+        void write(ByteBuffer buffer){
+            buffer.putInt(count);
+            buffer.put(records, 0, count*size);
+        }
+
+        /**
+         * Reads the count and the changed records, the other records are kept from the previous frame.
+         */
+        void readDelta(ByteBuffer buffer) throws IOException {
+            int n = buffer.getInt();
+            int changed = buffer.getInt();
+            if(n<0 || changed<0){
+                throw new IOException("invalid interaction delta.");
+            }
+            setCount(n);
+            for(int i = 0; i<changed; i++){
+                int index = buffer.getInt();
+                if(index<0 || index>=n){
+                    throw new IOException("interaction delta index out of range: " + index);
+                }
+                buffer.get(records, index*size, size);
+            }
+        }
+
+        /**
+         * Writes the records that are different from the previous frame.
+         *
+         * @param buffer destination.
+         * @param previous records of the previous frame.
+         */
+        void writeDelta(ByteBuffer buffer, Table previous){
+            buffer.putInt(count);
+            int changedPosition = buffer.position();
+            buffer.putInt(0);
+            int changed = 0;
+            for(int i = 0; i<count; i++){
+                if(i>=previous.count || !sameRecord(previous, i)){
+                    buffer.putInt(i);
+                    buffer.put(records, i*size, size);
+                    changed++;
+                }
+            }
+            buffer.putInt(changedPosition, changed);
+        }
+
+        boolean sameRecord(Table other, int index){
+            int start = index*size;
+            for(int i = start; i<start + size; i++){
+                if(records[i]!=other.records[i]){
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Encodes complete interaction chunks, keeping the records for the next frame.
+     */
+    static class Encoder{
+        final int keyframes;
+        //the complete chunk is prepared here, then encoded.
+        final ChunkBuffer full = new ChunkBuffer();
+        Table bindings = new Table(SimulationWriter.BINDING_BYTES);
+        Table links = new Table(SimulationWriter.CROSSLINK_BYTES);
+        Table previousBindings = new Table(SimulationWriter.BINDING_BYTES);
+        Table previousLinks = new Table(SimulationWriter.CROSSLINK_BYTES);
+        int sinceKeyframe = 0;
+        boolean started = false;
+        //if the last frame encoded was a keyframe.
+        boolean keyframe;
+
+        Encoder(StorageFormat format){
+            keyframes = format.getKeyframeInterval();
+        }
+
+        /**
+         * Makes the next frame a keyframe, eg. the first frame of a segment.
+         */
+        void forceKeyframe(){
+            started = false;
+        }
+
+        /**
+         * Encodes the complete chunk that has been prepared in #full.
+         *
+         * @param data destination for the encoded chunk.
+         */
+        void encode(ChunkBuffer data){
+            ByteBuffer in = full.buffer.duplicate();
+            in.position(4);
+            double time = in.getDouble();
+            bindings.read(in);
+            links.read(in);
+
+            keyframe = !started || sinceKeyframe>=keyframes;
+            ByteBuffer buffer = data.begin(
+                    FLAGS_OFFSET + 1 + 16
+                    + (4 + bindings.size)*bindings.count
+                    + (4 + links.size)*links.count
+            );
+            buffer.putDouble(time);
+            buffer.put(keyframe?KEYFRAME:0);
+            if(keyframe){
+                bindings.write(buffer);
+                links.write(buffer);
+                sinceKeyframe = 0;
+            } else{
+                bindings.writeDelta(buffer, previousBindings);
+                links.writeDelta(buffer, previousLinks);
+            }
+            sinceKeyframe++;
+            started = true;
+            data.finish();
+
+            Table swap = previousBindings;
+            previousBindings = bindings;
+            bindings = swap;
+            swap = previousLinks;
+            previousLinks = links;
+            links = swap;
+        }
+    }
+
+    /**
+     * Decodes interaction chunks, keeping the records of the last decoded frame. A frame that is not a keyframe can
+     * only be decoded directly after the frame before it.
+     */
+    static class Decoder{
+        final Table bindings = new Table(SimulationWriter.BINDING_BYTES);
+        final Table links = new Table(SimulationWriter.CROSSLINK_BYTES);
+        boolean valid = false;
+        //position of the chunk that can be decoded next, -1 if unknown.
+        long next = -1;
+        double time;
+
+        /**
+         * Decodes a chunk.
+         *
+         * @param chunk encoded interactions chunk without the size.
+         * @return the complete interactions chunk, as it would be stored without deltas.
+         * @throws IOException if the chunk is corrupt, or depends on a frame that has not been decoded.
+         */
+        byte[] decode(byte[] chunk) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(chunk);
+            boolean previous = valid;
+            valid = false;
+            next = -1;
+            try{
+                time = buffer.getDouble();
+                boolean keyframe = (buffer.get()&KEYFRAME)!=0;
+                if(keyframe){
+                    bindings.read(buffer);
+                    links.read(buffer);
+                } else{
+                    if(!previous){
+                        throw new IOException("interaction delta frame without a previous frame.");
+                    }
+                    bindings.readDelta(buffer);
+                    links.readDelta(buffer);
+                }
+            } catch(BufferUnderflowException | IndexOutOfBoundsException e){
+                throw new IOException("interaction chunk is shorter than expected.", e);
+            }
+            valid = true;
+            return getChunk();
+        }
+
+        /**
+         *
+         * @return the last decoded frame as a complete interactions chunk.
+         */
+        byte[] getChunk(){
+            ByteBuffer chunk = ByteBuffer.allocate(16 + bindings.size*bindings.count + links.size*links.count);
+            chunk.putDouble(time);
+            bindings.write(chunk);
+            links.write(chunk);
+            return chunk.array();
+        }
+
+        /**
+         * @param position position of an interactions chunk in the file.
+         * @return true if the chunk at position directly follows the last decoded chunk.
+         */
+        boolean follows(long position){
+            return valid && next==position;
+        }
+    }
+}
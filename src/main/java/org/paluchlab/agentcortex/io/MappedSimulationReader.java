@@ -0,0 +1,378 @@
+package org.paluchlab.agentcortex.io;
+
+import org.paluchlab.agentcortex.ModelConstants;
+import org.paluchlab.agentcortex.interactions.CrosslinkedFilaments;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * Reads time points directly from memory mapped data files into primitive arrays, without creating any agents. This
+ * is for analysis that scans many time points, the arrays are provided by the caller and reused for each time point.
+ *
+ * The rods of a time point are six doubles per rod, position then direction, actin filaments followed by myosin
+ * motors, in the same order as the model lists. Raw rod chunks are copied with a single bulk get, quantized chunks
+ * are decoded with QuantizedRods. Interactions stored as deltas are decoded in order, like quantized rods.
+ *
+ * The files are mapped in windows, so files larger than 2GB can be read. A window is replaced when a chunk outside of
+ * it is requested, which happens once per window when scanning in order. Segmented data files are mapped one segment
+ * at a time, since a window never extends past the end of a segment.
+ *
+ * Created on 10/19/26.
+ */
+public class MappedSimulationReader implements AutoCloseable{
+    final static long WINDOW = 1L<<30;
+    final SimulationReader reader;
+    final List<TimePointKey> keys;
+    final StorageFormat format;
+    FileChannel rodChannel, interactionChannel;
+    final Window rodWindow = new Window();
+    final Window interactionWindow = new Window();
+    QuantizedRods.Decoder decoder;
+    InteractionDeltas.Decoder interactionDecoder;
+    byte[] chunk = new byte[0];
+
+    /**
+     * Creates a mapped reader for the time points found by a simulation reader. The reader should have loaded its data.
+     *
+     * @param reader source of the constants, format and time point locations.
+     * @throws IOException if the data files cannot be opened.
+     */
+    public MappedSimulationReader(SimulationReader reader) throws IOException {
+        this.reader = reader;
+        keys = reader.keys;
+        format = reader.getFormat();
+        if(format.isQuantized()){
+            decoder = new QuantizedRods.Decoder(format);
+        }
+        if(format.hasInteractionDeltas()){
+            interactionDecoder = new InteractionDeltas.Decoder();
+        }
+        rodChannel = Segments.open(reader.getRodsFile());
+        interactionChannel = Segments.open(reader.getInteractionsFile());
+    }
+
+    /**
+     * Opens a simulation, assuming the interactions, rods and simulation files are named accordingly.
+     *
+     * @param simFile tag-simulation.txt
+     * @return a mapped reader or null if the simulation could not be loaded.
+     * @throws IOException if the data files cannot be opened.
+     */
+    public static MappedSimulationReader fromSimulationFile(File simFile) throws IOException {
+        SimulationReader reader = SimulationReader.fromSimulationFile(simFile);
+        if(reader==null){
+            return null;
+        }
+        return new MappedSimulationReader(reader);
+    }
+
+    /**
+     *
+     * @return the number of time points.
+     */
+    public int getPointCount(){
+        return keys.size();
+    }
+
+    /**
+     * @param frame index of the time point.
+     * @return simulation time of the time point, from the index.
+     */
+    public double getTime(int frame){
+        return keys.get(frame).time;
+    }
+
+    /**
+     *
+     * @return constants loaded from the simulation file.
+     */
+    public ModelConstants getConstants(){
+        return reader.getConstants();
+    }
+
+    /**
+     *
+     * @return the length of each actin filament, in the order of the rods.
+     */
+    public double[] getActinLengths(){
+        return reader.actin_lengths;
+    }
+
+    /**
+     *
+     * @return the number of values needed to store the rods of a time point.
+     */
+    public int getRodValueCount(){
+        return QuantizedRods.VALUES*(reader.actin_lengths.length + reader.constants.motors);
+    }
+
+    /**
+     * Copies the positions and directions of all rods of a time point.
+     *
+     * @param frame index of the time point.
+     * @param values destination, at least #getRodValueCount long.
+     * @return the number of actin filaments, the remaining rods are myosin motors.
+     * @throws IOException if the chunk is corrupt.
+     */
+    public int readRods(int frame, double[] values) throws IOException {
+        TimePointKey key = keys.get(frame);
+        if(format.isQuantized()){
+            return readQuantizedRods(key, values);
+        }
+        ByteBuffer buffer = rodWindow.slice(rodChannel, key.rodPosition, key.rodLength);
+        int actins = buffer.getInt(8);
+        int n = (key.rodLength - 12 - format.getTrailerSize())/8;
+        if(actins<0 || n<QuantizedRods.VALUES*actins){
+            throw new IOException("invalid rod chunk at time point " + frame);
+        }
+        buffer.position(12);
+        buffer.asDoubleBuffer().get(values, 0, n);
+        return actins;
+    }
+
+    /**
+     * Quantized rods are decoded in order, from the previous keyframe when the decoder is not at the time point
+     * before.
+     */
+    private synchronized int readQuantizedRods(TimePointKey key, double[] values) throws IOException {
+        if(!decoder.follows(key.rodPosition)){
+            int start = key.point;
+            while(start>0 && (keys.get(start).flags&FrameIndex.KEYFRAME)==0){
+                start--;
+            }
+            for(int i = start; i<key.point; i++){
+                decode(keys.get(i));
+            }
+        }
+        decode(key);
+        decoder.getValues(values);
+        return decoder.actins;
+    }
+
+    private void decode(TimePointKey key) throws IOException {
+        ByteBuffer buffer = rodWindow.slice(rodChannel, key.rodPosition, key.rodLength);
+        if(chunk.length!=key.rodLength){
+            chunk = new byte[key.rodLength];
+        }
+        //the inflater only accepts arrays.
+        buffer.get(chunk);
+        decoder.decode(chunk);
+        decoder.next = key.rodPosition + key.rodLength + 4;
+    }
+
+    /**
+     * Copies the motor bindings and crosslinks of a time point.
+     *
+     * @param frame index of the time point.
+     * @param destination receives the interactions, arrays are grown as needed.
+     * @throws IOException if the chunk is corrupt.
+     */
+    public void readInteractions(int frame, Interactions destination) throws IOException {
+        TimePointKey key = keys.get(frame);
+        ByteBuffer buffer;
+        if(interactionDecoder!=null){
+            buffer = ByteBuffer.wrap(decodeInteractions(key));
+        } else{
+            buffer = interactionWindow.slice(interactionChannel, key.interactionPosition, key.interactionLength);
+        }
+        try{
+            buffer.getDouble();
+            int count = buffer.getInt();
+            destination.setBindingCount(count);
+            for(int i = 0; i<count; i++){
+                destination.motor[i] = buffer.getInt();
+                for(int head: SimulationReader.heads){
+                    int dex = 2*i + head;
+                    destination.filament[dex] = buffer.getInt();
+                    destination.position[dex] = buffer.getDouble();
+                    //timers.
+                    buffer.position(buffer.position() + 16);
+                }
+            }
+            int links = buffer.getInt();
+            destination.setLinkCount(links);
+            for(int i = 0; i<links; i++){
+                int type = buffer.getInt();
+                if(type!=CrosslinkedFilaments.NORMAL){
+                    throw new IOException("unknown crosslink type: " + type);
+                }
+                destination.linked[2*i] = buffer.getInt();
+                destination.linkPosition[2*i] = buffer.getDouble();
+                destination.linked[2*i + 1] = buffer.getInt();
+                destination.linkPosition[2*i + 1] = buffer.getDouble();
+                double start = buffer.getDouble();
+                destination.linkDuration[i] = buffer.getDouble() - start;
+            }
+        } catch(RuntimeException e){
+            throw new IOException("invalid interaction chunk at time point " + frame, e);
+        }
+    }
+
+    /**
+     * Interaction deltas are decoded in order, from the previous keyframe when the decoder is not at the time point
+     * before.
+     *
+     * @return the complete interactions chunk.
+     */
+    private synchronized byte[] decodeInteractions(TimePointKey key) throws IOException {
+        if(!interactionDecoder.follows(key.interactionPosition)){
+            int start = key.point;
+            while(start>0 && (keys.get(start).flags&FrameIndex.INTERACTION_KEYFRAME)==0){
+                start--;
+            }
+            for(int i = start; i<key.point; i++){
+                interactionDecoder.decode(getInteractionChunk(keys.get(i)));
+            }
+        }
+        byte[] decoded = interactionDecoder.decode(getInteractionChunk(key));
+        interactionDecoder.next = key.interactionPosition + key.interactionLength + 4;
+        return decoded;
+    }
+
+    private byte[] getInteractionChunk(TimePointKey key) throws IOException {
+        ByteBuffer buffer = interactionWindow.slice(interactionChannel, key.interactionPosition, key.interactionLength);
+        byte[] bytes = new byte[key.interactionLength];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Reads the number of crosslinks of a time point, without decoding the interactions.
+     *
+     * @param frame index of the time point.
+     * @return number of crosslinked filament pairs.
+     * @throws IOException if the chunk is corrupt.
+     */
+    public int getLinkCount(int frame) throws IOException {
+        TimePointKey key = keys.get(frame);
+        ByteBuffer buffer = interactionWindow.slice(interactionChannel, key.interactionPosition, key.interactionLength);
+        try{
+            if(interactionDecoder!=null){
+                return InteractionDeltas.getLinkCount(buffer);
+            }
+            int count = buffer.getInt(8);
+            return buffer.getInt(12 + SimulationWriter.BINDING_BYTES*count);
+        } catch(IndexOutOfBoundsException e){
+            throw new IOException("invalid interaction chunk at time point " + frame, e);
+        }
+    }
+
+    /**
+     * Reads the rods and interactions of a time point into a view.
+     *
+     * @param frame index of the time point.
+     * @param view destination, see #createView
+     * @throws IOException if the time point is corrupt.
+     */
+    public void readFrame(int frame, FrameView view) throws IOException {
+        int n = getRodValueCount();
+        if(view.rods.length<n){
+            view.rods = new double[n];
+        }
+        view.actins = readRods(frame, view.rods);
+        view.motors = n/QuantizedRods.VALUES - view.actins;
+        view.time = getTime(frame);
+        readInteractions(frame, view.interactions);
+    }
+
+    /**
+     *
+     * @return an empty view for the time points of this simulation.
+     */
+    public FrameView createView(){
+        return new FrameView(reader.getConstants(), reader.actin_lengths);
+    }
+
+    /**
+     * Releases the files, the mapped windows are released when they are garbage collected.
+     */
+    @Override
+    public void close(){
+        try{
+            rodChannel.close();
+            interactionChannel.close();
+        } catch(IOException e){
+            e.printStackTrace();
+        }
+        rodWindow.buffer = null;
+        interactionWindow.buffer = null;
+    }
+
+    /**
+     * Motor bindings and crosslinks of a time point as arrays. Bindings are in the order of the model's bindings, with
+     * two entries for each, the front and back head.
+     */
+    public static class Interactions{
+        /** number of motor bindings. */
+        public int bindings;
+        /** index of the motor for each binding. */
+        public int[] motor = new int[0];
+        /** index of the filament bound by each head, or -1 when the head is unbound. */
+        public int[] filament = new int[0];
+        /** position along the filament of each head. */
+        public double[] position = new double[0];
+        /** number of crosslinked filament pairs. */
+        public int links;
+        /** indexes of the two filaments of each crosslink. */
+        public int[] linked = new int[0];
+        /** position along each filament of a crosslink. */
+        public double[] linkPosition = new double[0];
+        /** duration of each crosslink. */
+        public double[] linkDuration = new double[0];
+
+        void setBindingCount(int count){
+            bindings = count;
+            if(motor.length<count){
+                motor = new int[count];
+                filament = new int[2*count];
+                position = new double[2*count];
+            }
+        }
+
+        void setLinkCount(int count){
+            links = count;
+            if(linkDuration.length<count){
+                linked = new int[2*count];
+                linkPosition = new double[2*count];
+                linkDuration = new double[count];
+            }
+        }
+    }
+}
+
+/**
+ * A mapped region of a file.
+ */
+class Window{
+    MappedByteBuffer buffer;
+    long start;
+
+    /**
+     * Finds a chunk in the mapped region, mapping a new region starting at the chunk if it is not contained.
+     *
+     * @param channel file being read.
+     * @param position start of the chunk.
+     * @param length size of the chunk.
+     * @return a buffer containing only the chunk, positioned at the start.
+     */
+    synchronized ByteBuffer slice(FileChannel channel, long position, int length) throws IOException {
+        if(buffer==null || position<start || position + length>start + buffer.capacity()){
+            long size = Math.min(channel.size() - position, Math.max(length, MappedSimulationReader.WINDOW));
+            if(size<length){
+                throw new IOException("file ended before the end of the chunk.");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+            start = position;
+        }
+        ByteBuffer b = buffer.duplicate();
+        int offset = (int)(position - start);
+        b.limit(offset + length);
+        b.position(offset);
+        return b.slice();
+    }
+}
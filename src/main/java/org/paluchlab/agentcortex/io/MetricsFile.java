@@ -0,0 +1,246 @@
+package org.paluchlab.agentcortex.io;
+
+import org.paluchlab.agentcortex.CortexModel;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Metrics recorded every METRICS_INTERVAL sub steps of a running simulation, {tag}-metrics.dat. The full time points
+ * are only written once every STEPS_PER_FRAME sub steps, the metrics are a few values that can be recorded much more
+ * often. After the header there is one fixed size record for each sample, in order of time:
+ *
+ * <pre>
+ * int magic, int format, int columns
+ * double[columns] sample 0
+ * double[columns] sample 1
+ * ...
+ * </pre>
+ *
+ * The columns are listed in #COLUMNS, the tension values are unscaled, see CortexModel#measureTension, and dt is the
+ * time since the previous sample. The frame column is the index of the last time point written before the sample, so
+ * the samples between two time points are found with #getSampleRange, and a time is found with #findTime, without
+ * reading the whole file.
+ *
+ * Created on 10/19/26.
+ */
+public class MetricsFile implements AutoCloseable{
+    final static String METRICS_TAIL = "-metrics.dat";
+    final static int MAGIC = 0x43444d54;
+    final static int FORMAT = 1;
+    final static int HEADER = 12;
+
+    public final static int TIME = 0;
+    public final static int DT = 1;
+    public final static int FRAME = 2;
+    public final static int RESIDUAL = 3;
+    public final static int MAX_OUT_OF_EQUILIBRIUM = 4;
+    public final static int RELAX_STEPS = 5;
+    public final static int TENSION_YZ = 6;
+    public final static int ACTIN_TENSION_YZ = 7;
+    public final static int TENSION_XZ = 8;
+    public final static int ACTIN_TENSION_XZ = 9;
+    public final static int MYOSIN_DIPOLE = 10;
+    public final static int BOUND_HEADS = 11;
+    public final static int DOUBLE_BOUND = 12;
+    public final static String[] COLUMNS = {
+            "time", "dt", "frame", "residual", "max out of equilibrium", "relax steps",
+            "tension y-z", "actin tension y-z", "tension x-z", "actin tension x-z", "myosin dipole",
+            "bound heads", "double bound", "dipole xx", "dipole yy", "dipole zz"
+    };
+    final static int RECORD = 8*COLUMNS.length;
+
+    final FileChannel channel;
+    final int samples;
+
+    MetricsFile(FileChannel channel, int samples){
+        this.channel = channel;
+        this.samples = samples;
+    }
+
+    /**
+     * Opens a metrics file for reading, an incomplete sample at the end is ignored.
+     *
+     * @param file metrics file.
+     * @return the opened file.
+     * @throws IOException if the file is not a metrics file.
+     */
+    public static MetricsFile open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath());
+        try{
+            return new MetricsFile(channel, checkHeader(channel, file));
+        } catch(IOException e){
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Checks the header of a metrics file.
+     *
+     * @return the number of complete samples.
+     * @throws IOException if the header does not match this format.
+     */
+    static int checkHeader(FileChannel channel, File file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        FrameIndex.readFully(channel, header, 0);
+        header.flip();
+        if(header.getInt()!=MAGIC){
+            throw new IOException(file + " is not a metrics file.");
+        }
+        int format = header.getInt();
+        if(format!=FORMAT){
+            throw new IOException("unsupported metrics version: " + format);
+        }
+        int columns = header.getInt();
+        if(columns!=COLUMNS.length){
+            throw new IOException("unexpected number of metrics: " + columns);
+        }
+        return (int)((channel.size() - HEADER)/RECORD);
+    }
+
+    public static File getMetricsFile(File simFile){
+        int last = simFile.getName().indexOf("-simulation.txt");
+        String tag = simFile.getName().substring(0, last);
+        return new File(simFile.getAbsoluteFile().getParentFile(), tag + METRICS_TAIL);
+    }
+
+    public int getSampleCount(){
+        return samples;
+    }
+
+    /**
+     * Reads one sample.
+     *
+     * @param sample index of the sample.
+     * @return the value of each column.
+     * @throws IOException
+     */
+    public double[] getSample(int sample) throws IOException {
+        return getSamples(sample, sample + 1);
+    }
+
+    /**
+     * Reads consecutive samples with one read.
+     *
+     * @param start first sample.
+     * @param end sample after the last sample.
+     * @return the samples, one after the other, COLUMNS.length values each.
+     * @throws IOException
+     */
+    public double[] getSamples(int start, int end) throws IOException {
+        if(start<0 || end>samples || start>end){
+            throw new IndexOutOfBoundsException("samples " + start + " to " + end + " of " + samples);
+        }
+        double[] values = new double[(end - start)*COLUMNS.length];
+        TrajectoryFile.readDoubles(channel, HEADER + (long)start*RECORD, values, 0, values.length);
+        return values;
+    }
+
+    /**
+     * Reads one column of every sample.
+     *
+     * @param column index of the column, see #COLUMNS.
+     * @return the column value for each sample.
+     * @throws IOException
+     */
+    public double[] getColumn(int column) throws IOException {
+        double[] values = new double[samples];
+        int block = Math.max(1, (1<<20)/RECORD);
+        for(int start = 0; start<samples; start += block){
+            int end = Math.min(samples, start + block);
+            double[] rows = getSamples(start, end);
+            for(int i = start; i<end; i++){
+                values[i] = rows[(i - start)*COLUMNS.length + column];
+            }
+        }
+        return values;
+    }
+
+    double getValue(int sample, int column) throws IOException {
+        ByteBuffer value = ByteBuffer.allocate(8);
+        FrameIndex.readFully(channel, value, HEADER + (long)sample*RECORD + 8*column);
+        return value.getDouble(0);
+    }
+
+    /**
+     * Finds the first sample with a column value that is not less than the provided value, the column must be sorted,
+     * eg. the time or the frame.
+     */
+    int search(int column, double value) throws IOException {
+        int low = 0;
+        int high = samples;
+        while(low<high){
+            int mid = (low + high)>>>1;
+            if(getValue(mid, column)<value){
+                low = mid + 1;
+            } else{
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Finds a time with a binary search.
+     *
+     * @param time simulation time.
+     * @return index of the first sample at or after time, or the sample count if every sample is before time.
+     * @throws IOException
+     */
+    public int findTime(double time) throws IOException {
+        return search(TIME, time);
+    }
+
+    /**
+     * Finds the samples recorded between a time point and the next time point.
+     *
+     * @param frame index of a time point in the simulation.
+     * @return {first sample, sample after the last sample}, empty if there are none.
+     * @throws IOException
+     */
+    public int[] getSampleRange(int frame) throws IOException {
+        return new int[]{search(FRAME, frame), search(FRAME, frame + 1)};
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Prints the metrics of a simulation as tab separated values.
+     *
+     * @param args tag-simulation.txt
+     */
+    public static void main(String[] args){
+        if(args.length<1){
+            System.out.println("usage: MetricsFile tag-simulation.txt");
+            System.exit(0);
+        }
+        File file = getMetricsFile(new File(args[0]));
+        try(MetricsFile metrics = open(file)){
+            StringBuilder line = new StringBuilder("#");
+            for(String column: COLUMNS){
+                line.append(column).append('\t');
+            }
+            System.out.println(line.toString().trim());
+            for(int i = 0; i<metrics.getSampleCount(); i++){
+                double[] sample = metrics.getSample(i);
+                line.setLength(0);
+                for(int c = 0; c<sample.length; c++){
+                    if(c>0){
+                        line.append('\t');
+                    }
+                    line.append(sample[c]);
+                }
+                System.out.println(line);
+            }
+        } catch(IOException e){
+            System.err.println("could not read metrics: " + file);
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package org.paluchlab.agentcortex.io;
+
+import org.paluchlab.agentcortex.CortexModel;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the metrics of a running simulation. It is used as the sub step listener of the model, so it runs on the
+ * simulation thread, samples are buffered and appended when the buffer is full or when the simulation writer writes a
+ * time step.
+ *
+ * Created on 10/19/26.
+ */
+class MetricsWriter implements Runnable{
+    final static int BUFFERED = 256;
+    final CortexModel model;
+    final int interval;
+    final FileChannel channel;
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFERED*MetricsFile.RECORD);
+    final DoubleBuffer values = buffer.asDoubleBuffer();
+    final List<double[]> tension = new ArrayList<>(1);
+    //sub steps since the last time point was written, and its index.
+    int steps;
+    int frame;
+    double lastTime;
+    boolean closed;
+
+    /**
+     * Opens the metrics file for appending. When the simulation is being continued, samples after the current time of
+     * the model are removed, since they will be recorded again.
+     *
+     * @param model simulation being recorded, in the state of the time point frame.
+     * @param file metrics file.
+     * @param frame index of the last time point written.
+     * @throws IOException
+     */
+    MetricsWriter(CortexModel model, File file, int frame) throws IOException {
+        this.model = model;
+        this.frame = frame;
+        interval = Math.max(1, (int)model.constants.METRICS_INTERVAL);
+        lastTime = model.time;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        try{
+            if(channel.size()<MetricsFile.HEADER){
+                ByteBuffer header = ByteBuffer.allocate(MetricsFile.HEADER);
+                header.putInt(MetricsFile.MAGIC);
+                header.putInt(MetricsFile.FORMAT);
+                header.putInt(MetricsFile.COLUMNS.length);
+                header.flip();
+                channel.truncate(0);
+                while(header.hasRemaining()){
+                    channel.write(header, header.position());
+                }
+            } else{
+                int samples = MetricsFile.checkHeader(channel, file);
+                MetricsFile existing = new MetricsFile(channel, samples);
+                int keep = existing.findTime(model.time + 0.5*model.constants.DT);
+                channel.truncate(MetricsFile.HEADER + (long)keep*MetricsFile.RECORD);
+            }
+            channel.position(channel.size());
+        } catch(IOException e){
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized void run(){
+        steps++;
+        if(closed || steps%interval!=0){
+            return;
+        }
+        tension.clear();
+        double residual = model.getResidual();
+        double max = model.getMaxOutOfEquilibrium();
+        model.measureTension(tension);
+        double[] measured = tension.get(0);
+        values.put(model.time);
+        values.put(model.time - lastTime);
+        values.put(frame);
+        values.put(residual);
+        values.put(max);
+        values.put(model.getRelaxSteps());
+        values.put(measured, 1, measured.length - 1);
+        lastTime = model.time;
+        if(!values.hasRemaining()){
+            flush();
+        }
+    }
+
+    /**
+     * Called when a time point has been written, so the following samples are counted from it.
+     */
+    synchronized void frameWritten(int frame){
+        this.frame = frame;
+        steps = 0;
+        flush();
+    }
+
+    /**
+     * Appends the buffered samples.
+     */
+    synchronized void flush(){
+        if(closed || values.position()==0){
+            return;
+        }
+        buffer.clear();
+        buffer.limit(8*values.position());
+        try{
+            while(buffer.hasRemaining()){
+                channel.write(buffer);
+            }
+        } catch(IOException e){
+            System.out.println("failed to write metrics, no more metrics will be recorded.");
+            e.printStackTrace();
+            closed = true;
+        }
+        values.clear();
+    }
+
+    synchronized void close(){
+        flush();
+        closed = true;
+        try{
+            channel.force(false);
+            channel.close();
+        } catch(IOException e){
+            e.printStackTrace();
+        }
+    }
+}
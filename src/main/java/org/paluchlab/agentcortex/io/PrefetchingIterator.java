@@ -0,0 +1,112 @@
+package org.paluchlab.agentcortex.io;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Iterates over the time points of a simulation, decoding the following time points on background threads while the
+ * current time point is being used. At most 'lookAhead' time points are decoded ahead of the current one.
+ *
+ * Quantized rods and interaction deltas have to be decoded in order, so they are decoded by a single thread with its
+ * own decoder. Otherwise time points are decoded by up to 'lookAhead' threads.
+ *
+ * The iterator should be closed when it is not used until the end, to stop the threads.
+ *
+ * Created on 10/19/26.
+ */
+public class PrefetchingIterator implements Iterator<TimePoint>, AutoCloseable {
+    final SimulationReader reader;
+    final ExecutorService service;
+    final ArrayDeque<Future<TimePoint>> pending = new ArrayDeque<>();
+    final FrameDecoder decoder;
+    //time points when the iterator was created, see SimulationReader#refresh.
+    final List<TimePointKey> keys;
+    final int last;
+    final int sections;
+    int submitted;
+
+    /**
+     * Starts decoding the first time points.
+     *
+     * @param reader reader with the time points loaded.
+     * @param first index of the first time point.
+     * @param lookAhead number of time points that are decoded in advance, at least 1.
+     * @param sections sections of the time points that are read, see TimePoint#ALL.
+     */
+    PrefetchingIterator(SimulationReader reader, int first, int lookAhead, int sections){
+        this.reader = reader;
+        this.sections = sections;
+        decoder = reader.createDecoder();
+        keys = reader.keys;
+        last = keys.size();
+        submitted = first;
+        lookAhead = Math.max(1, lookAhead);
+        int threads = decoder.isSequential() ? 1 : Math.min(lookAhead, Runtime.getRuntime().availableProcessors());
+        service = Executors.newFixedThreadPool(threads, r->{
+            Thread t = new Thread(r, "frame-prefetch");
+            t.setDaemon(true);
+            return t;
+        });
+        for(int i = 0; i<lookAhead; i++){
+            submitNext();
+        }
+    }
+
+    private void submitNext(){
+        if(submitted<last){
+            TimePointKey key = keys.get(submitted++);
+            pending.add(service.submit(()->reader.loadTimePoint(key, decoder, sections)));
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !pending.isEmpty();
+    }
+
+    /**
+     * Waits for the next time point to be decoded.
+     *
+     * @return the next time point, or null if it could not be decoded.
+     */
+    @Override
+    public TimePoint next() {
+        Future<TimePoint> future = pending.poll();
+        if(future==null){
+            throw new NoSuchElementException();
+        }
+        submitNext();
+        if(pending.isEmpty()){
+            service.shutdown();
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new IllegalStateException("interrupted while waiting for a time point", e);
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Stops decoding, time points that have not been returned are discarded. Running tasks are not interrupted, an
+     * interrupt would close the reader's file channels.
+     */
+    @Override
+    public void close(){
+        for(Future<TimePoint> future: pending){
+            future.cancel(false);
+        }
+        pending.clear();
+        service.shutdown();
+    }
+}
@@ -0,0 +1,290 @@
+package org.paluchlab.agentcortex.io;
+
+import org.paluchlab.agentcortex.CortexModel;
+import org.paluchlab.agentcortex.agents.Rod;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Quantized delta encoding of the rods chunk. Each position and direction component is rounded to a multiple of the
+ * precision, and stored as the difference from the value in the previous frame, as zig-zag variable length integers.
+ * The integers are then deflated. Every 'keyframes' frames the values are stored without differences, so a frame can
+ * be decoded starting from the nearest keyframe.
+ *
+ * The chunk layout is:
+ *
+ * double time, byte flags, int actins, int motors, int uncompressed length, deflated data...
+ *
+ * The time is stored first, as in the raw format, so it can be read without decoding.
+ *
+ * Created on 10/19/26.
+ */
+class QuantizedRods {
+    final static byte KEYFRAME = 1;
+    //time, flags, actins, motors, uncompressed length.
+    final static int HEADER = 8 + 1 + 4 + 4 + 4;
+    final static int FLAGS_OFFSET = 8;
+    final static int VALUES = 6;
+
+    /**
+     * Checks the flags of an encoded chunk.
+     *
+     * @param chunk rod chunk without the size.
+     * @return true if the chunk can be decoded without the previous frames.
+     */
+    static boolean isKeyframe(byte[] chunk){
+        return (chunk[FLAGS_OFFSET]&KEYFRAME)!=0;
+    }
+
+    static int putVarLong(byte[] bytes, int i, long v){
+        long z = (v<<1)^(v>>63);
+        while((z & ~0x7fL)!=0){
+            bytes[i++] = (byte)((z & 0x7f) | 0x80);
+            z >>>= 7;
+        }
+        bytes[i++] = (byte)z;
+        return i;
+    }
+
+    /**
+     * Encodes the rods of a model, keeping the quantized values for the next frame.
+     */
+    static class Encoder{
+        final double scale;
+        final int keyframes;
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        long[] previous = new long[0];
+        long[] current = new long[0];
+        byte[] raw = new byte[0];
+        byte[] packed = new byte[0];
+        int sinceKeyframe = 0;
+        boolean started = false;
+        //if the last frame encoded was a keyframe.
+        boolean keyframe;
+
+        Encoder(StorageFormat format){
+            scale = 1/format.getPrecision();
+            keyframes = format.getKeyframeInterval();
+        }
+
+        /**
+         * Makes the next frame a keyframe, eg. the first frame of a segment.
+         */
+        void forceKeyframe(){
+            started = false;
+        }
+
+        /**
+         * Writes the rods chunk of the model to the buffer.
+         *
+         * @param model
+         * @param data
+         */
+        void encode(CortexModel model, ChunkBuffer data){
+            List<? extends Rod> actins = model.getActin();
+            List<? extends Rod> motors = model.getMyosins();
+            int n = VALUES*(actins.size() + motors.size());
+            if(current.length!=n){
+                current = new long[n];
+                raw = new byte[10*n];
+            }
+            int dex = quantize(actins, 0);
+            quantize(motors, dex);
+
+            keyframe = !started || previous.length!=n || sinceKeyframe>=keyframes;
+            int length = 0;
+            if(keyframe){
+                for(int i = 0; i<n; i++){
+                    length = putVarLong(raw, length, current[i]);
+                }
+                sinceKeyframe = 0;
+            } else{
+                for(int i = 0; i<n; i++){
+                    length = putVarLong(raw, length, current[i] - previous[i]);
+                }
+            }
+            sinceKeyframe++;
+            started = true;
+
+            int compressed = deflate(length);
+            ByteBuffer buffer = data.begin(HEADER + compressed);
+            buffer.putDouble(model.time);
+            buffer.put(keyframe?KEYFRAME:0);
+            buffer.putInt(actins.size());
+            buffer.putInt(motors.size());
+            buffer.putInt(length);
+            buffer.put(packed, 0, compressed);
+            data.finish();
+
+            long[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        int quantize(List<? extends Rod> rods, int dex){
+            for(Rod rod: rods){
+                double[] p = rod.position;
+                double[] d = rod.direction;
+                current[dex++] = Math.round(p[0]*scale);
+                current[dex++] = Math.round(p[1]*scale);
+                current[dex++] = Math.round(p[2]*scale);
+                current[dex++] = Math.round(d[0]*scale);
+                current[dex++] = Math.round(d[1]*scale);
+                current[dex++] = Math.round(d[2]*scale);
+            }
+            return dex;
+        }
+
+        int deflate(int length){
+            deflater.reset();
+            deflater.setInput(raw, 0, length);
+            deflater.finish();
+            if(packed.length<length + 64){
+                packed = new byte[length + length/8 + 64];
+            }
+            int size = 0;
+            while(!deflater.finished()){
+                if(size==packed.length){
+                    byte[] larger = new byte[2*packed.length];
+                    System.arraycopy(packed, 0, larger, 0, size);
+                    packed = larger;
+                }
+                size += deflater.deflate(packed, size, packed.length - size);
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Decodes rod chunks, keeping the quantized values of the last decoded frame. A frame that is not a keyframe can
+     * only be decoded directly after the frame before it.
+     */
+    static class Decoder{
+        final double precision;
+        final Inflater inflater = new Inflater();
+        long[] values = new long[0];
+        byte[] raw = new byte[0];
+        boolean valid = false;
+        //position of the chunk that can be decoded next, -1 if unknown.
+        long next = -1;
+        //results of the last decode.
+        double time;
+        int actins, motors;
+
+        Decoder(StorageFormat format){
+            precision = format.getPrecision();
+        }
+
+        /**
+         * Decodes a chunk, the results are in time, actins, motors and the rods can be copied with #setRod
+         *
+         * @param chunk rod chunk without the size.
+         * @throws IOException if the chunk is corrupt, or depends on a frame that has not been decoded.
+         */
+        void decode(byte[] chunk) throws IOException {
+            ByteBuffer header = ByteBuffer.wrap(chunk);
+            double t = header.getDouble();
+            boolean keyframe = (header.get()&KEYFRAME)!=0;
+            int a = header.getInt();
+            int m = header.getInt();
+            int length = header.getInt();
+            int n = VALUES*(a + m);
+
+            if(!keyframe && (!valid || values.length!=n)){
+                valid = false;
+                throw new IOException("rod delta frame without a previous frame.");
+            }
+            if(raw.length<length){
+                raw = new byte[length];
+            }
+            inflater.reset();
+            inflater.setInput(chunk, HEADER, chunk.length - HEADER);
+            try{
+                int read = 0;
+                while(read<length){
+                    int r = inflater.inflate(raw, read, length - read);
+                    if(r==0 && (inflater.finished()||inflater.needsInput())){
+                        break;
+                    }
+                    read += r;
+                }
+                if(read!=length){
+                    valid = false;
+                    throw new IOException("rod chunk is shorter than expected.");
+                }
+            } catch (DataFormatException e) {
+                valid = false;
+                throw new IOException("corrupt rod chunk", e);
+            }
+
+            if(values.length!=n){
+                values = new long[n];
+            }
+            int pos = 0;
+            for(int i = 0; i<n; i++){
+                long z = 0;
+                int shift = 0;
+                byte b;
+                do{
+                    if(pos==length){
+                        valid = false;
+                        throw new IOException("rod chunk is shorter than expected.");
+                    }
+                    b = raw[pos++];
+                    z |= (long)(b & 0x7f)<<shift;
+                    shift += 7;
+                } while(b<0);
+                long v = (z>>>1)^-(z & 1);
+                values[i] = keyframe ? v : values[i] + v;
+            }
+            time = t;
+            actins = a;
+            motors = m;
+            valid = true;
+            next = -1;
+        }
+
+        /**
+         * Copies the position and direction of a decoded rod.
+         *
+         * @param index index of the rod, motors follow the actins.
+         * @param rod destination.
+         */
+        void setRod(int index, Rod rod){
+            int dex = VALUES*index;
+            double[] p = rod.position;
+            double[] d = rod.direction;
+            p[0] = values[dex++]*precision;
+            p[1] = values[dex++]*precision;
+            p[2] = values[dex++]*precision;
+            d[0] = values[dex++]*precision;
+            d[1] = values[dex++]*precision;
+            d[2] = values[dex]*precision;
+        }
+
+        /**
+         * Copies all of the decoded values, six for each rod, position followed by direction.
+         *
+         * @param values destination, at least 6*(actins + motors) long.
+         */
+        void getValues(double[] values){
+            int n = VALUES*(actins + motors);
+            for(int i = 0; i<n; i++){
+                values[i] = this.values[i]*precision;
+            }
+        }
+
+        /**
+         * @param position position of a rod chunk in the file.
+         * @return true if the chunk at position directly follows the last decoded chunk.
+         */
+        boolean follows(long position){
+            return valid && next==position;
+        }
+    }
+}
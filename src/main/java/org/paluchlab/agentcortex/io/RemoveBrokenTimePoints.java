@@ -68,7 +68,8 @@ public class RemoveBrokenTimePoints {
      * attempt to repair the simulation.
      *
      * The principle form of repair is to just truncate both the interaction file and rod file so they are the same
-     * length, with matching time points.
+     * length, with matching time points. When the chunks have checksums, the files are not parsed, they are
+     * truncated after the last committed time point, see #truncateToCommitted.
      *
      * @param simName
      * @return
@@ -89,6 +90,10 @@ public class RemoveBrokenTimePoints {
         try {
             SimulationReader simmer = new SimulationReader(simFile, rods, interactions);
             simmer.loadSimulation();
+            if(simmer.getFormat().hasChecksums()){
+                truncateToCommitted(simmer, simFile, result);
+                return result;
+            }
 
             int good = 0;
             try(
@@ -151,6 +156,10 @@ public class RemoveBrokenTimePoints {
                 e.printStackTrace();
                 return result;
             }
+            if(mode==ScanMode.modifyEnd && !result.success){
+                //chunks might have been removed, the index will be rebuilt when the simulation is loaded.
+                Files.deleteIfExists(FrameIndex.getIndexFile(simFile).toPath());
+            }
             return result;
 
         } catch(Exception e){
@@ -160,12 +169,49 @@ public class RemoveBrokenTimePoints {
         return result;
     }
 
+    /**
+     * Finds the last committed time point, which only verifies the time points at the end of the files, and
+     * removes everything after it.
+     *
+     * @param simmer reader with the simulation file loaded.
+     * @param simFile for finding the index file.
+     * @param result receives the failures.
+     * @throws IOException
+     */
+    static void truncateToCommitted(SimulationReader simmer, File simFile, LoadResult result) throws IOException {
+        if(!simmer.indexRodsAndInteractions()){
+            result.fail("could not index the data files");
+            return;
+        }
+        long rodEnd = 0;
+        long interactionEnd = 0;
+        int committed = simmer.getPointCount();
+        if(committed>0){
+            TimePointKey last = simmer.keys.get(committed - 1);
+            rodEnd = last.rodPosition + last.rodLength;
+            interactionEnd = last.interactionPosition + last.interactionLength;
+        }
+        result.committed = committed;
+        File rods = simmer.getRodsFile();
+        File interactions = simmer.getInteractionsFile();
+        if(Segments.length(rods)==rodEnd && Segments.length(interactions)==interactionEnd){
+            return;
+        }
+        result.fail("failed: data after the last committed time point!");
+        if(mode==ScanMode.modifyEnd){
+            Segments.truncate(rods, interactions, rodEnd, interactionEnd);
+            FrameIndex.write(FrameIndex.getIndexFile(simFile), simmer.keys);
+        }
+    }
+
     /**
      * for storing messages, and the general success state of the operation.
      */
     static class LoadResult{
         List<String> messages = new ArrayList<String>();
         boolean success = true;
+        //number of committed time points, when the chunks have checksums.
+        int committed = -1;
         public void fail(String message){
             System.out.println("*" + message);
             messages.add(message);
@@ -0,0 +1,731 @@
+package org.paluchlab.agentcortex.io;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * The manifest of a simulation whose data files are split into numbered segments, {tag}-segments.txt. The first
+ * segment is {tag}-rods.dat and {tag}-interactions.dat, the following segments are {tag}-rods-0001.dat,
+ * {tag}-interactions-0001.dat and so on. The writer starts a new segment after SEGMENT_FRAMES time points, or
+ * SEGMENT_MEGABYTES of data, and the first time point of every segment is a keyframe, so each segment can be decoded
+ * on its own.
+ *
+ * The segments of each data file are treated as one continuous file, positions in the index and the time point keys
+ * are positions in the continuous file, and the manifest records where each segment starts:
+ *
+ * <pre>
+ * #segment first frame  frames  start time  end time  rod start  interaction start  state
+ * 0        0            1000    0.0         19.98     0          0                  closed
+ * 1        1000         -1      20.0        NaN       96001234   4500123            open
+ * </pre>
+ *
+ * Only the last segment is open, closed segments are never modified again, except when a simulation is continued from
+ * an earlier time point and the segments after it are removed. The manifest is replaced atomically when a segment is
+ * closed, after the closed segment has been forced to disk.
+ *
+ * Created on 10/19/26.
+ */
+public class Segments {
+    final static String SEGMENTS_TAIL = "-segments.txt";
+    final static String OPEN = "open";
+    final static String CLOSED = "closed";
+
+    /**
+     * One segment of both data files.
+     */
+    static class Segment{
+        int firstFrame;
+        //-1 while the segment is open.
+        int frames = -1;
+        double startTime;
+        double endTime = Double.NaN;
+        long rodStart, interactionStart;
+        boolean closed;
+
+        long getStart(boolean rods){
+            return rods?rodStart:interactionStart;
+        }
+    }
+
+    final File directory;
+    final String tag;
+    final File manifest;
+    final List<Segment> segments = new ArrayList<>();
+    //when the manifest was last read, so readers can tell when the writer has started a new segment.
+    private long modified, length;
+
+    Segments(File directory, String tag){
+        this.directory = directory;
+        this.tag = tag;
+        manifest = new File(directory, tag + SEGMENTS_TAIL);
+    }
+
+    /**
+     * Finds the manifest for a data file.
+     *
+     * @param data {tag}-rods.dat or {tag}-interactions.dat
+     * @return the segments, or null if the data file is not segmented.
+     * @throws IOException if the manifest cannot be read.
+     */
+    static Segments forDataFile(File data) throws IOException {
+        Segments segments = new Segments(data.getAbsoluteFile().getParentFile(), getTag(data));
+        if(!segments.manifest.exists()){
+            return null;
+        }
+        segments.load();
+        return segments;
+    }
+
+    static String getTag(File data){
+        String name = data.getName();
+        if(name.endsWith(SimulationReader.ROD_TAIL)){
+            return name.substring(0, name.length() - SimulationReader.ROD_TAIL.length());
+        }
+        if(name.endsWith(SimulationReader.INT_TAIL)){
+            return name.substring(0, name.length() - SimulationReader.INT_TAIL.length());
+        }
+        throw new IllegalArgumentException("not a data file: " + data);
+    }
+
+    static boolean isRods(File data){
+        return data.getName().endsWith(SimulationReader.ROD_TAIL);
+    }
+
+    /**
+     * The manifest used with a simulation file.
+     *
+     * @param simFile tag-simulation.txt
+     * @return tag-segments.txt in the same directory.
+     */
+    public static File getManifestFile(File simFile){
+        int last = simFile.getName().indexOf("-simulation.txt");
+        String tag = simFile.getName().substring(0, last);
+        return new File(simFile.getAbsoluteFile().getParentFile(), tag + SEGMENTS_TAIL);
+    }
+
+    /**
+     * Starts a segmented simulation, creating the manifest and the empty files of the first segment.
+     *
+     * @param rods {tag}-rods.dat
+     * @param startTime time of the first time point.
+     * @return the new segments.
+     * @throws IOException
+     */
+    static Segments create(File rods, double startTime) throws IOException {
+        Segments segments = new Segments(rods.getAbsoluteFile().getParentFile(), getTag(rods));
+        Segment first = new Segment();
+        first.startTime = startTime;
+        segments.segments.add(first);
+        segments.createFiles(0);
+        segments.write();
+        return segments;
+    }
+
+    /**
+     * Reads the manifest.
+     *
+     * @throws IOException if the manifest is not valid.
+     */
+    synchronized void load() throws IOException {
+        long m = manifest.lastModified();
+        long l = manifest.length();
+        List<Segment> found = new ArrayList<>();
+        for(String line: Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8)){
+            if(line.length()==0 || line.charAt(0)=='#'){
+                continue;
+            }
+            String[] values = line.split(Pattern.quote("\t"));
+            if(values.length<8 || Integer.parseInt(values[0])!=found.size()){
+                throw new IOException("invalid segment: " + line);
+            }
+            Segment s = new Segment();
+            s.firstFrame = Integer.parseInt(values[1]);
+            s.frames = Integer.parseInt(values[2]);
+            s.startTime = Double.parseDouble(values[3]);
+            s.endTime = Double.parseDouble(values[4]);
+            s.rodStart = Long.parseLong(values[5]);
+            s.interactionStart = Long.parseLong(values[6]);
+            s.closed = CLOSED.equals(values[7]);
+            found.add(s);
+        }
+        if(found.size()==0){
+            throw new IOException("no segments in " + manifest);
+        }
+        segments.clear();
+        segments.addAll(found);
+        modified = m;
+        length = l;
+    }
+
+    /**
+     * Reads the manifest again if it has changed since it was read.
+     *
+     * @return true if it was read again.
+     * @throws IOException
+     */
+    synchronized boolean reload() throws IOException {
+        if(manifest.lastModified()==modified && manifest.length()==length){
+            return false;
+        }
+        load();
+        return true;
+    }
+
+    /**
+     * Replaces the manifest.
+     *
+     * @throws IOException
+     */
+    synchronized void write() throws IOException {
+        File tmp = new File(directory, manifest.getName() + ".tmp");
+        try(BufferedWriter w = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)){
+            w.write("#segment\tfirst frame\tframes\tstart time\tend time\trod start\tinteraction start\tstate\n");
+            for(int i = 0; i<segments.size(); i++){
+                Segment s = segments.get(i);
+                w.write(String.format(
+                        "%d\t%d\t%d\t%s\t%s\t%d\t%d\t%s\n",
+                        i, s.firstFrame, s.frames, s.startTime, s.endTime, s.rodStart, s.interactionStart,
+                        s.closed?CLOSED:OPEN
+                ));
+            }
+        }
+        try(FileChannel c = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE)){
+            c.force(true);
+        }
+        Files.move(tmp.toPath(), manifest.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        modified = manifest.lastModified();
+        length = manifest.length();
+    }
+
+    synchronized int size(){
+        return segments.size();
+    }
+
+    synchronized Segment get(int i){
+        return segments.get(i);
+    }
+
+    /**
+     * Finds the segment containing a position of the continuous file.
+     *
+     * @return index of the last segment starting at or before position.
+     */
+    synchronized int find(long position, boolean rods){
+        int low = 0;
+        int high = segments.size() - 1;
+        while(low<high){
+            int mid = (low + high + 1)>>>1;
+            if(segments.get(mid).getStart(rods)<=position){
+                low = mid;
+            } else{
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Finds the segment containing a time point.
+     *
+     * @param frame index of the time point.
+     * @return index of the segment.
+     */
+    synchronized int findFrame(int frame){
+        int i = segments.size() - 1;
+        while(i>0 && segments.get(i).firstFrame>frame){
+            i--;
+        }
+        return i;
+    }
+
+    /**
+     * @param i index of the segment.
+     * @param rods true for the rods file, false for the interactions file.
+     * @return the file storing the segment.
+     */
+    File getFile(int i, boolean rods){
+        String tail = rods?SimulationReader.ROD_TAIL:SimulationReader.INT_TAIL;
+        if(i==0){
+            return new File(directory, tag + tail);
+        }
+        String numbered = tail.replace(".dat", String.format("-%04d.dat", i));
+        return new File(directory, tag + numbered);
+    }
+
+    private void createFiles(int i) throws IOException {
+        for(boolean rods: new boolean[]{true, false}){
+            try(FileChannel c = FileChannel.open(
+                    getFile(i, rods).toPath(),
+                    StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING
+            )){
+                c.force(true);
+            }
+        }
+    }
+
+    /**
+     * Closes the last segment and starts a new one. The data of the last segment should be forced to disk first.
+     *
+     * @param firstFrame index of the first time point of the new segment.
+     * @param startTime time of the first time point of the new segment.
+     * @param endTime time of the last time point of the closed segment.
+     * @param rodStart length of the continuous rods file.
+     * @param interactionStart length of the continuous interactions file.
+     * @throws IOException
+     */
+    synchronized void roll(int firstFrame, double startTime, double endTime, long rodStart, long interactionStart) throws IOException {
+        Segment last = segments.get(segments.size() - 1);
+        Segment next = new Segment();
+        next.firstFrame = firstFrame;
+        next.startTime = startTime;
+        next.rodStart = rodStart;
+        next.interactionStart = interactionStart;
+        createFiles(segments.size());
+        last.frames = firstFrame - last.firstFrame;
+        last.endTime = endTime;
+        last.closed = true;
+        segments.add(next);
+        write();
+    }
+
+    /**
+     * Removes the segments after a segment, so it becomes the open segment again. The manifest is replaced before the
+     * files are deleted.
+     *
+     * @param i index of the segment to keep.
+     * @return true if the manifest changed.
+     * @throws IOException
+     */
+    synchronized boolean removeAfter(int i) throws IOException {
+        Segment kept = segments.get(i);
+        if(segments.size()==i + 1 && !kept.closed){
+            return false;
+        }
+        int count = segments.size();
+        while(segments.size()>i + 1){
+            segments.remove(segments.size() - 1);
+        }
+        kept.closed = false;
+        kept.frames = -1;
+        kept.endTime = Double.NaN;
+        write();
+        for(int j = i + 1; j<count; j++){
+            Files.deleteIfExists(getFile(j, true).toPath());
+            Files.deleteIfExists(getFile(j, false).toPath());
+        }
+        return true;
+    }
+
+    /**
+     * Opens the segments of one of the data files as a single channel.
+     *
+     * @param rods true for the rods file, false for the interactions file.
+     * @param options used to open the last segment, earlier segments are read only.
+     * @return a channel for the continuous file.
+     */
+    FileChannel open(boolean rods, OpenOption... options){
+        return new SegmentedChannel(this, rods, options);
+    }
+
+    /**
+     * Opens a data file, as a single channel across its segments when it is segmented.
+     *
+     * @param data {tag}-rods.dat or {tag}-interactions.dat
+     * @param options
+     * @return the channel.
+     * @throws IOException
+     */
+    static FileChannel open(File data, OpenOption... options) throws IOException {
+        Segments segments = forDataFile(data);
+        if(segments==null){
+            return FileChannel.open(data.toPath(), options);
+        }
+        return segments.open(isRods(data), options);
+    }
+
+    /**
+     * @param data {tag}-rods.dat or {tag}-interactions.dat
+     * @return the length of the continuous file, including every segment.
+     * @throws IOException
+     */
+    static long length(File data) throws IOException {
+        Segments segments = forDataFile(data);
+        if(segments==null){
+            return data.length();
+        }
+        boolean rods = isRods(data);
+        int last = segments.size() - 1;
+        return segments.get(last).getStart(rods) + segments.getFile(last, rods).length();
+    }
+
+    /**
+     * Truncates both data files, removing any segments after the new ends.
+     *
+     * @param rods {tag}-rods.dat
+     * @param interactions {tag}-interactions.dat
+     * @param rodEnd new length of the continuous rods file.
+     * @param interactionEnd new length of the continuous interactions file.
+     * @throws IOException
+     */
+    static void truncate(File rods, File interactions, long rodEnd, long interactionEnd) throws IOException {
+        Segments segments = forDataFile(rods);
+        try(
+                FileChannel r = segments==null ?
+                        FileChannel.open(rods.toPath(), StandardOpenOption.WRITE) :
+                        segments.open(true, StandardOpenOption.WRITE);
+                FileChannel ia = segments==null ?
+                        FileChannel.open(interactions.toPath(), StandardOpenOption.WRITE) :
+                        segments.open(false, StandardOpenOption.WRITE)
+        ){
+            r.truncate(rodEnd);
+            ia.truncate(interactionEnd);
+        }
+    }
+
+    /**
+     * Deletes both data files of a simulation, including every numbered segment and the manifest. The segments are
+     * found by their names instead of the manifest, so segments that were created before the manifest was replaced,
+     * eg. by an interrupted roll, are deleted too. The manifest is deleted first, like #removeAfter, so the remaining
+     * files are never listed by a manifest.
+     *
+     * @param simFile tag-simulation.txt
+     * @throws IOException
+     */
+    public static void deleteDataFiles(File simFile) throws IOException {
+        File manifest = getManifestFile(simFile);
+        File directory = manifest.getParentFile();
+        String tag = manifest.getName().substring(0, manifest.getName().length() - SEGMENTS_TAIL.length());
+        Files.deleteIfExists(manifest.toPath());
+        Files.deleteIfExists(new File(directory, manifest.getName() + ".tmp").toPath());
+        Pattern numbered = Pattern.compile(Pattern.quote(tag) + "-(rods|interactions)-\\d+\\.dat");
+        File[] files = directory.listFiles();
+        if(files!=null){
+            for(File file: files){
+                if(numbered.matcher(file.getName()).matches()){
+                    Files.deleteIfExists(file.toPath());
+                }
+            }
+        }
+        Files.deleteIfExists(new File(directory, tag + SimulationReader.ROD_TAIL).toPath());
+        Files.deleteIfExists(new File(directory, tag + SimulationReader.INT_TAIL).toPath());
+    }
+
+    /**
+     * Prints the segments of a simulation.
+     *
+     * @param args tag-simulation.txt
+     */
+    public static void main(String[] args){
+        if(args.length<1){
+            System.out.println("usage: Segments tag-simulation.txt");
+            System.exit(0);
+        }
+        File manifest = getManifestFile(new File(args[0]));
+        if(!manifest.exists()){
+            System.out.println("the simulation is not segmented.");
+            return;
+        }
+        try{
+            List<String> lines = Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8);
+            lines.forEach(System.out::println);
+        } catch(IOException e){
+            System.err.println("could not read " + manifest);
+            e.printStackTrace();
+        }
+    }
+}
+
+/**
+ * The segments of one data file read and written as a single file. Positions are positions in the continuous file,
+ * reads are split at the segment boundaries, and writes and truncation go to the open segment. The size of a closed
+ * segment is only read once, and a read only channel checks the manifest for new segments when its size is requested,
+ * so a simulation that is still running can be followed across segments.
+ *
+ * Mapping is limited to a single segment, a region that continues past the end of a segment is mapped up to the end
+ * of the segment, since chunks never cross segments.
+ */
+class SegmentedChannel extends FileChannel{
+    final Segments segments;
+    final boolean rods;
+    final Set<OpenOption> options;
+    final boolean follow;
+    final List<FileChannel> channels = new ArrayList<>();
+    //sizes of the closed segments, -1 when not known.
+    final List<Long> sizes = new ArrayList<>();
+    private long position;
+
+    SegmentedChannel(Segments segments, boolean rods, OpenOption... options){
+        this.segments = segments;
+        this.rods = rods;
+        this.options = new HashSet<>(Arrays.asList(options));
+        follow = !this.options.contains(StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Opens the channel of a segment, the last segment with the options of this channel, the others read only.
+     */
+    private synchronized FileChannel channel(int i) throws IOException {
+        while(channels.size()<=i){
+            channels.add(null);
+            sizes.add(-1L);
+        }
+        FileChannel c = channels.get(i);
+        if(c==null){
+            if(i==segments.size() - 1){
+                c = FileChannel.open(segments.getFile(i, rods).toPath(), options);
+            } else{
+                c = FileChannel.open(segments.getFile(i, rods).toPath(), StandardOpenOption.READ);
+            }
+            channels.set(i, c);
+        }
+        return c;
+    }
+
+    /**
+     * @return the size of a segment file, cached once the segment is closed.
+     */
+    private synchronized long segmentSize(int i) throws IOException {
+        FileChannel c = channel(i);
+        if(!segments.get(i).closed){
+            return c.size();
+        }
+        long size = sizes.get(i);
+        if(size<0){
+            size = c.size();
+            sizes.set(i, size);
+        }
+        return size;
+    }
+
+    /**
+     * Closes the channels of segments that no longer exist, and reopens the last segment if it was opened when it was
+     * not the last.
+     */
+    private synchronized void forget(int count) throws IOException {
+        for(int i = count; i<channels.size(); i++){
+            if(channels.get(i)!=null){
+                channels.get(i).close();
+            }
+        }
+        while(channels.size()>count){
+            channels.remove(channels.size() - 1);
+            sizes.remove(sizes.size() - 1);
+        }
+        if(channels.size()==count && count>0){
+            FileChannel c = channels.get(count - 1);
+            if(c!=null){
+                c.close();
+                channels.set(count - 1, null);
+            }
+            sizes.set(count - 1, -1L);
+        }
+    }
+
+    @Override
+    public int read(ByteBuffer dst, long position) throws IOException {
+        int i = segments.find(position, rods);
+        long local = position - segments.get(i).getStart(rods);
+        long available = segmentSize(i) - local;
+        if(available<=0){
+            return -1;
+        }
+        if(!dst.hasRemaining()){
+            return 0;
+        }
+        int limit = dst.limit();
+        dst.limit(dst.position() + (int)Math.min(dst.remaining(), available));
+        try{
+            return channel(i).read(dst, local);
+        } finally{
+            dst.limit(limit);
+        }
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        int n = read(dst, position);
+        if(n>0){
+            position += n;
+        }
+        return n;
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        long total = 0;
+        for(int i = offset; i<offset + length; i++){
+            while(dsts[i].hasRemaining()){
+                int n = read(dsts[i]);
+                if(n<=0){
+                    return total==0 && n<0 ? -1 : total;
+                }
+                total += n;
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int last = segments.size() - 1;
+        int n = channel(last).write(src);
+        position = size();
+        return n;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        int last = segments.size() - 1;
+        long n = channel(last).write(srcs, offset, length);
+        position = size();
+        return n;
+    }
+
+    @Override
+    public int write(ByteBuffer src, long position) throws IOException {
+        int last = segments.size() - 1;
+        long start = segments.get(last).getStart(rods);
+        if(position<start){
+            throw new IOException("closed segments cannot be modified.");
+        }
+        return channel(last).write(src, position - start);
+    }
+
+    @Override
+    public long position(){
+        return position;
+    }
+
+    @Override
+    public FileChannel position(long newPosition){
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        if(follow && segments.reload()){
+            forget(Math.min(channels.size(), segments.size()));
+        }
+        int last = segments.size() - 1;
+        return segments.get(last).getStart(rods) + segmentSize(last);
+    }
+
+    /**
+     * Truncates the continuous file. When the new size is before the open segment, the segments after the one
+     * containing the new size are removed from the manifest and deleted, for both data files.
+     */
+    @Override
+    public FileChannel truncate(long size) throws IOException {
+        int i = segments.find(size, rods);
+        if(segments.removeAfter(i)){
+            forget(i + 1);
+        }
+        channel(i).truncate(size - segments.get(i).getStart(rods));
+        if(position>size){
+            position = size;
+        }
+        return this;
+    }
+
+    @Override
+    public void force(boolean metaData) throws IOException {
+        channel(segments.size() - 1).force(metaData);
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int)Math.min(count, 1<<16));
+        long transferred = 0;
+        while(transferred<count){
+            buffer.clear();
+            buffer.limit((int)Math.min(buffer.capacity(), count - transferred));
+            int n = read(buffer, position + transferred);
+            if(n<=0){
+                break;
+            }
+            buffer.flip();
+            while(buffer.hasRemaining()){
+                target.write(buffer);
+            }
+            transferred += n;
+        }
+        return transferred;
+    }
+
+    @Override
+    public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int)Math.min(count, 1<<16));
+        long transferred = 0;
+        while(transferred<count){
+            buffer.clear();
+            buffer.limit((int)Math.min(buffer.capacity(), count - transferred));
+            int n = src.read(buffer);
+            if(n<=0){
+                break;
+            }
+            buffer.flip();
+            while(buffer.hasRemaining()){
+                transferred += write(buffer, position + transferred);
+            }
+        }
+        return transferred;
+    }
+
+    @Override
+    public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+        int i = segments.find(position, rods);
+        long local = position - segments.get(i).getStart(rods);
+        long available = segmentSize(i) - local;
+        return channel(i).map(mode, local, Math.min(size, Math.max(0, available)));
+    }
+
+    @Override
+    public FileLock lock(long position, long size, boolean shared) throws IOException {
+        return channel(segments.size() - 1).lock(position, size, shared);
+    }
+
+    @Override
+    public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+        return channel(segments.size() - 1).tryLock(position, size, shared);
+    }
+
+    @Override
+    protected synchronized void implCloseChannel() throws IOException {
+        IOException failure = null;
+        for(FileChannel c: channels){
+            if(c==null){
+                continue;
+            }
+            try{
+                c.close();
+            } catch(IOException e){
+                failure = e;
+            }
+        }
+        channels.clear();
+        if(failure!=null){
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package org.paluchlab.agentcortex.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows a simulation that is still being written. The data files are polled, and when complete time points have
+ * been appended they are delivered to the listeners. A poll only checks the last known time point and the length of
+ * the files, and reads the chunk headers of the new time points, so following a simulation costs almost nothing while
+ * it is not writing.
+ *
+ * Time points are only decoded when there are listeners.
+ *
+ * Created on 10/19/26.
+ */
+public class SimulationFollower implements AutoCloseable {
+    /**
+     * Receives time points as they are written.
+     */
+    public interface Listener{
+        /**
+         * Called from the polling thread, for each new time point in order.
+         *
+         * @param index index of the time point in the reader.
+         * @param point the decoded time point, or null if it could not be decoded.
+         */
+        void frameAdded(int index, TimePoint point);
+
+        /**
+         * Called from the polling thread when time points have been removed, eg. the simulation was restarted from an
+         * earlier time point. The removed time points are delivered again once they are rewritten.
+         *
+         * @param count number of time points remaining.
+         */
+        default void framesRemoved(int count){}
+    }
+
+    final SimulationReader reader;
+    final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    ScheduledExecutorService service;
+    int delivered;
+
+    /**
+     * Follows the reader, time points the reader has already loaded are not delivered.
+     *
+     * @param reader reader with its data loaded.
+     */
+    public SimulationFollower(SimulationReader reader){
+        this.reader = reader;
+        delivered = reader.getPointCount();
+    }
+
+    public void addListener(Listener listener){
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener){
+        listeners.remove(listener);
+    }
+
+    /**
+     * Starts polling the data files on a background thread.
+     *
+     * @param interval time between polls in milliseconds.
+     */
+    public synchronized void start(long interval){
+        if(service!=null){
+            return;
+        }
+        service = Executors.newSingleThreadScheduledExecutor(r->{
+            Thread t = new Thread(r, "simulation-follower");
+            t.setDaemon(true);
+            return t;
+        });
+        service.scheduleWithFixedDelay(()->{
+            try{
+                poll();
+            } catch(IOException e){
+                e.printStackTrace();
+            }
+        }, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Checks the files for new time points and delivers them to the listeners.
+     *
+     * @return the number of new time points.
+     * @throws IOException
+     */
+    public synchronized int poll() throws IOException {
+        reader.refresh();
+        int count = reader.getPointCount();
+        if(count<delivered){
+            //the files were truncated, time points will be delivered again once they are rewritten.
+            delivered = count;
+            for(Listener listener: listeners){
+                listener.framesRemoved(count);
+            }
+            return 0;
+        }
+        int added = count - delivered;
+        for(int i = delivered; i<count; i++){
+            if(listeners.isEmpty()){
+                break;
+            }
+            TimePoint point = reader.getTimePoint(i);
+            for(Listener listener: listeners){
+                listener.frameAdded(i, point);
+            }
+        }
+        delivered = count;
+        return added;
+    }
+
+    /**
+     * Stops polling.
+     */
+    @Override
+    public synchronized void close(){
+        if(service!=null){
+            service.shutdown();
+            service = null;
+        }
+    }
+
+    /**
+     * Prints the time of each time point as it is written.
+     *
+     * @param args tag-simulation.txt [interval in milliseconds]
+     */
+    public static void main(String[] args) throws InterruptedException {
+        if(args.length<1){
+            System.out.println("usage: SimulationFollower tag-simulation.txt [interval ms]");
+            return;
+        }
+        SimulationReader reader = SimulationReader.fromSimulationFile(new File(args[0]));
+        if(reader==null){
+            return;
+        }
+        long interval = args.length>1 ? Long.parseLong(args[1]) : 1000;
+        System.out.println(reader.getPointCount() + " time points written.");
+        SimulationFollower follower = new SimulationFollower(reader);
+        follower.addListener((i, point)->System.out.println(
+                String.format("%d\t%f", i, point==null?Double.NaN:point.getTime())
+        ));
+        follower.start(interval);
+        Thread.currentThread().join();
+    }
+}
@@ -3,6 +3,7 @@ package org.paluchlab.agentcortex.io;
 import org.paluchlab.agentcortex.CortexModel;
 import org.paluchlab.agentcortex.ModelConstants;
 import org.paluchlab.agentcortex.agents.ActinFilament;
+import org.paluchlab.agentcortex.agents.Crosslinker;
 import org.paluchlab.agentcortex.agents.MyosinMotor;
 import org.paluchlab.agentcortex.agents.Rod;
 import org.paluchlab.agentcortex.interactions.CrosslinkedFilaments;
@@ -15,7 +16,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.lang.ref.SoftReference;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Field;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
@@ -23,6 +24,9 @@ import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.util.*;
 import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * For reading parameters and restoring simulation data.
@@ -30,26 +34,43 @@ import java.util.regex.Pattern;
  *
  * Created on 10/15/14.
  */
-public class SimulationReader implements Iterable<TimePoint>{
+public class SimulationReader implements Iterable<TimePoint>, AutoCloseable{
     public final static String lock_suffix = ".lock";
     final static int[] heads = {MyosinMotor.FRONT, MyosinMotor.BACK};
 
+    final static int DEFAULT_CACHE_FRAMES = 64;
+    final static int DEFAULT_PREFETCH = 4;
+
     double[] actin_lengths;
-    //List<TimePoint> points;
-    Map<TimePointKey, SoftReference<TimePoint>> points = new HashMap<>();
-    List<TimePointKey> keys = new ArrayList<>();
+    //decoded time points, bounded so iterating a simulation uses a fixed amount of memory.
+    final FrameCache cache = new FrameCache(DEFAULT_CACHE_FRAMES, Runtime.getRuntime().maxMemory()/4);
+    //time points found, built in place while loading. Afterwards refresh and truncateAfter replace the list instead of
+    //changing it, so other threads, eg. the event dispatch thread and prefetching, can keep reading the list they have.
+    volatile List<TimePointKey> keys = new ArrayList<>();
+    //kept open for decoding time points on request.
+    private FileChannel rodChannel, interactionChannel;
+    //file lengths at the last refresh.
+    long scannedRods = -1;
+    long scannedInteractions = -1;
     public CortexModel model;
     public ModelConstants constants;
     boolean loaded = false;
+    //version from the simulation file header, files without a header are the first version.
+    String version = LEGACY_VERSION;
+    StorageFormat format = StorageFormat.raw();
+    FrameDecoder decoder = new FrameDecoder(format);
 
     final File simulation;
     final File rods;
     final File interactions;
+    final File index;
     public String tag;
     private static final int BUFFER_SIZE=512;
     private final static Charset utf8 = Charset.forName("UTF8");
     private final static int EOL = "\n".getBytes(utf8).length;
 
+    final static String LEGACY_VERSION = "0.1";
+    final static String VERSION_HEADER = "#Cortex Dynamics Simulation version:";
     final static String INT_TAIL = "-interactions.dat";
     final static String ROD_TAIL = "-rods.dat";
 
@@ -64,6 +85,14 @@ public class SimulationReader implements Iterable<TimePoint>{
         this.simulation=simulation;
         this.rods = rods;
         this.interactions=interactions;
+        if(rods==null){
+            index = null;
+        } else if(rods.getName().endsWith(ROD_TAIL)){
+            String name = rods.getName();
+            index = new File(rods.getAbsoluteFile().getParentFile(), name.substring(0, name.length() - ROD_TAIL.length()) + FrameIndex.INDEX_TAIL);
+        } else{
+            index = new File(rods.getAbsoluteFile().getParentFile(), rods.getName() + FrameIndex.INDEX_TAIL);
+        }
     }
 
     /**
@@ -78,13 +107,50 @@ public class SimulationReader implements Iterable<TimePoint>{
 
     }
 
+    /**
+     * Gets only the requested sections of a time point. The chunks of the other sections are not read, or not
+     * decoded, and their agents are not created, eg. orientation only needs TimePoint#GEOMETRY. Partial time points
+     * are not cached, but a complete time point that is already cached is returned.
+     *
+     * @param i index of the time point.
+     * @param sections combination of TimePoint#ACTINS, #MOTORS, #BINDINGS and #CROSSLINKS, the sections they refer to
+     *                 are included, see TimePoint#withDependencies.
+     * @return the time point, or null if it could not be decoded.
+     */
+    public TimePoint getTimePoint(int i, int sections){
+        return loadTimePoint(keys.get(i), decoder, sections);
+    }
+
     /**
      *
      * @return the number of points that were loaded.
      *
      */
     public int getPointCount(){
-        return points.size();
+        return keys.size();
+    }
+
+    /**
+     * Finds the last time point at, or before, the provided time using a binary search of the time point times.
+     *
+     * @param time simulation time.
+     * @return index of the time point, or -1 if the time is before the first time point.
+     */
+    public int getPointIndex(double time){
+        List<TimePointKey> points = keys;
+        int low = 0;
+        int high = points.size() - 1;
+        int found = -1;
+        while(low<=high){
+            int mid = (low + high)>>>1;
+            if(points.get(mid).time<=time){
+                found = mid;
+                low = mid + 1;
+            } else{
+                high = mid - 1;
+            }
+        }
+        return found;
     }
 
     /**
@@ -96,7 +162,10 @@ public class SimulationReader implements Iterable<TimePoint>{
         try(BufferedReader r = Files.newBufferedReader(simulation.toPath(), Charset.forName("UTF8"))){
             String s;
             while((s=r.readLine())!=null){
-                if(s.charAt(0)=='#'||s.length()==0){
+                if(s.startsWith(VERSION_HEADER)){
+                    version = s.substring(VERSION_HEADER.length()).trim();
+                }
+                if(s.length()==0||s.charAt(0)=='#'){
                     continue;
                 }
                 lines.add(s.trim());
@@ -137,6 +206,18 @@ public class SimulationReader implements Iterable<TimePoint>{
 
         model = new CortexModel(constants);
         model.number_generator = new Random();
+
+        if(!version.equals(LEGACY_VERSION)){
+            if(Double.parseDouble(version)>Double.parseDouble(SimulationWriter.VERSION)){
+                System.err.println("warning: simulation version " + version + " is newer than this reader.");
+            }
+            try {
+                format = StorageFormat.fromLines(getTagSection(lines, StorageFormat.format_tag));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        decoder = new FrameDecoder(format);
     }
 
     /**
@@ -144,11 +225,15 @@ public class SimulationReader implements Iterable<TimePoint>{
      *
      * @param items original list of values
      * @param tag the tag to be looked for.
-     * @return all of the lines between the lines with the opening and closing tags.
+     * @return all of the lines between the lines with the opening and closing tags, or an empty list if the tag is
+     *         not present.
      */
-    static List<String> getTagSection(List<String> items, String tag){
+    public static List<String> getTagSection(List<String> items, String tag){
         int first = items.indexOf(String.format("<%s>",tag));
         int last = items.indexOf(String.format("</%s>", tag));
+        if(first<0||last<first){
+            return Collections.emptyList();
+        }
         return items.subList(first+1, last);
     }
 
@@ -187,11 +272,21 @@ public class SimulationReader implements Iterable<TimePoint>{
     }
 
     /**
-     * Loads the rod and interaction data from their respective files.
+     * Loads the rod and interaction data from their respective files. The segments of segmented data files are loaded
+     * concurrently.
      *
      * @return true on success.
      */
     public boolean loadRodsAndInteractions(){
+        try{
+            Segments segments = Segments.forDataFile(rods);
+            if(segments!=null){
+                return loadSegments(segments);
+            }
+        } catch(IOException e){
+            e.printStackTrace();
+            return false;
+        }
         boolean success = true;
         try(
             BinaryElementsFile rodElements = new BinaryElementsFile(rods.toPath());
@@ -224,26 +319,35 @@ public class SimulationReader implements Iterable<TimePoint>{
                     TimePoint tp = null;
                     try{
                         tp = loadTimePoint(rodData);
+                        key.time = tp.time;
+                        if(decoder.rods!=null){
+                            key.flags = QuantizedRods.isKeyframe(rodData)?FrameIndex.KEYFRAME:0;
+                            decoder.rods.next = key.rodPosition + key.rodLength + 4;
+                        }
                     } catch(Exception e){
                         System.err.println("failed to load rod line at: " + keys.size());
                         e.printStackTrace();
                         continue;
                     }
                     try {
+                        if(decoder.interactions!=null){
+                            if(InteractionDeltas.isKeyframe(interactionData)){
+                                key.flags |= FrameIndex.INTERACTION_KEYFRAME;
+                            }
+                            interactionData = decoder.interactions.decode(interactionData);
+                        } else{
+                            key.flags |= FrameIndex.INTERACTION_KEYFRAME;
+                        }
                         loadInteraction(tp, interactionData);
-                    } catch (FileFormatException e) {
-                        System.err.println("failed to load interaction line at: " + keys.size());
-                        e.printStackTrace();
-                        continue;
-                    } catch (IndexOutOfBoundsException e){
+                    } catch (FileFormatException | IOException e) {
                         System.err.println("failed to load interaction line at: " + keys.size());
                         e.printStackTrace();
                         continue;
                     }
 
                     keys.add(key);
-                    points.put(key, new SoftReference<>(tp));
                     tp.setModel(model);
+                    cache.put(key, tp);
 
 
 
@@ -259,6 +363,146 @@ public class SimulationReader implements Iterable<TimePoint>{
         return success;
     }
 
+    /**
+     * Decodes every time point of a segmented simulation. Every segment starts with a keyframe, so the segments are
+     * decoded in parallel, each with its own decoder, and the time points of a segment are decoded in order.
+     *
+     * @param segments manifest of the data files.
+     * @return true if every time point was decoded.
+     */
+    private boolean loadSegments(Segments segments){
+        if(!indexRodsAndInteractions()){
+            return false;
+        }
+        int count = segments.size();
+        int points = keys.size();
+        long failed = IntStream.range(0, count).parallel().mapToLong(s->{
+            int first = segments.get(s).firstFrame;
+            int end = s + 1<count ? Math.min(points, segments.get(s + 1).firstFrame) : points;
+            FrameDecoder segmentDecoder = createDecoder();
+            long broken = 0;
+            for(int i = first; i<end; i++){
+                if(loadTimePoint(keys.get(i), segmentDecoder)==null){
+                    System.err.println("failed to load time point: " + i);
+                    broken++;
+                }
+            }
+            return broken;
+        }).sum();
+        return failed==0;
+    }
+
+    /**
+     * Finds the time points in the rod and interaction files without reading or decoding any data, time points are
+     * decoded when they are requested. The index file is used when it matches the data files, and time points missing
+     * from the index are found by walking the chunk headers. Incomplete chunks at the end of either file, and chunks
+     * without a partner in the other file, are ignored. The index is rewritten when it is missing or does not match the
+     * time points found, eg. when time points were found past the end of the index.
+     *
+     * @return true on success.
+     */
+    public boolean indexRodsAndInteractions(){
+        try{
+            List<TimePointKey> found = FrameIndex.load(index, rods, interactions, format);
+            cache.clear();
+            keys = found;
+            if(found.size()>0 && !FrameIndex.matches(index, found)){
+                try{
+                    FrameIndex.write(index, found);
+                } catch(IOException e){
+                    System.err.println("could not write index: " + index);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        loaded = true;
+        return true;
+    }
+
+    /**
+     * Finds the last time point that can be decoded, starting from the end. Only that time point, and any broken time
+     * points after it, are read from the files.
+     *
+     * @return index of the last valid time point, or -1 if there are none.
+     */
+    public int getLastValidPoint(){
+        for(int i = keys.size()-1; i>=0; i--){
+            if(loadTimePoint(i)!=null){
+                return i;
+            }
+            System.err.println("time point " + i + " could not be loaded.");
+        }
+        return -1;
+    }
+
+    /**
+     * Removes everything after the provided time point from the rod and interaction files, including incomplete
+     * chunks, so that new time points can be appended.
+     *
+     * @param i index of the last time point to keep.
+     * @throws IOException
+     */
+    public synchronized void truncateAfter(int i) throws IOException {
+        List<TimePointKey> points = keys;
+        TimePointKey key = points.get(i);
+        Segments.truncate(rods, interactions, key.rodPosition + key.rodLength, key.interactionPosition + key.interactionLength);
+        for(TimePointKey removed: points.subList(i + 1, points.size())){
+            cache.remove(removed);
+        }
+        keys = new ArrayList<>(points.subList(0, i + 1));
+    }
+
+    /**
+     * Finds time points that have been appended to the data files since they were loaded, eg. while the simulation is
+     * still running. Only the chunk headers after the last known time point are read, and only complete pairs of
+     * chunks are added, a time point that is still being written is found by a later refresh.
+     *
+     * Every refresh first checks that the last known time point is still in the files, see FrameIndex#isCurrent. If
+     * the files have been truncated, and possibly rewritten, eg. by a restart, the time points that changed are
+     * removed and the files are scanned again by the next refresh.
+     *
+     * The time points are changed on a copy which then replaces the list, so a refresh can run on a polling thread
+     * while other threads read time points. A time point index read before a refresh that removed time points can be
+     * past the end of the new list, see #getPointCount.
+     *
+     * @return the number of time points added, negative if time points were removed.
+     * @throws IOException
+     */
+    public synchronized int refresh() throws IOException {
+        FileChannel[] channels = openChannels();
+        List<TimePointKey> points = keys;
+        int before = points.size();
+        if(before>0 && !FrameIndex.isCurrent(points.get(before - 1), channels[0], channels[1], format)){
+            int kept = before - 1;
+            while(kept>0 && !FrameIndex.isCurrent(points.get(kept - 1), channels[0], channels[1], format)){
+                kept--;
+            }
+            for(TimePointKey removed: points.subList(kept, before)){
+                cache.remove(removed);
+            }
+            keys = new ArrayList<>(points.subList(0, kept));
+            decoder.invalidate();
+            scannedRods = -1;
+            scannedInteractions = -1;
+            return kept - before;
+        }
+        long rodSize = Segments.length(rods);
+        long interactionSize = Segments.length(interactions);
+        if(rodSize==scannedRods && interactionSize==scannedInteractions){
+            return 0;
+        }
+        List<TimePointKey> updated = new ArrayList<>(points);
+        FrameIndex.scan(updated, channels[0], channels[1], format);
+        scannedRods = rodSize;
+        scannedInteractions = interactionSize;
+        if(updated.size()>before){
+            keys = updated;
+        }
+        return updated.size() - before;
+    }
+
     /**
      * Loads interaction data from the provided bytes.
      *
@@ -268,6 +512,18 @@ public class SimulationReader implements Iterable<TimePoint>{
      * @throws IOException
      */
     void loadInteraction(TimePoint tp, byte[] s) throws FileFormatException, IOException {
+        loadInteraction(tp, s, TimePoint.ALL);
+    }
+
+    /**
+     * Loads the requested interactions, the bindings of a chunk are skipped without creating them when only the
+     * crosslinks are requested.
+     *
+     * @param tp time point with the rods the interactions refer to.
+     * @param s serialized interactions, it can end after the bindings when crosslinks are not requested.
+     * @param sections TimePoint#BINDINGS and/or TimePoint#CROSSLINKS.
+     */
+    private void loadInteraction(TimePoint tp, byte[] s, int sections) throws FileFormatException, IOException {
         DataInput input = new DataInputStream(new ByteArrayInputStream(s));
         double t = input.readDouble();
         int count = input.readInt();
@@ -280,8 +536,13 @@ public class SimulationReader implements Iterable<TimePoint>{
             throw new FileFormatException("Time point does not match time for interactions.");
         }
 
+        if((sections&TimePoint.BINDINGS)==0){
+            input.skipBytes(SimulationWriter.BINDING_BYTES*count);
+            count = 0;
+        }
+
         for(int i = 0; i<count; i++){
-            MyosinMotor m = tp.motors.get(input.readInt());
+            MyosinMotor m = getAgent(tp.motors, input.readInt(), "motor");
             MyosinMotorBinding bind = new MyosinMotorBinding(model, m);
 
             for(int head: heads){
@@ -292,7 +553,7 @@ public class SimulationReader implements Iterable<TimePoint>{
                 double ftime = input.readDouble();
 
                 if(f_dex>=0){
-                    bind.bind(tp.filaments.get(f_dex),head, pos);
+                    bind.bind(getAgent(tp.filaments, f_dex, "filament"),head, pos);
                     bind.current_time[head] = ctime;
                     bind.unbind_time[head] = ftime;
                 }
@@ -300,19 +561,24 @@ public class SimulationReader implements Iterable<TimePoint>{
             tp.bindings.add(bind);
         }
 
+        if((sections&TimePoint.CROSSLINKS)==0){
+            return;
+        }
         int x_count = input.readInt();
         for(int i = 0; i<x_count; i++){
             int type = input.readInt();
             CrosslinkedFilaments xf = null;
             switch(type){
                 case CrosslinkedFilaments.NORMAL:
-                    ActinFilament a = tp.filaments.get(input.readInt());
+                    ActinFilament a = getAgent(tp.filaments, input.readInt(), "filament");
                     double as = input.readDouble();
-                    ActinFilament b = tp.filaments.get(input.readInt());
+                    ActinFilament b = getAgent(tp.filaments, input.readInt(), "filament");
                     double bs = input.readDouble();
                     t = input.readDouble();
                     double f = input.readDouble();
-                    xf = new CrosslinkedFilaments(model, a, b,model.createNewCrossLinker(), as, bs, f - t);
+                    Crosslinker link = model.createNewCrossLinker();
+                    link.id = tp.linkers.size();
+                    xf = new CrosslinkedFilaments(model, a, b, link, as, bs, f - t);
                     break;
                 default:
                     System.out.println("Bad crosslinked filament!");
@@ -325,6 +591,22 @@ public class SimulationReader implements Iterable<TimePoint>{
 
     }
 
+    /**
+     * Checks an index read from an interactions chunk before using it.
+     *
+     * @param agents agents of the time point.
+     * @param index index read from the chunk.
+     * @param name for the error message.
+     * @return the agent.
+     * @throws FileFormatException if the index is not in the list.
+     */
+    private static <T> T getAgent(List<T> agents, int index, String name) throws FileFormatException {
+        if(index<0 || index>=agents.size()){
+            throw new FileFormatException("invalid " + name + " index " + index + " of " + agents.size());
+        }
+        return agents.get(index);
+    }
+
     /**
      * Creates a new time point with rod data de-serialized from the chunk of data provided.
      *
@@ -333,15 +615,41 @@ public class SimulationReader implements Iterable<TimePoint>{
      * @return a new time point with rod data (positions and directions).
      */
     public TimePoint loadTimePoint(byte[] line) throws IOException {
+        if(format.isQuantized()){
+            return loadQuantizedTimePoint(line);
+        }
+        return loadTimePoint(line, TimePoint.ALL);
+    }
+
+    /**
+     * Creates a time point with the requested rods from an unquantized rods chunk.
+     *
+     * @param line serialized rod data, it can end after the actins when motors are not requested.
+     * @param sections TimePoint#ACTINS and/or TimePoint#MOTORS.
+     * @return a new time point with the requested rods.
+     */
+    private TimePoint loadTimePoint(byte[] line, int sections) throws IOException {
         DataInput input = new DataInputStream(new ByteArrayInputStream(line));
         int ms = constants.motors;
         int dex = 0;
         TimePoint p = new TimePoint(input.readDouble());
         int as = input.readInt();
         dex++;
+        if(as<0 || as>actin_lengths.length){
+            throw new IOException("rod chunk contains " + as + " filaments, the simulation has " + actin_lengths.length);
+        }
+
+        if((sections&TimePoint.ACTINS)==0){
+            input.skipBytes(SimulationWriter.ROD_BYTES*as);
+            as = 0;
+        }
+        if((sections&TimePoint.MOTORS)==0){
+            ms = 0;
+        }
 
         for(int i = 0; i<as; i++){
             ActinFilament f = model.createNewFilament();
+            f.id = i;
             f.length = actin_lengths[i];
             Rod.setPosition(f, new double[]{
                     input.readDouble(),
@@ -359,6 +667,7 @@ public class SimulationReader implements Iterable<TimePoint>{
         }
         for(int i = 0; i<ms; i++){
             MyosinMotor m = model.createNewMyosinMotor();
+            m.id = i;
             Rod.setPosition(m, new double[]{
                     input.readDouble(),
                     input.readDouble(),
@@ -377,15 +686,64 @@ public class SimulationReader implements Iterable<TimePoint>{
     }
 
     /**
-     * Loads the simulation data which prepares the constants and stores the actin length values. Then loads the rod
-     * and interaction data.
+     * Creates a new time point from a quantized rods chunk. Chunks that are not keyframes need to be loaded in order.
      *
-     * @return whether the rods and interactions were successfully loaded.
+     * @param line serialized rod data, see QuantizedRods.
+     * @return a new time point with rod data (positions and directions).
+     */
+    private TimePoint loadQuantizedTimePoint(byte[] line) throws IOException {
+        return loadQuantizedTimePoint(line, decoder.rods);
+    }
+
+    /**
+     * Creates a new time point from a quantized rods chunk, using the provided decoder.
+     *
+     * @param line serialized rod data, see QuantizedRods.
+     * @param decoder holds the previous frame, when the chunk is not a keyframe.
+     * @return a new time point with rod data (positions and directions).
+     */
+    private TimePoint loadQuantizedTimePoint(byte[] line, QuantizedRods.Decoder decoder) throws IOException {
+        return loadQuantizedTimePoint(line, decoder, TimePoint.ALL);
+    }
+
+    /**
+     * Decodes a quantized rods chunk, the whole chunk is always decoded since the next frame depends on it, but only
+     * the requested rods are created.
+     */
+    private TimePoint loadQuantizedTimePoint(byte[] line, QuantizedRods.Decoder decoder, int sections) throws IOException {
+        decoder.decode(line);
+        if(decoder.actins>actin_lengths.length){
+            throw new IOException("rod chunk contains " + decoder.actins + " filaments, the simulation has " + actin_lengths.length);
+        }
+        TimePoint p = new TimePoint(decoder.time);
+        int as = (sections&TimePoint.ACTINS)==0 ? 0 : decoder.actins;
+        int ms = (sections&TimePoint.MOTORS)==0 ? 0 : decoder.motors;
+        for(int i = 0; i<as; i++){
+            ActinFilament f = model.createNewFilament();
+            f.id = i;
+            f.length = actin_lengths[i];
+            decoder.setRod(i, f);
+            p.filaments.add(f);
+        }
+        for(int i = 0; i<ms; i++){
+            MyosinMotor m = model.createNewMyosinMotor();
+            m.id = i;
+            decoder.setRod(decoder.actins + i, m);
+            p.motors.add(m);
+        }
+        return p;
+    }
+
+    /**
+     * Loads the simulation data which prepares the constants and stores the actin length values. Then finds the rod
+     * and interaction data for each time point, which is decoded when the time point is requested.
+     *
+     * @return whether the rods and interactions were successfully found.
      */
     public boolean loadData(){
         boolean success;
         loadSimulation();
-        success = loadRodsAndInteractions();
+        success = indexRodsAndInteractions();
 
         loaded = true;
         return success;
@@ -400,10 +758,11 @@ public class SimulationReader implements Iterable<TimePoint>{
 
 
         List<double[]> measurements = new ArrayList<>();
-        for(TimePointKey key: keys){
-            TimePoint tp = loadTimePoint(key);
-            model.setTimePoint(tp);
-            model.measureTension(measurements);
+        try(PrefetchingIterator points = prefetch(DEFAULT_PREFETCH)){
+            while(points.hasNext()){
+                model.setTimePoint(points.next(), false);
+                model.measureTension(measurements);
+            }
         }
 
 
@@ -427,6 +786,76 @@ public class SimulationReader implements Iterable<TimePoint>{
         };
     }
 
+    /**
+     * Iterates over the time points, decoding the following time points on background threads.
+     *
+     * @param lookAhead number of time points decoded in advance.
+     * @return an iterator that should be closed if it is not used until the end.
+     */
+    public PrefetchingIterator prefetch(int lookAhead){
+        return new PrefetchingIterator(this, 0, lookAhead, TimePoint.ALL);
+    }
+
+    /**
+     * Iterates over the requested sections of the time points, see #getTimePoint(int, int).
+     *
+     * @param lookAhead number of time points decoded in advance.
+     * @param sections requested sections.
+     * @return an iterator that should be closed if it is not used until the end.
+     */
+    public PrefetchingIterator prefetch(int lookAhead, int sections){
+        return new PrefetchingIterator(this, 0, lookAhead, sections);
+    }
+
+    /**
+     * A sequential stream of the time points in order, the following time points are decoded in the background.
+     *
+     * @return a stream that should be closed if it is not used until the end.
+     */
+    public Stream<TimePoint> stream(){
+        PrefetchingIterator iterator = prefetch(DEFAULT_PREFETCH);
+        Spliterator<TimePoint> split = Spliterators.spliterator(
+                iterator,
+                iterator.last,
+                Spliterator.ORDERED | Spliterator.IMMUTABLE
+        );
+        return StreamSupport.stream(split, false).onClose(iterator::close);
+    }
+
+    /**
+     * A parallel stream of the time points, for analysis that does not depend on the order the time points are
+     * processed in. Consecutive time points are decoded by the same thread.
+     *
+     * @return a parallel stream.
+     */
+    public Stream<TimePoint> parallelStream(){
+        return parallelStream(TimePoint.ALL);
+    }
+
+    /**
+     * A parallel stream of the requested sections of the time points, see #getTimePoint(int, int).
+     *
+     * @param sections requested sections.
+     * @return a parallel stream.
+     */
+    public Stream<TimePoint> parallelStream(int sections){
+        return parallelStream(sections, true);
+    }
+
+    /**
+     * A parallel stream of the requested sections of the time points. Time points that are not cached are decoded
+     * every time, and are never shared with other users of this reader, so their agents can be changed, eg. set to
+     * a different model with TimePoint#setModel.
+     *
+     * @param sections requested sections.
+     * @param cached false to decode every time point instead of using the cache.
+     * @return a parallel stream.
+     */
+    public Stream<TimePoint> parallelStream(int sections, boolean cached){
+        List<TimePointKey> points = keys;
+        return StreamSupport.stream(new FrameSpliterator(this, points, 0, points.size(), sections, cached), true);
+    }
+
     /**
      * Loads a simulation assuming the interactions, rods and simulation files are named according to the lock file.
      *
@@ -464,6 +893,18 @@ public class SimulationReader implements Iterable<TimePoint>{
      * @return
      */
     public static SimulationReader fromSimulationFile(File simFile){
+        return fromSimulationFile(simFile, true);
+    }
+
+    /**
+     * Creates a reader assuming the interactions, rods and simulation files are named accordingly.
+     *
+     * @param simFile
+     * @param loadData when false, only the simulation file (constants and actin lengths) is loaded and the rod and
+     *                 interaction data are not read.
+     * @return
+     */
+    public static SimulationReader fromSimulationFile(File simFile, boolean loadData){
         int last = simFile.getName().indexOf("-simulation.txt");
         String tag = simFile.getName().substring(0, last);
         File d = simFile.getParentFile();
@@ -476,7 +917,11 @@ public class SimulationReader implements Iterable<TimePoint>{
         }
         try {
             SimulationReader simmer = new SimulationReader(simFile, rods, interactions);
-            simmer.loadData();
+            if(loadData){
+                simmer.loadData();
+            } else{
+                simmer.loadSimulation();
+            }
             simmer.setTag(tag);
             return simmer;
 
@@ -571,21 +1016,61 @@ public class SimulationReader implements Iterable<TimePoint>{
     }
 
     /**
+     * Sets the model used by the interactions of the time points. Only the cached time points are updated, time points
+     * decoded later use the new model.
      *
      * @param model
      */
-    public void setModel(CortexModel model) {
+    public synchronized void setModel(CortexModel model) {
         this.model = model;
-        for(int i = 0; i<getPointCount(); i++){
-            TimePoint point = getTimePoint(i);
-            for(MyosinMotorBinding binding: point.getBindings()){
-                binding.setModel(model);
+        for(TimePoint point: cache.values()){
+            point.setModel(model);
+        }
+    }
+
+    /**
+     * Limits the number of decoded time points that are kept. The least recently used time points are removed first.
+     *
+     * @param frames maximum number of time points.
+     * @param bytes maximum estimated size of the time points.
+     */
+    public synchronized void setCacheLimits(int frames, long bytes){
+        cache.setLimits(frames, bytes);
+    }
+
+    /**
+     *
+     * @return number of time points requested that were already decoded.
+     */
+    public long getCacheHits(){
+        return cache.hits;
+    }
+
+    /**
+     *
+     * @return number of time points requested that had to be decoded.
+     */
+    public long getCacheMisses(){
+        return cache.misses;
+    }
+
+    /**
+     * Closes the data files, they are opened again if another time point is requested.
+     */
+    @Override
+    public synchronized void close(){
+        try{
+            if(rodChannel!=null){
+                rodChannel.close();
             }
-            for(CrosslinkedFilaments x: point.getLinkers()){
-                x.setModel(model);
+            if(interactionChannel!=null){
+                interactionChannel.close();
             }
-
+        } catch(IOException e){
+            e.printStackTrace();
         }
+        rodChannel = null;
+        interactionChannel = null;
     }
 
     /**
@@ -595,10 +1080,11 @@ public class SimulationReader implements Iterable<TimePoint>{
      */
     public List<double[]> generateOrderMeasurements() {
         List<double[]> l = new ArrayList<>();
-        for(TimePointKey key: keys){
-            TimePoint p = loadTimePoint(key);
-            model.setTimePoint(p);
-            model.measureOrientation(l);
+        try(PrefetchingIterator points = prefetch(DEFAULT_PREFETCH, TimePoint.GEOMETRY)){
+            while(points.hasNext()){
+                model.setTimePoint(points.next(), false);
+                model.measureOrientation(l);
+            }
         }
         return l;
     }
@@ -610,14 +1096,31 @@ public class SimulationReader implements Iterable<TimePoint>{
      */
     public List<double[]> generateAverageFilamentPositions() {
         List<double[]> positions = new ArrayList<double[]>();
-        for(TimePointKey key: keys){
-            TimePoint p = loadTimePoint(key);
-            model.setTimePoint(p);
-            positions.add(model.measureAverageActinPositions());
+        try(PrefetchingIterator points = prefetch(DEFAULT_PREFETCH, TimePoint.ACTINS | TimePoint.CROSSLINKS)){
+            while(points.hasNext()){
+                model.setTimePoint(points.next(), false);
+                positions.add(model.measureAverageActinPositions());
+            }
         }
         return positions;
     }
 
+    /**
+     * Goes through all timepoints and measures the thickness, only the actin filaments are read.
+     *
+     * @return List of the data returned from CortexModel#measureThickness
+     */
+    public List<double[]> generateThicknessMeasurements() {
+        List<double[]> thickness = new ArrayList<>();
+        try(PrefetchingIterator points = prefetch(DEFAULT_PREFETCH, TimePoint.ACTINS)){
+            while(points.hasNext()){
+                model.setTimePoint(points.next(), false);
+                thickness.add(model.measureThickness());
+            }
+        }
+        return thickness;
+    }
+
     /**
      * Gets the total number of bound myosin heads for the required time point.
      *
@@ -631,6 +1134,30 @@ public class SimulationReader implements Iterable<TimePoint>{
 
     }
 
+    /**
+     *
+     * @return file containing the rod positions and directions.
+     */
+    public File getRodsFile(){
+        return rods;
+    }
+
+    /**
+     *
+     * @return file containing the motor bindings and crosslinks.
+     */
+    public File getInteractionsFile(){
+        return interactions;
+    }
+
+    /**
+     *
+     * @return how the rods are stored, from the format section of the simulation file.
+     */
+    public StorageFormat getFormat(){
+        return format;
+    }
+
     /**
      * sets the which is used for deciding the the file-names and referencing data.
      * @param t the new tag
@@ -654,74 +1181,251 @@ public class SimulationReader implements Iterable<TimePoint>{
         return loadTimePoint(key);
     }
 
+    private TimePoint loadTimePoint(TimePointKey key){
+        return loadTimePoint(key, decoder);
+    }
+
     /**
-     * Retrieves a time point. Timepoints are stored in a map with soft references because a simulation data can take
-     * a lot of space. If too much memory is needed, timepoints will be reloaded from the file.
+     * Retrieves a time point, from the cache or by decoding it from the data files. Time points can be decoded by
+     * multiple threads, as long as each thread uses its own decoder.
      *
      * @param key
-     * @return
+     * @param decoder for the chunks stored as differences, see #createDecoder.
+     * @return the time point, or null if it could not be decoded.
      */
-    private TimePoint loadTimePoint(TimePointKey key){
-        SoftReference<TimePoint> pointRef = points.get(key);
-        TimePoint point = pointRef.get();
+    TimePoint loadTimePoint(TimePointKey key, FrameDecoder decoder){
+        TimePoint point = getCached(key);
         if(point==null){
-            point = restoreTimePoint(key);
-            point.setModel(model);
+            point = restoreTimePoint(key, decoder);
+            if(point!=null){
+                putCached(key, point);
+            }
+        }
+        return point;
+    }
+
+    /**
+     * Retrieves the requested sections of a time point, see #getTimePoint(int, int).
+     *
+     * @param key
+     * @param decoder for the chunks stored as differences.
+     * @param sections requested sections.
+     * @return the time point, or null if it could not be decoded.
+     */
+    TimePoint loadTimePoint(TimePointKey key, FrameDecoder decoder, int sections){
+        sections = TimePoint.withDependencies(sections);
+        if(sections==TimePoint.ALL){
+            return loadTimePoint(key, decoder);
+        }
+        TimePoint point = getCached(key);
+        if(point==null){
+            point = restoreTimePoint(key, decoder, sections);
         }
         return point;
     }
 
     /**
-     * Restore a time point from an already read file. This occurs when a simulation is taking too much memory.
+     * Decodes the requested sections of a time point without using the cache.
      *
-     * @param key indicates file positions and chunch sizes for reloading data.
+     * @param key
+     * @param decoder for the chunks stored as differences.
+     * @param sections requested sections.
+     * @return a new time point, or null if it could not be decoded.
+     */
+    TimePoint decodeTimePoint(TimePointKey key, FrameDecoder decoder, int sections){
+        return restoreTimePoint(key, decoder, TimePoint.withDependencies(sections));
+    }
+
+    private synchronized TimePoint getCached(TimePointKey key){
+        return cache.get(key);
+    }
+
+    private synchronized void putCached(TimePointKey key, TimePoint point){
+        point.setModel(model);
+        cache.put(key, point);
+    }
+
+    /**
      *
-     * @return the restored time point.
+     * @return a new decoder for reading time points independently of the other readers.
      */
-    private TimePoint restoreTimePoint(TimePointKey key){
-        System.out.println("restoring time point: " + key.point);
+    FrameDecoder createDecoder(){
+        return new FrameDecoder(format);
+    }
 
-        ByteBuffer rodBytes = ByteBuffer.wrap(new byte[key.rodLength]);
-        try(FileChannel rodChannel = FileChannel.open(rods.toPath())){
-            int sum = 0;
-            rodChannel.position(key.rodPosition);
-            while(sum<key.rodLength){
-                sum += rodChannel.read(rodBytes);
+    /**
+     * Opens the data files if they are not open.
+     *
+     * @return {rods, interactions}
+     */
+    private synchronized FileChannel[] openChannels() throws IOException {
+        if(rodChannel==null){
+            rodChannel = Segments.open(rods);
+            interactionChannel = Segments.open(interactions);
+        }
+        return new FileChannel[]{rodChannel, interactionChannel};
+    }
+
+    /**
+     * Decodes a time point from the data files.
+     *
+     * @param key indicates file positions and chunk sizes of the time point.
+     * @param decoder for quantized rods.
+     *
+     * @return the decoded time point, or null if it could not be decoded.
+     */
+    private TimePoint restoreTimePoint(TimePointKey key, FrameDecoder decoder){
+        return restoreTimePoint(key, decoder, TimePoint.ALL);
+    }
+
+    /**
+     * Decodes the requested sections of a time point from the data files.
+     *
+     * @param key indicates file positions and chunk sizes of the time point.
+     * @param decoder for quantized rods.
+     * @param sections requested sections, including the sections they refer to.
+     * @return the decoded time point, or null if it could not be decoded.
+     */
+    private TimePoint restoreTimePoint(TimePointKey key, FrameDecoder decoder, int sections){
+        try{
+            FileChannel[] channels = openChannels();
+            if(decoder.isSequential()){
+                synchronized(decoder){
+                    return restoreTimePoint(channels, key, decoder, sections);
+                }
             }
-        } catch (IOException e) {
+            return restoreTimePoint(channels, key, decoder, sections);
+        } catch (IOException | FileFormatException e) {
             e.printStackTrace();
-            return null;
         }
+        return null;
+    }
 
-        ByteBuffer iaBytes = ByteBuffer.wrap(new byte[key.interactionLength]);
+    /**
+     * Reads the chunks of the requested sections. A chunk that is not needed is not read, the decoder for it is left
+     * on the frame it last decoded, so the next frame it decodes starts from the previous keyframe. Unquantized rods
+     * and complete interaction chunks are only read up to the last requested section.
+     */
+    private TimePoint restoreTimePoint(FileChannel[] channels, TimePointKey key, FrameDecoder decoder, int sections) throws IOException, FileFormatException {
+        TimePoint tp;
+        if((sections&TimePoint.GEOMETRY)==0){
+            tp = new TimePoint(key.time);
+        } else if(decoder.rods!=null){
+            byte[] rodBytes = readChunk(channels[0], key.rodPosition, key.rodLength);
+            if(!QuantizedRods.isKeyframe(rodBytes) && !decoder.rods.follows(key.rodPosition)){
+                decodePreviousFrames(channels[0], key, decoder.rods);
+            }
+            tp = loadQuantizedTimePoint(rodBytes, decoder.rods, sections);
+            decoder.rods.next = key.rodPosition + key.rodLength + 4;
+        } else{
+            int length = key.rodLength;
+            if((sections&TimePoint.MOTORS)==0){
+                length = Math.min(length, 12 + SimulationWriter.ROD_BYTES*actin_lengths.length);
+            }
+            tp = loadTimePoint(readChunk(channels[0], key.rodPosition, length), sections);
+        }
+        tp.sections = sections;
+        tp.index = key.point;
+        if((sections&(TimePoint.BINDINGS | TimePoint.CROSSLINKS))==0){
+            return tp;
+        }
 
-        try(FileChannel iaChannel = FileChannel.open(interactions.toPath())){
+        byte[] iaBytes;
+        if(decoder.interactions!=null){
+            iaBytes = readChunk(channels[1], key.interactionPosition, key.interactionLength);
+            if(!InteractionDeltas.isKeyframe(iaBytes) && !decoder.interactions.follows(key.interactionPosition)){
+                decodePreviousInteractions(channels[1], key, decoder.interactions);
+            }
+            iaBytes = decoder.interactions.decode(iaBytes);
+            decoder.interactions.next = key.interactionPosition + key.interactionLength + 4;
+        } else{
+            int length = key.interactionLength;
+            if((sections&TimePoint.CROSSLINKS)==0){
+                length = Math.min(length, 12 + SimulationWriter.BINDING_BYTES*constants.motors);
+            }
+            iaBytes = readChunk(channels[1], key.interactionPosition, length);
+        }
+        loadInteraction(tp, iaBytes, sections);
+        return tp;
+    }
 
-            iaChannel.position(key.interactionPosition);
-            int sum = 0;
-            int calls = 0;
-            while(sum<key.interactionLength) {
-                sum += iaChannel.read(iaBytes);
+    /**
+     * Reads a chunk of data from the provided position.
+     *
+     * @param channel open file.
+     * @param position start of the data, after the size.
+     * @param length size of the data.
+     * @return the chunk.
+     * @throws IOException if the file ends before the chunk.
+     */
+    static byte[] readChunk(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(new byte[length]);
+        while(bytes.hasRemaining()){
+            if(channel.read(bytes, position + bytes.position())<0){
+                throw new IOException("file ended before the end of the chunk.");
             }
+        }
+        return bytes.array();
+    }
 
-        } catch (IOException e) {
-            e.printStackTrace();
-            return null;
+    /**
+     * Gets the time points that the provided time point follows.
+     *
+     * @param key time point that will be decoded.
+     * @return the current time points.
+     * @throws IOException if the time point has been removed by a refresh.
+     */
+    private List<TimePointKey> previousPoints(TimePointKey key) throws IOException {
+        List<TimePointKey> points = keys;
+        if(key.point>=points.size() || points.get(key.point)!=key){
+            throw new IOException("time point " + key.point + " has been removed from the simulation.");
         }
+        return points;
+    }
 
-        try{
-            TimePoint tp = loadTimePoint(rodBytes.array());
-            loadInteraction(tp, iaBytes.array());
-            points.put(key, new SoftReference<>(tp));
-            return tp;
-        } catch (IOException | FileFormatException e) {
-            e.printStackTrace();
+    /**
+     * Quantized rods are stored as differences, this finds the closest keyframe before the provided time point and
+     * decodes the rods from there up to the time point before it.
+     *
+     * @param rodChannel open rods file.
+     * @param key time point that will be decoded next.
+     * @param decoder receives the previous time points.
+     * @throws IOException
+     */
+    private void decodePreviousFrames(FileChannel rodChannel, TimePointKey key, QuantizedRods.Decoder decoder) throws IOException {
+        List<TimePointKey> points = previousPoints(key);
+        int start = key.point - 1;
+        while(start>0 && (points.get(start).flags&FrameIndex.KEYFRAME)==0){
+            start--;
+        }
+        for(int i = start; i<key.point; i++){
+            TimePointKey k = points.get(i);
+            decoder.decode(readChunk(rodChannel, k.rodPosition, k.rodLength));
         }
-        return null;
     }
 
-}
+    /**
+     * Finds the closest interactions keyframe before the provided time point and decodes the interactions from there
+     * up to the time point before it.
+     *
+     * @param interactionChannel open interactions file.
+     * @param key time point that will be decoded next.
+     * @param decoder receives the previous time points.
+     * @throws IOException
+     */
+    private void decodePreviousInteractions(FileChannel interactionChannel, TimePointKey key, InteractionDeltas.Decoder decoder) throws IOException {
+        List<TimePointKey> points = previousPoints(key);
+        int start = key.point - 1;
+        while(start>0 && (points.get(start).flags&FrameIndex.INTERACTION_KEYFRAME)==0){
+            start--;
+        }
+        for(int i = start; i<key.point; i++){
+            TimePointKey k = points.get(i);
+            decoder.decode(readChunk(interactionChannel, k.interactionPosition, k.interactionLength));
+        }
+    }
 
+}
 
 class FieldFormatException extends Exception{
     FieldFormatException(String message){
@@ -736,23 +1440,81 @@ class FileFormatException extends Exception{
 }
 
 /**
- * For storing timepoints in a map, and recovering them if they have been removed due to memory pressure.
- *
+ * Decoded time points, least recently used first. The cache is bounded by the number of time points, and by an
+ * estimate of the memory used by their agents.
  */
-class TimePointKey{
+class FrameCache{
+    //rough size of a decoded rod, and of a binding or crosslink, including the arrays they hold.
+    final static long ROD_BYTES = 512;
+    final static long INTERACTION_BYTES = 256;
+
+    final LinkedHashMap<TimePointKey, TimePoint> frames = new LinkedHashMap<>(16, 0.75f, true);
+    int maxFrames;
+    long maxBytes;
+    long bytes;
+    volatile long hits, misses;
+
+    FrameCache(int maxFrames, long maxBytes){
+        this.maxFrames = maxFrames;
+        this.maxBytes = maxBytes;
+    }
 
-    int point;
-    long rodPosition, interactionPosition;
-    int rodLength, interactionLength;
-    public TimePointKey(int point, long rPosition, int rLength){
-        rodPosition = rPosition;
-        rodLength = rLength;
-        this.point = point;
+    TimePoint get(TimePointKey key){
+        TimePoint point = frames.get(key);
+        if(point==null){
+            misses++;
+        } else{
+            hits++;
+        }
+        return point;
+    }
+
+    void put(TimePointKey key, TimePoint point){
+        TimePoint old = frames.put(key, point);
+        if(old!=null){
+            bytes -= estimate(old);
+        }
+        bytes += estimate(point);
+        trim();
+    }
+
+    void remove(TimePointKey key){
+        TimePoint old = frames.remove(key);
+        if(old!=null){
+            bytes -= estimate(old);
+        }
+    }
+
+    void clear(){
+        frames.clear();
+        bytes = 0;
+    }
+
+    void setLimits(int maxFrames, long maxBytes){
+        this.maxFrames = maxFrames;
+        this.maxBytes = maxBytes;
+        trim();
+    }
+
+    Collection<TimePoint> values(){
+        return frames.values();
     }
 
-    public void setInteractionPositions(long iPosition, int iLength){
-        interactionPosition = iPosition;
-        interactionLength = iLength;
+    /**
+     * Removes the least recently used time points until the cache is within its limits, the most recent time point
+     * is always kept.
+     */
+    void trim(){
+        Iterator<Map.Entry<TimePointKey, TimePoint>> iter = frames.entrySet().iterator();
+        while(frames.size()>1 && (frames.size()>maxFrames || bytes>maxBytes)){
+            Map.Entry<TimePointKey, TimePoint> eldest = iter.next();
+            bytes -= estimate(eldest.getValue());
+            iter.remove();
+        }
     }
 
-}
\ No newline at end of file
+    static long estimate(TimePoint point){
+        return ROD_BYTES*(point.filaments.size() + point.motors.size())
+                + INTERACTION_BYTES*(point.bindings.size() + point.linkers.size());
+    }
+}
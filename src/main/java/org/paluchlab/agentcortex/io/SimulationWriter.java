@@ -4,23 +4,37 @@ import org.paluchlab.agentcortex.CortexModel;
 import org.paluchlab.agentcortex.ModelConstants;
 import org.paluchlab.agentcortex.agents.ActinFilament;
 import org.paluchlab.agentcortex.agents.MyosinMotor;
+import org.paluchlab.agentcortex.agents.Rod;
 import org.paluchlab.agentcortex.interactions.CrosslinkedFilaments;
 import org.paluchlab.agentcortex.interactions.MyosinMotorBinding;
 
 import java.io.*;
 import java.lang.reflect.Field;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.time.Instant;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 /**
  * The goal of this class is the write enough information to recreate the simulation at any given time step.
  *
+ * Time steps are serialized on the simulation thread into reusable frame buffers, and written to the data files by a
+ * separate output thread. When all of the frame buffers are waiting to be written the simulation blocks until one is
+ * free. The data files are forced to disk every SYNC_INTERVAL frames, or only when closing if it is 0. Closing the
+ * writer writes every frame that was handed to it, so both files end on the same time step.
+ *
+ * When the format has checksums, the output thread seals each chunk with the index of its time point and a CRC32
+ * before writing it, and the index record written after both chunks commits the time point, see FrameIndex.
+ *
+ * When the format has segments, the simulation thread decides which time point starts a new segment, so it can be
+ * encoded as a keyframe, and the output thread closes the current segment before writing it, see Segments.
+ *
  * Created on 10/13/14.
  */
 public class SimulationWriter {
@@ -30,14 +44,45 @@ public class SimulationWriter {
     final File rods;
     //interactions keeps track of crosslinker binding, and myosin motor bindings.
     final File interactions;
-    final static String VERSION="0.1";
+    final static String VERSION="0.5";
     final File directory;
     final static String parameter_tag = "parameters";
     final static String actin_tag = "actin";
     final static String myosin_tag = "myosin";
+    //serialized sizes of one rod, one motor binding and one crosslink.
+    final static int ROD_BYTES = 48;
+    final static int BINDING_BYTES = 60;
+    final static int CROSSLINK_BYTES = 44;
     final private Object writeLock = new Object();
     private boolean stopped = false;
-    private byte[] rodData, interactionData;
+    final File checkpoint;
+    //offsets of each time step in the data files.
+    final File index;
+    //how rods are encoded, decided when the simulation file is written or when the first time step is written.
+    private StorageFormat format;
+    private QuantizedRods.Encoder encoder;
+    private InteractionDeltas.Encoder interactionEncoder;
+    //segments of the data files, null when they are not segmented.
+    private Segments segments;
+    private int segmentFrames;
+    private long segmentBytes;
+    //time of the last time point written, by the output thread.
+    private double lastTime = Double.NaN;
+    //optional samples recorded between time steps.
+    final File metrics;
+    private MetricsWriter metricsWriter;
+    //length of the data files after the last complete time step.
+    private long rodsLength, interactionsLength;
+
+    //frames are taken from free, filled and put in pending for the output thread.
+    private BlockingQueue<Frame> free, pending;
+    final private static Frame END = new Frame();
+    private Thread output;
+    private FileChannel rodChannel, interactionChannel, indexChannel;
+    private int frameCount, existingFrames;
+    private int syncInterval;
+    private long queued, written;
+    private boolean failed = false;
 
     /**
      * Creates a new simulation, using the timestamp + retry to create a unique tag.
@@ -56,7 +101,9 @@ public class SimulationWriter {
         simulation = new File(directory, tag + "-simulation.txt");
         rods = new File(directory, tag + SimulationReader.ROD_TAIL);
         interactions = new File(directory, tag + SimulationReader.INT_TAIL);
-
+        checkpoint = new File(directory, tag + Checkpoint.CHECKPOINT_TAIL);
+        index = new File(directory, tag + FrameIndex.INDEX_TAIL);
+        metrics = new File(directory, tag + MetricsFile.METRICS_TAIL);
     }
 
     /**
@@ -74,6 +121,16 @@ public class SimulationWriter {
         simulation = new File(directory, tag + "-simulation.txt");
         rods = new File(directory, tag + SimulationReader.ROD_TAIL);
         interactions = new File(directory, tag + SimulationReader.INT_TAIL);
+        checkpoint = new File(directory, tag + Checkpoint.CHECKPOINT_TAIL);
+        index = new File(directory, tag + FrameIndex.INDEX_TAIL);
+        metrics = new File(directory, tag + MetricsFile.METRICS_TAIL);
+        try{
+            rodsLength = Segments.length(rods);
+            interactionsLength = Segments.length(interactions);
+        } catch(IOException e){
+            System.out.println("could not read the segments of the data files.");
+            e.printStackTrace();
+        }
     }
 
     /**
@@ -121,6 +178,10 @@ public class SimulationWriter {
             wb.write("#Cortex Dynamics Simulation version: ");
             wb.write(VERSION);
             wb.write("\n");
+            if(format==null){
+                format = StorageFormat.fromConstants(constants);
+            }
+            format.write(wb);
             wb.write(String.format("<%s>\n", parameter_tag));
             wb.write("#Constant\tValue\n");
             Field[] fields =  ModelConstants.class.getDeclaredFields();
@@ -153,198 +214,577 @@ public class SimulationWriter {
     }
 
     /**
-     * Serializes the rod data into a byte array to be written later.
+     * Sets the rod encoding, this needs to be set before writing to an existing simulation, so the new time steps are
+     * encoded the same way as the existing time steps. For a new simulation the format is created from the constants.
+     *
+     * @param format format of the simulation being continued.
+     */
+    public void setFormat(StorageFormat format){
+        this.format = format;
+    }
+
+    /**
+     * Serializes the rod data into a frame buffer to be written later.
      *
      * @param model
+     * @param data buffer that will be overwritten with the rod chunk.
      */
-    private void prepareRods(CortexModel model){
+    private void prepareRods(CortexModel model, ChunkBuffer data){
+        List<ActinFilament> actins = model.getActin();
+        List<MyosinMotor> motors = model.getMyosins();
+        ByteBuffer rodBuffer = data.begin(12 + ROD_BYTES*(actins.size() + motors.size()));
 
-        ByteArrayOutputStream data = new ByteArrayOutputStream();
-        try(DataOutputStream rodStream = new DataOutputStream(data)){
-            //save 4 bytes for the chunk-size.
-            rodStream.writeInt(-1);
-            rodStream.writeDouble(model.time);
-            List<ActinFilament> actins = model.getActin();
-            rodStream.writeInt(actins.size());
-            for(ActinFilament rod: actins){
-                double[] p = rod.position;
-                double[] d = rod.direction;
-                rodStream.writeDouble(p[0]);
-                rodStream.writeDouble(p[1]);
-                rodStream.writeDouble(p[2]);
-
-                rodStream.writeDouble(d[0]);
-                rodStream.writeDouble(d[1]);
-                rodStream.writeDouble(d[2]);
+        rodBuffer.putDouble(model.time);
+        rodBuffer.putInt(actins.size());
+        for(ActinFilament rod: actins){
+            putRod(rodBuffer, rod);
+        }
+        for(MyosinMotor rod: motors){
+            putRod(rodBuffer, rod);
+        }
 
-            }
-            List<MyosinMotor> motors = model.getMyosins();
-            for(MyosinMotor rod: motors){
-                double[] p = rod.position;
-                double[] d = rod.direction;
-                rodStream.writeDouble(p[0]);
-                rodStream.writeDouble(p[1]);
-                rodStream.writeDouble(p[2]);
-
-                rodStream.writeDouble(d[0]);
-                rodStream.writeDouble(d[1]);
-                rodStream.writeDouble(d[2]);
-            }
+        data.finish();
+    }
 
+    static void putRod(ByteBuffer buffer, Rod rod){
+        double[] p = rod.position;
+        double[] d = rod.direction;
+        buffer.putDouble(p[0]);
+        buffer.putDouble(p[1]);
+        buffer.putDouble(p[2]);
 
-            rodData = data.toByteArray();
-            int v = rodData.length - 4;
-            rodData[0] = (byte)(0xff & (v >> 24));
-            rodData[1] = (byte)(0xff & (v >> 16));
-            rodData[2] = (byte)(0xff & (v >>    8));
-            rodData[3] = (byte)(0xff & v);
+        buffer.putDouble(d[0]);
+        buffer.putDouble(d[1]);
+        buffer.putDouble(d[2]);
+    }
 
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Serializes both the rod and interactions for a time step, and hands them to the output thread to be written. If
+     * every frame buffer is still waiting to be written, this blocks until one is free. Time steps after the writer has
+     * been closed are ignored, the output thread has stopped and will not free any more buffers.
+     *
+     * @param model
+     */
+    public void writeTimeStep(CortexModel model){
+        if(output==null && !start(model)){
+            return;
+        }
+        synchronized(writeLock){
+            if(stopped){
+                return;
+            }
+        }
+        Frame frame;
+        try {
+            frame = free.take();
+        } catch (InterruptedException e) {
+            System.out.println("interrupted while waiting to write a time step.");
+            Thread.currentThread().interrupt();
+            return;
+        }
+        frame.segmentStart = startsSegment();
+        if(frame.segmentStart){
+            segmentFrames = 0;
+            segmentBytes = 0;
+            if(encoder!=null){
+                encoder.forceKeyframe();
+            }
+            if(interactionEncoder!=null){
+                interactionEncoder.forceKeyframe();
+            }
+        }
+        if(interactionEncoder!=null){
+            prepareInteractions(model, interactionEncoder.full);
+            interactionEncoder.encode(frame.interactions);
+        } else{
+            prepareInteractions(model, frame.interactions);
+        }
+        if(encoder!=null){
+            encoder.encode(model, frame.rods);
+            frame.flags = encoder.keyframe?FrameIndex.KEYFRAME:0;
+        } else{
+            prepareRods(model, frame.rods);
+            frame.flags = FrameIndex.KEYFRAME;
+        }
+        if(interactionEncoder==null || interactionEncoder.keyframe){
+            frame.flags |= FrameIndex.INTERACTION_KEYFRAME;
         }
+        frame.time = model.time;
+        segmentFrames++;
+        segmentBytes += frame.rods.size() + frame.interactions.size();
+        if(completeTransaction(frame) && metricsWriter!=null){
+            metricsWriter.frameWritten(existingFrames + (int)queued - 1);
+        }
+    }
 
+    /**
+     * Checks if the next time point starts a new segment, when the current segment has reached either limit of the
+     * format.
+     */
+    private boolean startsSegment(){
+        if(segments==null || segmentFrames==0){
+            return false;
+        }
+        return (format.getSegmentFrames()>0 && segmentFrames>=format.getSegmentFrames())
+                || (format.getSegmentBytes()>0 && segmentBytes>=format.getSegmentBytes());
+    }
 
+    /**
+     * Starts recording the metrics file, every METRICS_INTERVAL sub steps of the model, when the interval is greater
+     * than 0. The samples are appended whenever a time step is written, and samples after the current time of the
+     * model are removed, eg. when continuing a simulation.
+     *
+     * @param model the simulation, in the state of the last time step written.
+     * @param frame index of the last time step written.
+     */
+    public void recordMetrics(CortexModel model, int frame){
+        if(model.constants.METRICS_INTERVAL<=0){
+            return;
+        }
+        synchronized(writeLock){
+            if(stopped || metricsWriter!=null){
+                return;
+            }
+            try {
+                metricsWriter = new MetricsWriter(model, metrics, frame);
+                model.setSubStepListener(metricsWriter);
+            } catch (IOException e) {
+                System.out.println("Failed to open the metrics file, metrics will not be recorded.");
+                e.printStackTrace();
+            }
+        }
+    }
 
+    /**
+     * Allocates the frame buffers, opens the data files and starts the output thread.
+     *
+     * @param model for the SYNC_INTERVAL and WRITE_QUEUE sizes, and the time of the first segment.
+     * @return false if the writer has been closed, or the data files could not be opened.
+     */
+    private boolean start(CortexModel model){
+        ModelConstants constants = model.constants;
+        synchronized(writeLock){
+            if(stopped){
+                return false;
+            }
+            if(format==null){
+                format = StorageFormat.fromConstants(constants);
+            }
+            if(format.isQuantized()){
+                encoder = new QuantizedRods.Encoder(format);
+            }
+            if(format.hasInteractionDeltas()){
+                interactionEncoder = new InteractionDeltas.Encoder(format);
+            }
+            int frames = Math.max(2, (int)constants.WRITE_QUEUE);
+            syncInterval = (int)constants.SYNC_INTERVAL;
+            free = new ArrayBlockingQueue<>(frames);
+            pending = new ArrayBlockingQueue<>(frames + 1);
+            for(int i = 0; i<frames; i++){
+                Frame frame = new Frame();
+                frame.rods.trailer = format.getTrailerSize();
+                frame.interactions.trailer = format.getTrailerSize();
+                free.add(frame);
+            }
+            try{
+                segments = Segments.forDataFile(rods);
+                if(segments==null && format.hasSegments()){
+                    segments = Segments.create(rods, model.time);
+                }
+                if(segments==null){
+                    rodChannel = FileChannel.open(
+                            rods.toPath(),
+                            StandardOpenOption.WRITE,
+                            StandardOpenOption.APPEND,
+                            StandardOpenOption.CREATE
+                    );
+                    interactionChannel = FileChannel.open(
+                            interactions.toPath(),
+                            StandardOpenOption.WRITE,
+                            StandardOpenOption.APPEND,
+                            StandardOpenOption.CREATE
+                    );
+                } else{
+                    rodChannel = segments.open(true, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                    interactionChannel = segments.open(false, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                }
+                //the index is rewritten to match the existing data, eg. when continuing a simulation.
+                List<TimePointKey> existing = FrameIndex.load(index, rods, interactions, format);
+                FrameIndex.write(index, existing);
+                frameCount = existing.size();
+                existingFrames = frameCount;
+                if(format.hasChecksums()){
+                    //anything after the last committed time point is an interrupted write.
+                    truncateAfter(existing);
+                }
+                if(existing.size()>0){
+                    lastTime = existing.get(existing.size() - 1).time;
+                }
+                if(segments!=null){
+                    Segments.Segment last = segments.get(segments.size() - 1);
+                    segmentFrames = frameCount - last.firstFrame;
+                    segmentBytes = rodsLength - last.rodStart + interactionsLength - last.interactionStart;
+                }
+                indexChannel = FileChannel.open(
+                        index.toPath(),
+                        StandardOpenOption.WRITE,
+                        StandardOpenOption.APPEND
+                );
+            } catch (IOException e) {
+                System.out.println("Failed to open data files.");
+                e.printStackTrace();
+                stopped = true;
+                return false;
+            }
+            output = new Thread(this::writeFrames, "simulation-writer");
+            output.setDaemon(true);
+            output.start();
+            return true;
+        }
     }
 
     /**
-     * Writes both the rod and interactions for a time step.
+     * Truncates the data files after the last of the existing time points, so new time points are appended directly
+     * after it.
      *
-     * @param model
+     * @param existing committed time points.
+     * @throws IOException
      */
-    public void writeTimeStep(CortexModel model){
-        prepareInteractions(model);
-        prepareRods(model);
-        completeTransaction();
+    private void truncateAfter(List<TimePointKey> existing) throws IOException {
+        long rodEnd = 0;
+        long interactionEnd = 0;
+        if(existing.size()>0){
+            TimePointKey last = existing.get(existing.size() - 1);
+            rodEnd = last.rodPosition + last.rodLength;
+            interactionEnd = last.interactionPosition + last.interactionLength;
+        }
+        if(rodChannel.size()>rodEnd || interactionChannel.size()>interactionEnd){
+            System.out.println("removing incomplete time points after time point " + existing.size());
+            rodChannel.truncate(rodEnd);
+            interactionChannel.truncate(interactionEnd);
+        }
+        rodsLength = rodEnd;
+        interactionsLength = interactionEnd;
     }
 
     /**
-     * Writes interaction data to a byte array.
+     * Writes interaction data to a frame buffer.
      *
      * @param model
+     * @param data buffer that will be overwritten with the interaction chunk.
      */
-    private void prepareInteractions(CortexModel model){
+    private void prepareInteractions(CortexModel model, ChunkBuffer data){
         List<MyosinMotorBinding> bindings = model.getMotorBindings();
-        List<ActinFilament> actins = model.getActin();
-        List<MyosinMotor> motors = model.getMyosins();
-        ByteArrayOutputStream data = new ByteArrayOutputStream();
-        try(DataOutputStream interactionStream = new DataOutputStream(data)) {
-            interactionStream.writeInt(-1);
-            interactionStream.writeDouble(model.time);
-            interactionStream.writeInt(bindings.size());
-            for(MyosinMotorBinding bind: bindings){
-                MyosinMotor m = bind.motor;
-                int index = motors.indexOf(m);
-                interactionStream.writeInt(index);
-                int dex = -1;
-                double ctime = 0;
-                double ftime = 0;
-                double s = 0;
-                int head = MyosinMotor.FRONT;
-                if(m.isBound(head)){
-                    ActinFilament f = m.getBound(head);
-                    dex = actins.indexOf(f);
-                    s = bind.binding_position[head];
-                    ftime = bind.unbind_time[head];
-                    ctime = bind.current_time[head];
+        List<CrosslinkedFilaments> xlinked = model.getCrosslinkedFilaments();
+        ByteBuffer interactionBuffer = data.begin(
+                16 + BINDING_BYTES*bindings.size() + CROSSLINK_BYTES*xlinked.size()
+        );
+
+        interactionBuffer.putDouble(model.time);
+        interactionBuffer.putInt(bindings.size());
+        for(MyosinMotorBinding bind: bindings){
+            MyosinMotor m = bind.motor;
+            interactionBuffer.putInt(m.id);
+            putHead(interactionBuffer, bind, MyosinMotor.FRONT);
+            putHead(interactionBuffer, bind, MyosinMotor.BACK);
+        }
+
+        interactionBuffer.putInt(xlinked.size());
+        for(CrosslinkedFilaments linked: xlinked){
+            int type = linked.getType();
+            interactionBuffer.putInt(type);
+            switch(type){
+                case CrosslinkedFilaments.NORMAL:
+                    interactionBuffer.putInt(linked.a.id);
+                    interactionBuffer.putDouble(linked.a_s);
+                    interactionBuffer.putInt(linked.b.id);
+                    interactionBuffer.putDouble(linked.b_s);
+                    interactionBuffer.putDouble(linked.time);
+                    interactionBuffer.putDouble(linked.duration);
+                    break;
+                default:
+                    System.out.println("Bad crosslinked filament!");
+            }
+        }
+        data.finish();
+    }
+
+    /**
+     * Writes the state of one motor head, an unbound head is written as filament -1 and zeros.
+     */
+    static void putHead(ByteBuffer buffer, MyosinMotorBinding bind, int head){
+        MyosinMotor m = bind.motor;
+        if(m.isBound(head)){
+            buffer.putInt(m.getBound(head).id);
+            buffer.putDouble(bind.binding_position[head]);
+            buffer.putDouble(bind.current_time[head]);
+            buffer.putDouble(bind.unbind_time[head]);
+        } else{
+            buffer.putInt(-1);
+            buffer.putDouble(0);
+            buffer.putDouble(0);
+            buffer.putDouble(0);
+        }
+    }
+
+    /**
+     * Hands a prepared frame to the output thread. Frames prepared after the writer has been closed are dropped, and
+     * their buffer is returned to the free frames.
+     *
+     * @param frame contains the rod and interaction chunks for one time step.
+     * @return false if the frame was dropped.
+     */
+    private boolean completeTransaction(Frame frame){
+        synchronized(writeLock){
+            if(stopped){
+                free.add(frame);
+                return false;
+            }
+            queued++;
+            pending.add(frame);
+            return true;
+        }
+    }
+
+    /**
+     * Output thread, writes frames in the order they were handed off until the writer is closed. All of the frames
+     * waiting are written together, with one gathering write to each file, and after a failed write nothing more is
+     * written.
+     */
+    private void writeFrames(){
+        int unsynced = 0;
+        List<Frame> batch = new ArrayList<>();
+        boolean running = true;
+        while(running){
+            try {
+                batch.add(pending.take());
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+                break;
+            }
+            pending.drainTo(batch);
+            if(batch.get(batch.size()-1)==END){
+                batch.remove(batch.size()-1);
+                running = false;
+            }
+            long rodBytes = 0;
+            long interactionBytes = 0;
+            ByteBuffer[] rodBuffers = new ByteBuffer[batch.size()];
+            ByteBuffer[] interactionBuffers = new ByteBuffer[batch.size()];
+            for(int i = 0; i<batch.size(); i++){
+                Frame frame = batch.get(i);
+                if(format.hasChecksums()){
+                    FrameIndex.seal(frame.rods.buffer, frameCount + i);
+                    FrameIndex.seal(frame.interactions.buffer, frameCount + i);
+                }
+                rodBuffers[i] = frame.rods.buffer;
+                interactionBuffers[i] = frame.interactions.buffer;
+                rodBytes += frame.rods.size();
+                interactionBytes += frame.interactions.size();
+            }
+            if(!failed && batch.size()>0){
+                try{
+                    writeSegments(batch, rodBuffers, interactionBuffers);
+                    writeIndex(batch);
+                    unsynced += batch.size();
+                    if(syncInterval>0 && unsynced>=syncInterval){
+                        rodChannel.force(false);
+                        interactionChannel.force(false);
+                        indexChannel.force(false);
+                        unsynced = 0;
+                    }
+                } catch (IOException e) {
+                    System.out.println("Failed to write time step, no more time steps will be written.");
+                    e.printStackTrace();
+                    failed = true;
                 }
-                interactionStream.writeInt(dex);
-                interactionStream.writeDouble(s);
-                interactionStream.writeDouble(ctime);
-                interactionStream.writeDouble(ftime);
-
-                dex = -1;
-                ctime = 0;
-                ftime = 0;
-                s = 0;
-                head = MyosinMotor.BACK;
-                if(m.isBound(head)){
-                    ActinFilament f = m.getBound(head);
-                    dex = actins.indexOf(f);
-                    s = bind.binding_position[head];
-                    ftime = bind.unbind_time[head];
-                    ctime = bind.current_time[head];
+            }
+            free.addAll(batch);
+            synchronized(writeLock){
+                if(!failed){
+                    rodsLength += rodBytes;
+                    interactionsLength += interactionBytes;
                 }
-                interactionStream.writeInt(dex);
-                interactionStream.writeDouble(s);
-                interactionStream.writeDouble(ctime);
-                interactionStream.writeDouble(ftime);
+                written += batch.size();
+                writeLock.notifyAll();
+            }
+            batch.clear();
+        }
+    }
 
+    /**
+     * Writes the chunks of a batch, with one gathering write to each file for the frames of each segment. The current
+     * segment is closed before a frame that starts a new segment.
+     */
+    private void writeSegments(List<Frame> batch, ByteBuffer[] rodBuffers, ByteBuffer[] interactionBuffers) throws IOException {
+        long rodPosition = rodsLength;
+        long interactionPosition = interactionsLength;
+        int from = 0;
+        while(from<batch.size()){
+            int to = from + 1;
+            while(to<batch.size() && !batch.get(to).segmentStart){
+                to++;
+            }
+            Frame first = batch.get(from);
+            if(first.segmentStart && segments!=null){
+                rodChannel.force(false);
+                interactionChannel.force(false);
+                segments.roll(frameCount + from, first.time, lastTime, rodPosition, interactionPosition);
             }
+            long rodBytes = 0;
+            long interactionBytes = 0;
+            for(int i = from; i<to; i++){
+                rodBytes += batch.get(i).rods.size();
+                interactionBytes += batch.get(i).interactions.size();
+            }
+            writeFully(rodChannel, rodBuffers, from, to - from, rodBytes);
+            writeFully(interactionChannel, interactionBuffers, from, to - from, interactionBytes);
+            rodPosition += rodBytes;
+            interactionPosition += interactionBytes;
+            lastTime = batch.get(to - 1).time;
+            from = to;
+        }
+    }
+
+    /**
+     * Appends an index record for each frame of a batch that has been written, the lengths have not been updated for
+     * the batch yet.
+     */
+    private void writeIndex(List<Frame> batch) throws IOException {
+        ByteBuffer records = ByteBuffer.allocate(FrameIndex.RECORD*batch.size());
+        long rodPosition = rodsLength;
+        long interactionPosition = interactionsLength;
+        TimePointKey key = new TimePointKey(0, 0, 0);
+        for(Frame frame: batch){
+            key.point = frameCount++;
+            key.time = frame.time;
+            key.flags = frame.flags;
+            key.rodPosition = rodPosition + 4;
+            key.rodLength = frame.rods.size() - 4;
+            key.setInteractionPositions(interactionPosition + 4, frame.interactions.size() - 4);
+            FrameIndex.putRecord(records, key);
+            rodPosition += frame.rods.size();
+            interactionPosition += frame.interactions.size();
+        }
+        records.flip();
+        while(records.hasRemaining()){
+            indexChannel.write(records);
+        }
+    }
 
-            List<CrosslinkedFilaments> xlinked = model.getCrosslinkedFilaments();
-            interactionStream.writeInt(xlinked.size());
-            for(CrosslinkedFilaments linked: xlinked){
-                int type = linked.getType();
-                interactionStream.writeInt(type);
-                switch(type){
-                    case CrosslinkedFilaments.NORMAL:
-                        int a = actins.indexOf(linked.a);
-                        double as = linked.a_s;
-                        int b = actins.indexOf(linked.b);
-                        double bs = linked.b_s;
-                        double t = linked.time;
-                        double f = linked.duration;
-                        interactionStream.writeInt(a);
-                        interactionStream.writeDouble(as);
-                        interactionStream.writeInt(b);
-                        interactionStream.writeDouble(bs);
-                        interactionStream.writeDouble(t);
-                        interactionStream.writeDouble(f);
-                        break;
-                    default:
-                        System.out.println("Bad crosslinked filament!");
+    static void writeFully(FileChannel channel, ByteBuffer[] buffers, int offset, int length, long bytes) throws IOException {
+        long sum = 0;
+        while(sum<bytes){
+            sum += channel.write(buffers, offset, length);
+        }
+    }
+
+    /**
+     * Blocks until every time step that has been handed to the writer is written, then forces the data to disk.
+     */
+    public void flush(){
+        if(output==null){
+            return;
+        }
+        synchronized(writeLock){
+            while(written<queued && output.isAlive()){
+                try {
+                    writeLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
                 }
             }
+        }
+        force();
+    }
+
+    private void force(){
+        if(rodChannel==null){
+            return;
+        }
+        try {
+            rodChannel.force(false);
+            interactionChannel.force(false);
+            indexChannel.force(false);
         } catch (IOException e) {
             e.printStackTrace();
         }
-
-        interactionData = data.toByteArray();
-        int v = interactionData.length -4;
-        interactionData[0] = (byte)(0xff & (v >> 24));
-        interactionData[1] = (byte)(0xff & (v >> 16));
-        interactionData[2] = (byte)(0xff & (v >>    8));
-        interactionData[3] = (byte)(0xff & v);
-
     }
 
     /**
-     * Writes the prepared byte arrays for both interactions and rods to their respective files.
+     * Writes a checkpoint of the complete simulation state, that corresponds to the last time step written. The pending
+     * time steps are written first, and nothing is written after the writer has been closed or failed, so the
+     * checkpoint never refers to data that was not written.
      *
+     * @param model the simulation, in the state of the last time step written.
+     * @param frames number of time steps that have been written, including the initial time step.
      */
-    private void completeTransaction(){
-
+    public void writeCheckpoint(CortexModel model, int frames){
+        if(output==null){
+            return;
+        }
+        flush();
         synchronized(writeLock){
-            if(!stopped){
-                try( OutputStream interactionStream = Files.newOutputStream(
-                        interactions.toPath(),
-                        StandardOpenOption.SYNC,
-                        StandardOpenOption.APPEND,
-                        StandardOpenOption.CREATE
-                ); OutputStream rodStream = Files.newOutputStream(
-                        rods.toPath(),
-                        StandardOpenOption.SYNC,
-                        StandardOpenOption.APPEND,
-                        StandardOpenOption.CREATE
-                )){
-                    rodStream.write(rodData);
-                    interactionStream.write(interactionData);
-
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+            if(stopped||failed){
+                return;
+            }
+            try {
+                Checkpoint.write(model, checkpoint, frames, rodsLength, interactionsLength);
+            } catch (IOException e) {
+                System.out.println("Failed to write checkpoint.");
+                e.printStackTrace();
             }
         }
     }
 
     /**
-     * Waits for completeTransaction to finish, and prevents writing any more interactions.
+     * Prevents writing any more time steps, waits for the time steps already handed off to be written, then forces
+     * and closes the data files.
      */
     public void close(){
+        Thread t;
         synchronized(writeLock){
+            if(stopped){
+                return;
+            }
             stopped=true;
+            t = output;
+            if(t!=null){
+                pending.add(END);
+            }
+        }
+        if(metricsWriter!=null){
+            metricsWriter.close();
+        }
+        if(t==null){
+            return;
+        }
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        force();
+        try {
+            rodChannel.close();
+            interactionChannel.close();
+            indexChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
-}
\ No newline at end of file
+}
+
+/**
+ * Reusable buffers for the chunks of one time step.
+ */
+class Frame{
+    final ChunkBuffer rods = new ChunkBuffer();
+    final ChunkBuffer interactions = new ChunkBuffer();
+    double time;
+    int flags;
+    //the first time point of a new segment.
+    boolean segmentStart;
+}
@@ -0,0 +1,221 @@
+package org.paluchlab.agentcortex.io;
+
+import org.paluchlab.agentcortex.ModelConstants;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Describes how the rods are stored in the rods file. Simulation files from version 0.2 contain a format section, eg:
+ *
+ * <pre>
+ * &lt;format&gt;
+ * rods         quantized-delta
+ * precision    1.0E-6
+ * keyframes    100
+ * interactions keyframe-delta
+ * checksums    crc32
+ * segment-frames 1000
+ * &lt;/format&gt;
+ * </pre>
+ *
+ * Older simulation files, and files without a format section, store rods as raw doubles. When checksums are enabled,
+ * from version 0.3, every chunk ends with the index of its time point and a CRC32, see FrameIndex#seal. Interactions
+ * are stored complete, or from version 0.4 with keyframe-delta only the records that changed, see InteractionDeltas. The
+ * keyframe interval applies to both the rods and the interactions. From version 0.5 the data files can be split into
+ * segments after a number of frames, segment-frames, or bytes, segment-bytes, see Segments.
+ *
+ * Created on 10/19/26.
+ */
+public class StorageFormat {
+    final static String format_tag = "format";
+    /** six doubles for each rod, the original format. */
+    public final static String RAW = "raw";
+    /** quantized, delta encoded against the previous frame and deflated. */
+    public final static String QUANTIZED = "quantized-delta";
+    /** every interaction record stored in every frame, the original format. */
+    public final static String FULL = "full";
+    /** interaction records that changed since the previous frame, with complete keyframes. */
+    public final static String DELTA = "keyframe-delta";
+    /** chunks end with the time point index and a CRC32. */
+    public final static String CRC32 = "crc32";
+
+    String rods = RAW;
+    double precision;
+    int keyframes = 1;
+    String interactions = FULL;
+    boolean checksums;
+    int segmentFrames;
+    long segmentBytes;
+
+    /**
+     * @return the format of files written before the format section existed.
+     */
+    public static StorageFormat raw(){
+        return new StorageFormat();
+    }
+
+    /**
+     * Creates the format for writing a new simulation, rods are quantized when ROD_PRECISION is greater than 0, and
+     * interactions are stored as deltas only when INTERACTION_DELTAS is greater than 0 and KEYFRAME_INTERVAL is greater
+     * than 1. Delta interactions cannot be read before version 0.4, and reading a time point decodes the time points
+     * back to its keyframe, so complete interactions are the default.
+     *
+     * @param constants
+     * @return
+     */
+    public static StorageFormat fromConstants(ModelConstants constants){
+        StorageFormat format = new StorageFormat();
+        format.checksums = true;
+        if(constants.ROD_PRECISION>0){
+            format.rods = QUANTIZED;
+            format.precision = constants.ROD_PRECISION;
+        }
+        format.keyframes = Math.max(1, (int)constants.KEYFRAME_INTERVAL);
+        if(constants.INTERACTION_DELTAS>0 && format.keyframes>1){
+            format.interactions = DELTA;
+        }
+        format.segmentFrames = Math.max(0, (int)constants.SEGMENT_FRAMES);
+        format.segmentBytes = Math.max(0, (long)(constants.SEGMENT_MEGABYTES*(1<<20)));
+        return format;
+    }
+
+    /**
+     * Parses the lines of a format section.
+     *
+     * @param lines key value pairs.
+     * @return the format described.
+     * @throws IOException when the format is not supported by this version.
+     */
+    public static StorageFormat fromLines(List<String> lines) throws IOException {
+        StorageFormat format = new StorageFormat();
+        for(String line: lines){
+            String[] pair = line.split(Pattern.quote("\t"));
+            if(pair.length!=2){
+                throw new IOException("invalid format line: " + line);
+            }
+            switch(pair[0]){
+                case "rods":
+                    if(!pair[1].equals(RAW) && !pair[1].equals(QUANTIZED)){
+                        throw new IOException("unsupported rods encoding: " + pair[1]);
+                    }
+                    format.rods = pair[1];
+                    break;
+                case "precision":
+                    format.precision = Double.parseDouble(pair[1]);
+                    break;
+                case "keyframes":
+                    format.keyframes = Integer.parseInt(pair[1]);
+                    break;
+                case "interactions":
+                    if(!pair[1].equals(FULL) && !pair[1].equals(DELTA)){
+                        throw new IOException("unsupported interactions encoding: " + pair[1]);
+                    }
+                    format.interactions = pair[1];
+                    break;
+                case "checksums":
+                    if(!pair[1].equals(CRC32)){
+                        throw new IOException("unsupported checksum: " + pair[1]);
+                    }
+                    format.checksums = true;
+                    break;
+                case "segment-frames":
+                    format.segmentFrames = Integer.parseInt(pair[1]);
+                    break;
+                case "segment-bytes":
+                    format.segmentBytes = Long.parseLong(pair[1]);
+                    break;
+                default:
+                    System.err.println("ignoring format property: " + line);
+            }
+        }
+        if(format.isQuantized() && format.precision<=0){
+            throw new IOException("quantized rods require a precision greater than 0");
+        }
+        return format;
+    }
+
+    /**
+     * Writes the format section.
+     *
+     * @param w
+     * @throws IOException
+     */
+    public void write(Writer w) throws IOException {
+        w.write(String.format("<%s>\n", format_tag));
+        w.write("rods\t" + rods + "\n");
+        if(isQuantized()){
+            w.write("precision\t" + precision + "\n");
+        }
+        if(isQuantized() || hasInteractionDeltas()){
+            w.write("keyframes\t" + keyframes + "\n");
+        }
+        if(hasInteractionDeltas()){
+            w.write("interactions\t" + interactions + "\n");
+        }
+        if(checksums){
+            w.write("checksums\t" + CRC32 + "\n");
+        }
+        if(segmentFrames>0){
+            w.write("segment-frames\t" + segmentFrames + "\n");
+        }
+        if(segmentBytes>0){
+            w.write("segment-bytes\t" + segmentBytes + "\n");
+        }
+        w.write(String.format("</%s>\n", format_tag));
+    }
+
+    public boolean isQuantized(){
+        return QUANTIZED.equals(rods);
+    }
+
+    public double getPrecision(){
+        return precision;
+    }
+
+    public int getKeyframeInterval(){
+        return keyframes;
+    }
+
+    public boolean hasInteractionDeltas(){
+        return DELTA.equals(interactions);
+    }
+
+    public boolean hasChecksums(){
+        return checksums;
+    }
+
+    /**
+     *
+     * @return true if the data files are split into segments, see Segments.
+     */
+    public boolean hasSegments(){
+        return segmentFrames>0 || segmentBytes>0;
+    }
+
+    /**
+     *
+     * @return the number of time points in a segment, 0 for no limit.
+     */
+    public int getSegmentFrames(){
+        return segmentFrames;
+    }
+
+    /**
+     *
+     * @return approximate number of bytes, of both data files, in a segment, 0 for no limit.
+     */
+    public long getSegmentBytes(){
+        return segmentBytes;
+    }
+
+    /**
+     *
+     * @return the number of bytes at the end of each chunk that are not chunk data.
+     */
+    public int getTrailerSize(){
+        return checksums ? FrameIndex.TRAILER : 0;
+    }
+}
@@ -19,11 +19,23 @@ import java.util.List;
  * Created on 10/21/14.
  */
 public class TimePoint {
+    /**
+     * Sections of a time point, for reading only the data an analysis needs, see SimulationReader#getTimePoint(int, int).
+     */
+    public final static int ACTINS = 1;
+    public final static int MOTORS = 2;
+    public final static int BINDINGS = 4;
+    public final static int CROSSLINKS = 8;
+    public final static int GEOMETRY = ACTINS | MOTORS;
+    public final static int ALL = ACTINS | MOTORS | BINDINGS | CROSSLINKS;
+
     final List<ActinFilament> filaments = new ArrayList<>();
     final List<MyosinMotor> motors = new ArrayList<>();
     final List<MyosinMotorBinding> bindings = new ArrayList<>();
     final List<CrosslinkedFilaments> linkers = new ArrayList<>();
     final double time;
+    int sections = ALL;
+    int index = -1;
 
     /**
      * Creates a new TimePoint for a
@@ -50,6 +62,39 @@ public class TimePoint {
         return Collections.unmodifiableList(linkers);
     }
 
+    /**
+     *
+     * @return index of the time point in the simulation, or -1 if it was not read by a SimulationReader.
+     */
+    public int getIndex(){
+        return index;
+    }
+
+    /**
+     *
+     * @return the sections that were read, the lists of the other sections are empty.
+     */
+    public int getSections(){
+        return sections;
+    }
+
+    /**
+     * Adds the sections that the requested sections refer to, motor bindings refer to motors and filaments,
+     * crosslinks refer to filaments.
+     *
+     * @param sections requested sections.
+     * @return the sections that have to be read.
+     */
+    public static int withDependencies(int sections){
+        if((sections&BINDINGS)!=0){
+            sections |= ACTINS | MOTORS;
+        }
+        if((sections&CROSSLINKS)!=0){
+            sections |= ACTINS;
+        }
+        return sections&ALL;
+    }
+
     public void setModel(CortexModel model){
         for(MyosinMotorBinding binding: getBindings()){
             binding.setModel(model);
@@ -0,0 +1,27 @@
+package org.paluchlab.agentcortex.io;
+
+/**
+ * Location of a time point in the data files, for decoding it when it is requested.
+ *
+ * Created on 10/19/26.
+ */
+class TimePointKey{
+
+    int point;
+    long rodPosition, interactionPosition;
+    int rodLength, interactionLength;
+    double time;
+    //see FrameIndex#KEYFRAME
+    int flags = FrameIndex.KEYFRAME;
+    public TimePointKey(int point, long rPosition, int rLength){
+        rodPosition = rPosition;
+        rodLength = rLength;
+        this.point = point;
+    }
+
+    public void setInteractionPositions(long iPosition, int iLength){
+        interactionPosition = iPosition;
+        interactionLength = iLength;
+    }
+
+}
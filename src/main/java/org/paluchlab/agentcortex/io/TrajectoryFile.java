@@ -0,0 +1,254 @@
+package org.paluchlab.agentcortex.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The rods of a simulation transposed so that each rod's trajectory is contiguous, {tag}-trajectories.dat. After the
+ * header, and the time of each time point, there is one block for each rod, actins first then motors, with one
+ * contiguous column for each field:
+ *
+ * <pre>
+ * int magic, int format, int frames, int rods, int actins
+ * double[frames] times
+ * rod 0: double[frames] x, y, z, dx, dy, dz
+ * rod 1: ...
+ * </pre>
+ *
+ * The trajectory of a rod can then be read with a single sequential read, instead of decoding every time point.
+ *
+ * Created on 10/19/26.
+ */
+public class TrajectoryFile implements AutoCloseable{
+    final static String TRAJECTORY_TAIL = "-trajectories.dat";
+    final static int MAGIC = 0x43445452;
+    final static int FORMAT = 1;
+    final static int HEADER = 20;
+    /** number of fields stored for each rod, x, y, z, dx, dy, dz. */
+    public final static int FIELDS = QuantizedRods.VALUES;
+    final static long DEFAULT_MEMORY = 64L<<20;
+
+    final FileChannel channel;
+    final int frames;
+    final int rods;
+    final int actins;
+    final double[] times;
+
+    TrajectoryFile(FileChannel channel, int frames, int rods, int actins, double[] times){
+        this.channel = channel;
+        this.frames = frames;
+        this.rods = rods;
+        this.actins = actins;
+        this.times = times;
+    }
+
+    /**
+     * Opens a trajectory file for reading.
+     *
+     * @param file trajectory file.
+     * @return the opened file.
+     * @throws IOException if the file is not a trajectory file.
+     */
+    public static TrajectoryFile open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath());
+        try{
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            FrameIndex.readFully(channel, header, 0);
+            header.flip();
+            if(header.getInt()!=MAGIC){
+                throw new IOException(file + " is not a trajectory file.");
+            }
+            int format = header.getInt();
+            if(format!=FORMAT){
+                throw new IOException("unsupported trajectory version: " + format);
+            }
+            int frames = header.getInt();
+            int rods = header.getInt();
+            int actins = header.getInt();
+            double[] times = new double[frames];
+            readDoubles(channel, HEADER, times, 0, frames);
+            return new TrajectoryFile(channel, frames, rods, actins, times);
+        } catch(IOException e){
+            channel.close();
+            throw e;
+        }
+    }
+
+    public int getFrameCount(){
+        return frames;
+    }
+
+    public int getRodCount(){
+        return rods;
+    }
+
+    public int getActinCount(){
+        return actins;
+    }
+
+    /**
+     *
+     * @return the time of each time point.
+     */
+    public double[] getTimes(){
+        return times.clone();
+    }
+
+    /**
+     * Reads all fields of one rod.
+     *
+     * @param rod index of the rod, motors follow the actins.
+     * @return FIELDS*frames values, each field is contiguous: x for all frames, then y...
+     * @throws IOException
+     */
+    public double[] getTrajectory(int rod) throws IOException {
+        double[] values = new double[FIELDS*frames];
+        readDoubles(channel, columnPosition(rod, 0), values, 0, values.length);
+        return values;
+    }
+
+    /**
+     * Reads one field of one rod.
+     *
+     * @param rod index of the rod, motors follow the actins.
+     * @param field 0-2 position, 3-5 direction.
+     * @return the field for each time point.
+     * @throws IOException
+     */
+    public double[] getTrajectory(int rod, int field) throws IOException {
+        double[] values = new double[frames];
+        readDoubles(channel, columnPosition(rod, field), values, 0, frames);
+        return values;
+    }
+
+    long columnPosition(int rod, int field){
+        if(rod<0 || rod>=rods || field<0 || field>=FIELDS){
+            throw new IndexOutOfBoundsException("rod " + rod + " field " + field);
+        }
+        return HEADER + 8L*frames + 8L*frames*(FIELDS*(long)rod + field);
+    }
+
+    static void readDoubles(FileChannel channel, long position, double[] values, int offset, int count) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(8*count);
+        FrameIndex.readFully(channel, buffer, position);
+        buffer.flip();
+        buffer.asDoubleBuffer().get(values, offset, count);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Transposes the rods of a simulation. Blocks of consecutive time points are read into memory, and each block is
+     * written as one segment of every column, so the memory used is bounded regardless of the length of the
+     * simulation.
+     *
+     * @param source simulation to transpose.
+     * @param destination trajectory file, replaced when the transpose is complete.
+     * @param memory approximate number of bytes used for a block of time points.
+     * @throws IOException
+     */
+    public static void transpose(MappedSimulationReader source, File destination, long memory) throws IOException {
+        int frames = source.getPointCount();
+        int values = source.getRodValueCount();
+        int rods = values/FIELDS;
+        int block = (int)Math.max(1, Math.min(frames, memory/(8L*values)));
+        double[] rows = new double[block*values];
+        ByteBuffer segment = ByteBuffer.allocateDirect(8*block);
+        DoubleBuffer doubles = segment.asDoubleBuffer();
+
+        File tmp = new File(destination.getAbsoluteFile().getParentFile(), destination.getName() + ".tmp");
+        try(FileChannel out = FileChannel.open(
+                tmp.toPath(),
+                StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING
+        )){
+            int actins = 0;
+            double[] times = new double[frames];
+            long columns = HEADER + 8L*frames;
+            for(int start = 0; start<frames; start += block){
+                int count = Math.min(block, frames - start);
+                double[] row = new double[values];
+                for(int f = 0; f<count; f++){
+                    int a = source.readRods(start + f, row);
+                    if(start + f==0){
+                        actins = a;
+                    } else if(a!=actins){
+                        throw new IOException("the number of actin filaments changes at time point " + (start + f));
+                    }
+                    System.arraycopy(row, 0, rows, f*values, values);
+                    times[start + f] = source.getTime(start + f);
+                }
+                for(int column = 0; column<values; column++){
+                    doubles.clear();
+                    for(int f = 0; f<count; f++){
+                        doubles.put(rows[f*values + column]);
+                    }
+                    segment.clear();
+                    segment.limit(8*count);
+                    long position = columns + 8L*((long)column*frames + start);
+                    while(segment.hasRemaining()){
+                        out.write(segment, position + segment.position());
+                    }
+                }
+            }
+
+            ByteBuffer header = ByteBuffer.allocate((int)columns);
+            header.putInt(MAGIC);
+            header.putInt(FORMAT);
+            header.putInt(frames);
+            header.putInt(rods);
+            header.putInt(actins);
+            header.asDoubleBuffer().put(times);
+            header.clear();
+            while(header.hasRemaining()){
+                out.write(header, header.position());
+            }
+            out.force(false);
+        }
+        Files.move(tmp.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * The trajectory file used with a simulation file.
+     *
+     * @param simFile tag-simulation.txt
+     * @return tag-trajectories.dat in the same directory.
+     */
+    public static File getTrajectoryFile(File simFile){
+        int last = simFile.getName().indexOf("-simulation.txt");
+        String tag = simFile.getName().substring(0, last);
+        return new File(simFile.getAbsoluteFile().getParentFile(), tag + TRAJECTORY_TAIL);
+    }
+
+    /**
+     * Creates the trajectory file for a simulation.
+     *
+     * @param args tag-simulation.txt [block memory in MB]
+     */
+    public static void main(String[] args) throws IOException {
+        if(args.length<1){
+            System.out.println("usage: TrajectoryFile tag-simulation.txt [memory MB]");
+            return;
+        }
+        File simFile = new File(args[0]);
+        long memory = args.length>1 ? Long.parseLong(args[1])<<20 : DEFAULT_MEMORY;
+        try(MappedSimulationReader reader = MappedSimulationReader.fromSimulationFile(simFile)){
+            if(reader==null){
+                return;
+            }
+            File destination = getTrajectoryFile(simFile);
+            transpose(reader, destination, memory);
+            System.out.println("wrote " + reader.getPointCount() + " time points to " + destination);
+        }
+    }
+}
@@ -4,6 +4,7 @@ import org.paluchlab.agentcortex.CortexModel;
 import org.paluchlab.agentcortex.io.SimulationReader;
 import org.paluchlab.agentcortex.io.SimulationWriter;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
@@ -20,6 +21,9 @@ public class HeadlessSimulation {
     /**
      * Entry point for headless simulation. If an argument is passed the first argument will be used as a parameter file
      * to start the simulation with a specified set of parameters instead of the default values found in
+     * ModelConstants. If a second argument is passed it will be used as the tag for the output files, in place of the
+     * current time.
+     *
      * @param args
      */
     public static void main(String[] args){
@@ -42,11 +46,14 @@ public class HeadlessSimulation {
             }
         }
 
-        final SimulationWriter writer = new SimulationWriter();
+        final SimulationWriter writer = args.length>1?
+                new SimulationWriter(args[1], new File(".")):
+                new SimulationWriter();
         m.initializeSimulation();
 
         writer.writeSimulation(m);
         writer.writeTimeStep(m);
+        writer.recordMetrics(m, 0);
         Runtime r = Runtime.getRuntime();
         r.addShutdownHook(new Thread(){
             @Override
@@ -60,8 +67,23 @@ public class HeadlessSimulation {
         for(int i = 0; i<m.constants.STEPS_PER_SIMULATE; i++){
             m.stepSimulation();
             writer.writeTimeStep(m);
+            checkpoint(writer, m, i + 2);
         }
 
         System.exit(0);
     }
+
+    /**
+     * Writes a checkpoint when the number of steps taken is a multiple of the CHECKPOINT_INTERVAL.
+     *
+     * @param writer writer of the running simulation.
+     * @param m the model.
+     * @param frames time points written so far, including the initial time point.
+     */
+    static void checkpoint(SimulationWriter writer, CortexModel m, int frames){
+        int interval = (int)m.constants.CHECKPOINT_INTERVAL;
+        if(interval>0 && (frames - 1)%interval==0){
+            writer.writeCheckpoint(m, frames);
+        }
+    }
 }
@@ -0,0 +1,237 @@
+package org.paluchlab.agentcortex.simulations;
+
+import org.paluchlab.agentcortex.io.MetricsFile;
+import org.paluchlab.agentcortex.io.Segments;
+import org.paluchlab.agentcortex.io.SimulationReader;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Runs every point of a SweepSpecification as a separate headless simulation process. Each point gets a directory
+ * containing its parameters.txt, and the replicate simulations are written into that directory with the tags
+ * run-0, run-1, ... so the output directory can be analysed directly with the HeadlessSubdirectoryCollector.
+ *
+ * Simulations are started with at most 'concurrency' processes running, and only while the sum of their heaps fits
+ * in the 'memory' budget. When a run finishes successfully a marker file, tag.complete, is created. Running the sweep
+ * again with the same specification skips completed runs, restarts runs that were interrupted with RestoreAndWrite and
+ * starts runs that were never started.
+ *
+ * Created on 10/19/26.
+ */
+public class ParameterSweep {
+    final static String COMPLETE_SUFFIX = ".complete";
+    final SweepSpecification spec;
+    final File output;
+    final Semaphore memory;
+
+    public ParameterSweep(SweepSpecification spec, File output){
+        this.spec = spec;
+        this.output = output;
+        this.memory = new Semaphore(spec.getMemory());
+    }
+
+    /**
+     * Creates the point directories and runs all of the simulations that have not completed.
+     *
+     * @return the number of runs that failed.
+     */
+    public int run() throws IOException, InterruptedException {
+        List<Map<String, String>> points = spec.expand();
+        writePointTable(points);
+
+        int threads = Math.max(1, spec.getConcurrency());
+        ExecutorService service = Executors.newFixedThreadPool(threads);
+        List<Future<Boolean>> results = new ArrayList<>();
+        int skipped = 0;
+        for(int i = 0; i<points.size(); i++){
+            File dir = new File(output, pointName(i));
+            writeParameters(dir, points.get(i));
+            for(int j = 0; j<spec.getRuns(); j++){
+                String tag = "run-" + j;
+                if(new File(dir, tag + COMPLETE_SUFFIX).exists()){
+                    skipped++;
+                    continue;
+                }
+                results.add(service.submit(()->runSimulation(dir, tag)));
+            }
+        }
+        System.out.printf("%d points, %d runs complete, %d runs scheduled.\n", points.size(), skipped, results.size());
+        service.shutdown();
+
+        int failed = 0;
+        for(Future<Boolean> result: results){
+            try {
+                if(!result.get()){
+                    failed++;
+                }
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+                failed++;
+            }
+        }
+        return failed;
+    }
+
+    static String pointName(int i){
+        return String.format("point-%04d", i);
+    }
+
+    /**
+     * Writes a table of every point and its values, for matching analysis output to the parameters.
+     */
+    void writePointTable(List<Map<String, String>> points) throws IOException {
+        if(!output.exists() && !output.mkdirs()){
+            throw new IOException("could not create output directory: " + output);
+        }
+        try(BufferedWriter w = Files.newBufferedWriter(
+                new File(output, "sweep-points.txt").toPath(), Charset.forName("UTF8")
+        )){
+            w.write("#point");
+            if(points.size()>0){
+                for(String name: points.get(0).keySet()){
+                    w.write("\t" + name);
+                }
+            }
+            w.write("\n");
+            for(int i = 0; i<points.size(); i++){
+                w.write(pointName(i));
+                for(String value: points.get(i).values()){
+                    w.write("\t" + value);
+                }
+                w.write("\n");
+            }
+        }
+    }
+
+    /**
+     * Creates the point directory and parameters file. An existing parameters file is kept, and a warning is printed
+     * if it does not match the specification.
+     */
+    void writeParameters(File dir, Map<String, String> point) throws IOException{
+        if(!dir.exists() && !dir.mkdirs()){
+            throw new IOException("could not create point directory: " + dir);
+        }
+        StringBuilder builder = new StringBuilder("#Constant\tValue\n");
+        for(Map.Entry<String, String> entry: point.entrySet()){
+            builder.append(entry.getKey()).append('\t').append(entry.getValue()).append('\n');
+        }
+        File parameters = new File(dir, "parameters.txt");
+        String text = builder.toString();
+        if(parameters.exists()){
+            String existing = new String(Files.readAllBytes(parameters.toPath()), Charset.forName("UTF8"));
+            if(!existing.equals(text)){
+                System.err.println("warning: " + parameters + " does not match the sweep specification, keeping it.");
+            }
+            return;
+        }
+        Files.write(parameters.toPath(), text.getBytes(Charset.forName("UTF8")));
+    }
+
+    /**
+     * Runs, or resumes, one simulation while holding its share of the memory budget.
+     *
+     * @param dir point directory.
+     * @param tag tag of the simulation.
+     * @return true if the simulation process finished successfully.
+     */
+    boolean runSimulation(File dir, String tag) throws IOException, InterruptedException {
+        memory.acquire(Math.min(spec.getHeap(), spec.getMemory()));
+        try {
+            List<String> command = new ArrayList<>();
+            command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+            command.add("-Xmx" + spec.getHeap() + "m");
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+
+            File lock = new File(dir, tag + SimulationReader.lock_suffix);
+            File simulation = new File(dir, tag + "-simulation.txt");
+            if(lock.exists() && SimulationReader.isValidSimulationFile(simulation) && hasFrames(dir, tag)){
+                //interrupted run, continue from where it was left.
+                Files.delete(lock.toPath());
+                command.add(RestoreAndWrite.class.getName());
+                command.add(simulation.getName());
+            } else {
+                deletePartialRun(dir, tag);
+                command.add(HeadlessSimulation.class.getName());
+                command.add("parameters.txt");
+                command.add(tag);
+            }
+
+            File log = new File(dir, tag + ".log");
+            Process process = new ProcessBuilder(command)
+                    .directory(dir)
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.appendTo(log))
+                    .start();
+            int status = process.waitFor();
+            if(status!=0){
+                System.err.println(dir.getName() + "/" + tag + " exited with status " + status);
+                return false;
+            }
+            Files.write(
+                    new File(dir, tag + COMPLETE_SUFFIX).toPath(),
+                    new byte[0],
+                    StandardOpenOption.CREATE
+            );
+            System.out.println("finished: " + dir.getName() + "/" + tag);
+            return true;
+        } finally{
+            memory.release(Math.min(spec.getHeap(), spec.getMemory()));
+        }
+    }
+
+    static boolean hasFrames(File dir, String tag){
+        File rods = new File(dir, tag + "-rods.dat");
+        File interactions = new File(dir, tag + "-interactions.dat");
+        return rods.length()>0 && interactions.length()>0;
+    }
+
+    /**
+     * Removes the files of a run that stopped before writing any time points, including every segment of the data
+     * files and the metrics, so a restart does not append to them.
+     */
+    static void deletePartialRun(File dir, String tag) throws IOException {
+        File simulation = new File(dir, tag + "-simulation.txt");
+        Segments.deleteDataFiles(simulation);
+        Files.deleteIfExists(MetricsFile.getMetricsFile(simulation).toPath());
+        String[] tails = {SimulationReader.lock_suffix, "-simulation.txt", "-checkpoint.dat", "-index.dat", "-trajectories.dat"};
+        for(String tail: tails){
+            Files.deleteIfExists(new File(dir, tag + tail).toPath());
+        }
+    }
+
+    /**
+     * Expands a sweep file and runs it.
+     *
+     * @param args sweep specification and output directory.
+     */
+    public static void main(String[] args) throws Exception{
+        if(args.length<2){
+            System.out.println("you must supply a sweep specification and an output directory eg:");
+            System.out.println("ParameterSweep sweep.txt output");
+            System.exit(0);
+        }
+        SweepSpecification spec = SweepSpecification.load(Paths.get(args[0]));
+        ParameterSweep sweep = new ParameterSweep(spec, new File(args[1]));
+        int failed = sweep.run();
+        if(failed>0){
+            System.err.println(failed + " runs failed, run the sweep again to retry them.");
+            System.exit(-1);
+        }
+        System.exit(0);
+    }
+}
@@ -1,13 +1,19 @@
 package org.paluchlab.agentcortex.simulations;
 
 import org.paluchlab.agentcortex.CortexModel;
+import org.paluchlab.agentcortex.io.Checkpoint;
 import org.paluchlab.agentcortex.io.SimulationReader;
 import org.paluchlab.agentcortex.io.SimulationWriter;
+import org.paluchlab.agentcortex.io.StorageFormat;
 
 import java.io.File;
+import java.io.IOException;
 
 /**
- * Restores a previously saved simulation, and begins simulating from where it left off.
+ * Restores a previously saved simulation, and begins simulating from where it left off. If the simulation has a
+ * checkpoint, the simulation continues exactly from the checkpoint and any time points written after it are replaced.
+ * Otherwise the model is recreated from the last complete time point, which is found without decoding the earlier
+ * time points, and any incomplete data after it is removed.
  *
  * Created on 1/21/15.
  */
@@ -20,17 +26,69 @@ public class RestoreAndWrite {
         }
         //SimulationReader r = SimulationReader.fromLockFile(new File(args[0]));
         File simFile = new File(args[0]);
-        SimulationReader r = SimulationReader.fromSimulationFile(simFile);
-        CortexModel m = r.model;
-        m.setTimePoint(r.getTimePoint(r.getPointCount()-1));
+        CortexModel m = null;
+        String tag = null;
+        int stepsTaken = 0;
+        StorageFormat format = null;
 
-        SimulationWriter writer = new SimulationWriter(r.getTag(), simFile.getParentFile());
+        File checkpointFile = Checkpoint.getCheckpointFile(simFile);
+        if(checkpointFile.exists()){
+            SimulationReader r = SimulationReader.fromSimulationFile(simFile, false);
+            try {
+                Checkpoint checkpoint = Checkpoint.restore(r.model, checkpointFile);
+                if(checkpoint.truncateData(r.getRodsFile(), r.getInteractionsFile())){
+                    m = r.model;
+                    tag = r.getTag();
+                    format = r.getFormat();
+                    stepsTaken = checkpoint.frames - 1;
+                } else{
+                    System.err.println("checkpoint is newer than the data files, restoring from the last time point.");
+                }
+            } catch (IOException e) {
+                System.err.println("failed to restore checkpoint, restoring from the last time point.");
+                e.printStackTrace();
+            }
+        }
+
+        if(m==null){
+            //only the chunk headers are read, and the last complete time point is decoded.
+            SimulationReader r = SimulationReader.fromSimulationFile(simFile, false);
+            r.indexRodsAndInteractions();
+            int last = r.getLastValidPoint();
+            if(last<0){
+                System.err.println("no complete time points to restore from: " + simFile);
+                System.exit(-1);
+            }
+            try {
+                r.truncateAfter(last);
+            } catch (IOException e) {
+                System.err.println("could not remove incomplete time points.");
+                e.printStackTrace();
+                System.exit(-1);
+            }
+            m = r.model;
+            m.setTimePoint(r.getTimePoint(last));
+            tag = r.getTag();
+            format = r.getFormat();
+            stepsTaken = last;
+        }
 
-        int stepsTaken = r.getPointCount() - 1;
+        final SimulationWriter writer = new SimulationWriter(tag, simFile.getAbsoluteFile().getParentFile());
+        writer.setFormat(format);
+        writer.recordMetrics(m, stepsTaken);
+        Runtime.getRuntime().addShutdownHook(new Thread(){
+            @Override
+            public void run(){
+                System.out.println("shutting down");
+                writer.close();
+                System.out.println("successfully closed");
+            }
+        });
 
         for(int i = stepsTaken; i<m.constants.STEPS_PER_SIMULATE; i++){
             m.stepSimulation();
             writer.writeTimeStep(m);
+            HeadlessSimulation.checkpoint(writer, m, i + 2);
         }
 
         System.exit(0);
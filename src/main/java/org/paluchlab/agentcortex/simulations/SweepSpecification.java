@@ -0,0 +1,308 @@
+package org.paluchlab.agentcortex.simulations;
+
+import org.paluchlab.agentcortex.ModelConstants;
+import org.paluchlab.agentcortex.io.SimulationReader;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Declarative description of a parameter sweep. A sweep file has the same tagged layout as a simulation file, a
+ * section of sweep settings and a section of parameters, eg:
+ *
+ * <pre>
+ * &lt;sweep&gt;
+ * runs         3
+ * samples      10
+ * seed         1
+ * concurrency  4
+ * memory       8192
+ * heap         1024
+ * &lt;/sweep&gt;
+ * &lt;parameters&gt;
+ * filaments                    fixed     400
+ * K_x                          values    50  100 150
+ * ACTIN_LENGTH                 range     1.0 3.0 0.5
+ * THICKNESS                    linspace  0.5 1.0 3
+ * CROSS_LINK_BIND_PROBABILITY  random    0.1 0.5
+ * &lt;/parameters&gt;
+ * </pre>
+ *
+ * Every parameter name must be a field of ModelConstants. The grid axes, values, range and linspace, are expanded as
+ * a cartesian product. Each grid point is sampled 'samples' times, and random axes are drawn uniformly for each sample
+ * using the seeded generator, so the same file always expands to the same points.
+ *
+ * Created on 10/19/26.
+ */
+public class SweepSpecification {
+    final static String sweep_tag = "sweep";
+    final static String parameter_tag = "parameters";
+
+    /** replicate simulations for each point. */
+    int runs = 1;
+    /** random samples drawn for each grid point. */
+    int samples = 1;
+    long seed = 1;
+    /** maximum number of simulations running at the same time. */
+    int concurrency = Runtime.getRuntime().availableProcessors();
+    /** total heap, in MB, that the running simulations may reserve. */
+    int memory = (int)(Runtime.getRuntime().maxMemory()>>20);
+    /** heap, in MB, given to each simulation. */
+    int heap = 1024;
+
+    final List<Axis> axes = new ArrayList<>();
+
+    /**
+     * Reads a sweep file.
+     *
+     * @param path location of sweep specification.
+     * @return the parsed specification.
+     * @throws IOException if the file cannot be read, or contains an invalid line.
+     */
+    public static SweepSpecification load(Path path) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try(BufferedReader r = Files.newBufferedReader(path, Charset.forName("UTF8"))){
+            String s;
+            while((s=r.readLine())!=null){
+                s = s.trim();
+                if(s.isEmpty()||s.charAt(0)=='#'){
+                    continue;
+                }
+                lines.add(s);
+            }
+        }
+        SweepSpecification spec = new SweepSpecification();
+        for(String line: SimulationReader.getTagSection(lines, sweep_tag)){
+            spec.setSetting(line.split("\\s+"));
+        }
+        for(String line: SimulationReader.getTagSection(lines, parameter_tag)){
+            spec.axes.add(Axis.parse(line.split("\\s+")));
+        }
+        return spec;
+    }
+
+    private void setSetting(String[] pair) throws IOException{
+        if(pair.length!=2){
+            throw new IOException("sweep settings are key value pairs: " + String.join(" ", pair));
+        }
+        try{
+            switch(pair[0]){
+                case "runs":
+                    runs = Integer.parseInt(pair[1]);
+                    break;
+                case "samples":
+                    samples = Integer.parseInt(pair[1]);
+                    break;
+                case "seed":
+                    seed = Long.parseLong(pair[1]);
+                    break;
+                case "concurrency":
+                    concurrency = Integer.parseInt(pair[1]);
+                    break;
+                case "memory":
+                    memory = Integer.parseInt(pair[1]);
+                    break;
+                case "heap":
+                    heap = Integer.parseInt(pair[1]);
+                    break;
+                default:
+                    throw new IOException("unknown sweep setting: " + pair[0]);
+            }
+        } catch(NumberFormatException e){
+            throw new IOException("invalid sweep setting: " + pair[0] + "\t" + pair[1], e);
+        }
+    }
+
+    /**
+     * Expands the specification into the list of points. The order is deterministic, the first axis varies the
+     * slowest.
+     *
+     * @return constant name to value, as it will be written to a parameters file.
+     */
+    public List<Map<String, String>> expand(){
+        List<Map<String, String>> grid = new ArrayList<>();
+        grid.add(new LinkedHashMap<>());
+        for(Axis axis: axes){
+            if(axis.isRandom()){
+                continue;
+            }
+            List<Map<String, String>> next = new ArrayList<>();
+            for(Map<String, String> point: grid){
+                for(double v: axis.values){
+                    Map<String, String> p = new LinkedHashMap<>(point);
+                    p.put(axis.name, axis.format(v));
+                    next.add(p);
+                }
+            }
+            grid = next;
+        }
+
+        Random random = new Random(seed);
+        List<Map<String, String>> points = new ArrayList<>();
+        for(Map<String, String> point: grid){
+            for(int i = 0; i<samples; i++){
+                Map<String, String> p = new LinkedHashMap<>(point);
+                for(Axis axis: axes){
+                    if(axis.isRandom()){
+                        p.put(axis.name, axis.format(axis.sample(random)));
+                    }
+                }
+                points.add(p);
+            }
+        }
+        return points;
+    }
+
+    public int getRuns(){
+        return runs;
+    }
+
+    public int getConcurrency(){
+        return concurrency;
+    }
+
+    public int getMemory(){
+        return memory;
+    }
+
+    public int getHeap(){
+        return heap;
+    }
+
+    /**
+     * One swept constant, either a list of grid values or a uniform random range.
+     */
+    static class Axis{
+        final String name;
+        final Class<?> type;
+        double[] values;
+        double min, max;
+        boolean random;
+
+        Axis(String name, Class<?> type){
+            this.name = name;
+            this.type = type;
+        }
+
+        static Axis parse(String[] tokens) throws IOException {
+            if(tokens.length<3){
+                throw new IOException("parameter lines require a name, mode and value: " + String.join(" ", tokens));
+            }
+            Field f;
+            try {
+                f = ModelConstants.class.getDeclaredField(tokens[0]);
+            } catch (NoSuchFieldException e) {
+                throw new IOException("no such constant: " + tokens[0]);
+            }
+            Axis axis = new Axis(tokens[0], f.getType());
+            if(axis.type==boolean.class){
+                if(!tokens[1].equals("fixed")){
+                    throw new IOException("boolean constants can only be fixed: " + tokens[0]);
+                }
+                axis.values = new double[]{Boolean.parseBoolean(tokens[2])?1:0};
+                return axis;
+            }
+            try{
+                switch(tokens[1]){
+                    case "fixed":
+                        axis.values = new double[]{Double.parseDouble(tokens[2])};
+                        break;
+                    case "values":
+                        axis.values = new double[tokens.length - 2];
+                        for(int i = 2; i<tokens.length; i++){
+                            axis.values[i-2] = Double.parseDouble(tokens[i]);
+                        }
+                        break;
+                    case "range":
+                        requireCount(tokens, 5);
+                        axis.values = range(
+                                Double.parseDouble(tokens[2]),
+                                Double.parseDouble(tokens[3]),
+                                Double.parseDouble(tokens[4])
+                        );
+                        break;
+                    case "linspace":
+                        requireCount(tokens, 5);
+                        axis.values = linspace(
+                                Double.parseDouble(tokens[2]),
+                                Double.parseDouble(tokens[3]),
+                                Integer.parseInt(tokens[4])
+                        );
+                        break;
+                    case "random":
+                        requireCount(tokens, 4);
+                        axis.random = true;
+                        axis.min = Double.parseDouble(tokens[2]);
+                        axis.max = Double.parseDouble(tokens[3]);
+                        break;
+                    default:
+                        throw new IOException("unknown sweep mode: " + tokens[1]);
+                }
+            } catch(NumberFormatException e){
+                throw new IOException("invalid value for: " + tokens[0], e);
+            }
+            return axis;
+        }
+
+        static void requireCount(String[] tokens, int count) throws IOException {
+            if(tokens.length!=count){
+                throw new IOException(tokens[1] + " requires " + (count - 2) + " values: " + String.join(" ", tokens));
+            }
+        }
+
+        /**
+         * Inclusive range, the end point is included when it falls on a step within rounding.
+         */
+        static double[] range(double start, double stop, double step) throws IOException {
+            if(step==0 || (stop-start)/step<0){
+                throw new IOException("range step does not reach the end point");
+            }
+            int n = (int)Math.floor((stop - start)/step + 1e-9) + 1;
+            double[] v = new double[n];
+            for(int i = 0; i<n; i++){
+                v[i] = start + i*step;
+            }
+            return v;
+        }
+
+        static double[] linspace(double start, double stop, int n) throws IOException{
+            if(n<1){
+                throw new IOException("linspace requires at least one point");
+            }
+            double[] v = new double[n];
+            for(int i = 0; i<n; i++){
+                v[i] = n==1 ? start : start + (stop - start)*i/(n-1);
+            }
+            return v;
+        }
+
+        boolean isRandom(){
+            return random;
+        }
+
+        double sample(Random r){
+            return min + (max - min)*r.nextDouble();
+        }
+
+        /**
+         * Formats the value so that SimulationReader#setConstant can parse it for the field type.
+         */
+        String format(double v){
+            if(type==int.class){
+                return Long.toString(Math.round(v));
+            } else if(type==boolean.class){
+                return Boolean.toString(v!=0);
+            }
+            return Double.toString(v);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package org.paluchlab.agentcortex.analysis;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.paluchlab.agentcortex.CortexModel;
+import org.paluchlab.agentcortex.io.FrameView;
+import org.paluchlab.agentcortex.io.MappedSimulationReader;
+import org.paluchlab.agentcortex.io.SimulationFixtures;
+import org.paluchlab.agentcortex.io.SimulationReader;
+import org.paluchlab.agentcortex.io.TimePoint;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The measurements of FrameMeasurements are exactly the same as the measurements of CortexModel for the same time
+ * point.
+ *
+ * Created on 10/19/26.
+ */
+public class FrameMeasurementsTest {
+    final static int FRAMES = 4;
+
+    /**
+     * Runs a small simulation, every crosslinker that can bind does, so both kinds of interaction have forces.
+     */
+    static File writeSimulation(File directory){
+        return SimulationFixtures.simulate(
+                directory, FRAMES, "filaments 60", "motors 10", "STEPS_PER_FRAME 5", "CROSS_LINK_BIND_PROBABILITY 1"
+        );
+    }
+
+    @Test
+    public void testSameAsModel() throws IOException {
+        File directory = SimulationFixtures.createDirectory();
+        try{
+            File sim = writeSimulation(directory);
+            SimulationReader reader = SimulationReader.fromSimulationFile(sim);
+            Assert.assertEquals(FRAMES, reader.getPointCount());
+            CortexModel model = new CortexModel(reader.getConstants());
+            FrameMeasurements measurements = new FrameMeasurements();
+            double bindings = 0;
+            double links = 0;
+            try(MappedSimulationReader mapped = new MappedSimulationReader(reader)){
+                FrameView view = mapped.createView();
+                for(int i = 0; i<FRAMES; i++){
+                    TimePoint tp = reader.getTimePoint(i);
+                    model.setTimePoint(tp, false);
+                    mapped.readFrame(i, view);
+
+                    List<double[]> expected = new ArrayList<>();
+                    model.measureTension(expected);
+                    model.measureOrientation(expected);
+                    Assert.assertArrayEquals("tension " + i, expected.get(0), measurements.measureTension(view), 0);
+                    Assert.assertArrayEquals("orientation " + i, expected.get(1), measurements.measureOrientation(view), 0);
+                    Assert.assertArrayEquals(
+                            "positions " + i,
+                            model.measureAverageActinPositions(),
+                            measurements.measureAverageActinPositions(view),
+                            0
+                    );
+                    bindings += expected.get(0)[6];
+                    links += tp.getLinkers().size();
+                }
+            }
+            //the forces of both kinds of interaction have been compared.
+            Assert.assertTrue(bindings>0);
+            Assert.assertTrue(links>0);
+        } finally{
+            SimulationFixtures.delete(directory);
+        }
+    }
+}
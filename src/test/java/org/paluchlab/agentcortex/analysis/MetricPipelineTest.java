@@ -0,0 +1,104 @@
+package org.paluchlab.agentcortex.analysis;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.paluchlab.agentcortex.io.SimulationFixtures;
+import org.paluchlab.agentcortex.io.SimulationReader;
+import org.paluchlab.agentcortex.io.TimePoint;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Sequential and parallel runs of a MetricPipeline collect the same measurements.
+ *
+ * Created on 10/19/26.
+ */
+public class MetricPipelineTest {
+    File directory;
+    File sim;
+
+    @Before
+    public void writeSimulation() throws IOException {
+        directory = SimulationFixtures.createDirectory();
+        sim = FrameMeasurementsTest.writeSimulation(directory);
+    }
+
+    @After
+    public void deleteDirectory(){
+        SimulationFixtures.delete(directory);
+    }
+
+    static MeasurementSeries[] measure(SimulationReader reader, int threads, boolean views){
+        MetricPipeline pipeline = new MetricPipeline();
+        MeasurementSeries[] series = {
+                pipeline.add(MeasurementSeries.tension()),
+                pipeline.add(MeasurementSeries.orientation()),
+                pipeline.add(MeasurementSeries.averageActinPositions())
+        };
+        if(!views){
+            pipeline.add(MeasurementSeries.boundHeads());
+        }
+        Assert.assertEquals(views, pipeline.measuresViews());
+        Assert.assertEquals(reader.getPointCount(), pipeline.run(reader, threads));
+        return series;
+    }
+
+    /**
+     * The time points are cached before the runs, the threads measuring models decode their own time points instead
+     * of sharing the cached ones.
+     */
+    @Test
+    public void testParallelRuns(){
+        SimulationReader reader = SimulationReader.fromSimulationFile(sim);
+        for(int i = 0; i<reader.getPointCount(); i++){
+            TimePoint cached = reader.getTimePoint(i);
+            Assert.assertSame(cached, reader.getTimePoint(i));
+        }
+        reader.parallelStream(TimePoint.ALL, false).forEach(
+                tp -> Assert.assertNotSame(reader.getTimePoint(tp.getIndex()), tp)
+        );
+        MeasurementSeries[] sequential = measure(reader, 1, false);
+        MeasurementSeries[] models = measure(reader, 3, false);
+        MeasurementSeries[] views = measure(reader, 3, true);
+        for(int i = 0; i<sequential.length; i++){
+            List<double[]> expected = sequential[i].getValues();
+            Assert.assertEquals(FrameMeasurementsTest.FRAMES, expected.size());
+            for(int frame = 0; frame<expected.size(); frame++){
+                Assert.assertArrayEquals(expected.get(frame), models[i].getValues().get(frame), 0);
+                Assert.assertArrayEquals(expected.get(frame), views[i].getValues().get(frame), 0);
+            }
+        }
+    }
+
+    /**
+     * A metric that fails stops the run instead of returning the time points measured before it failed.
+     */
+    @Test
+    public void testFailedMetric(){
+        SimulationReader reader = SimulationReader.fromSimulationFile(sim);
+        for(boolean views: new boolean[]{false, true}){
+            MetricPipeline pipeline = new MetricPipeline();
+            MeasurementSeries tension = pipeline.add(MeasurementSeries.tension());
+            pipeline.add(new MeasurementSeries(
+                    TimePoint.ALL,
+                    (model, output) -> {
+                        throw new ArithmeticException("failed");
+                    },
+                    views ? (measurements, view) -> {
+                        throw new ArithmeticException("failed");
+                    } : null
+            ));
+            try{
+                pipeline.run(reader, 2);
+                Assert.fail("the run did not fail.");
+            } catch(IllegalStateException e){
+                Assert.assertTrue(e.getCause() instanceof ArithmeticException);
+            }
+            Assert.assertEquals(0, tension.getValues().size());
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package org.paluchlab.agentcortex.analysis;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.paluchlab.agentcortex.io.MappedSimulationReader;
+import org.paluchlab.agentcortex.io.SimulationFixtures;
+import org.paluchlab.agentcortex.io.SimulationReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * Exporting a simulation as .npy arrays, see NumpyExporter.
+ *
+ * Created on 10/19/26.
+ */
+public class NumpyExporterTest {
+    File directory;
+    File sim;
+
+    @Before
+    public void writeSimulation() throws IOException {
+        directory = SimulationFixtures.createDirectory();
+        sim = FrameMeasurementsTest.writeSimulation(directory);
+    }
+
+    @After
+    public void deleteDirectory(){
+        SimulationFixtures.delete(directory);
+    }
+
+    @Test
+    public void testExport() throws IOException {
+        File output = new File(directory, "npy");
+        try(MappedSimulationReader reader = new MappedSimulationReader(SimulationReader.fromSimulationFile(sim))){
+            List<File> files = NumpyExporter.export(reader, output);
+            Assert.assertEquals(10, files.size());
+            for(File file: files){
+                Assert.assertTrue(file.getName(), file.length()>0);
+            }
+        }
+    }
+
+    /**
+     * An array that cannot be created stops the export with the original cause, and the arrays created before it are
+     * deleted.
+     */
+    @Test
+    public void testFailedExportDeletesArrays() throws IOException {
+        File output = new File(directory, "npy");
+        File blocked = new File(output, "links.npy");
+        Files.createDirectories(blocked.toPath());
+        try(MappedSimulationReader reader = new MappedSimulationReader(SimulationReader.fromSimulationFile(sim))){
+            NumpyExporter.export(reader, output);
+            Assert.fail("the export did not fail.");
+        } catch(IOException e){
+            Assert.assertEquals(0, e.getSuppressed().length);
+        }
+        String[] left = output.list();
+        Assert.assertEquals(1, left.length);
+        Assert.assertEquals("links.npy", left[0]);
+    }
+}
@@ -0,0 +1,145 @@
+package org.paluchlab.agentcortex.interactions;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Checks FilamentAdjacency against a HashSet of the pairs.
+ *
+ * Created on 10/19/26.
+ */
+public class FilamentAdjacencyTest {
+
+    static List<Integer> reference(Set<Long> pairs, int f){
+        List<Integer> neighbours = new ArrayList<>();
+        for(long key: pairs){
+            int a = (int)(key>>>32);
+            int b = (int)key;
+            if(a==f){
+                neighbours.add(b);
+            } else if(b==f){
+                neighbours.add(a);
+            }
+        }
+        Collections.sort(neighbours);
+        return neighbours;
+    }
+
+    static void assertSame(Set<Long> pairs, FilamentAdjacency adjacency, int filaments){
+        Assert.assertEquals(pairs.size(), adjacency.size());
+        for(int f = 0; f<filaments; f++){
+            List<Integer> expected = reference(pairs, f);
+            List<Integer> found = new ArrayList<>();
+            adjacency.forEachNeighbour(f, found::add);
+            Collections.sort(found);
+            Assert.assertEquals("filament " + f, expected, found);
+            Assert.assertEquals(expected.size(), adjacency.degree(f));
+            List<Integer> indexed = new ArrayList<>();
+            for(int k = 0; k<adjacency.degree(f); k++){
+                indexed.add(adjacency.getNeighbour(f, k));
+            }
+            Collections.sort(indexed);
+            Assert.assertEquals(expected, indexed);
+        }
+    }
+
+    /**
+     * Random adds and removes, the table grows several times and the pairs are dense enough that the probes collide.
+     */
+    @Test
+    public void testRandomOperations(){
+        for(long seed = 1; seed<=4; seed++){
+            Random random = new Random(seed);
+            int filaments = 20 + 30*(int)seed;
+            FilamentAdjacency adjacency = new FilamentAdjacency();
+            Set<Long> pairs = new HashSet<>();
+            int largest = 0;
+            for(int op = 0; op<20000; op++){
+                int a = random.nextInt(filaments);
+                int b = random.nextInt(filaments - 1);
+                if(b>=a){
+                    b++;
+                }
+                long key = FilamentAdjacency.key(a, b);
+                //add more often than remove at first, so the table grows, then remove more often.
+                int r = random.nextInt(10);
+                boolean adding = op<10000 ? r<6 : r<3;
+                if(adding){
+                    Assert.assertEquals(pairs.add(key), adjacency.add(a, b));
+                } else if(r<9){
+                    Assert.assertEquals(pairs.remove(key), adjacency.remove(b, a));
+                }
+                Assert.assertEquals(pairs.contains(key), adjacency.contains(a, b));
+                Assert.assertEquals(pairs.contains(key), adjacency.contains(b, a));
+                largest = Math.max(largest, pairs.size());
+                if(op%1000==0){
+                    assertSame(pairs, adjacency, filaments);
+                }
+            }
+            assertSame(pairs, adjacency, filaments);
+            Assert.assertTrue(adjacency.keys.length>=2*largest);
+            Assert.assertTrue(adjacency.keys.length>16);
+            for(long key: pairs){
+                Assert.assertTrue(adjacency.remove((int)(key>>>32), (int)key));
+            }
+            assertSame(Collections.emptySet(), adjacency, filaments);
+        }
+    }
+
+    /**
+     * Pairs whose home is the last slot of the table wrap around to the start, and are moved back when a pair before
+     * them is removed.
+     */
+    @Test
+    public void testWraparound(){
+        FilamentAdjacency adjacency = new FilamentAdjacency();
+        int mask = adjacency.keys.length - 1;
+        List<int[]> last = new ArrayList<>();
+        List<int[]> zero = new ArrayList<>();
+        for(int a = 0; a<200 && (last.size()<3 || zero.size()<1); a++){
+            int home = FilamentAdjacency.hash(FilamentAdjacency.key(a, a + 1))&mask;
+            if(home==mask && last.size()<3){
+                last.add(new int[]{a, a + 1});
+            } else if(home==0 && zero.size()<1){
+                zero.add(new int[]{a, a + 1});
+            }
+        }
+        Assert.assertEquals(3, last.size());
+        Assert.assertEquals(1, zero.size());
+
+        Set<Long> pairs = new HashSet<>();
+        for(int[] pair: last){
+            Assert.assertTrue(adjacency.add(pair[0], pair[1]));
+            pairs.add(FilamentAdjacency.key(pair[0], pair[1]));
+        }
+        int[] home0 = zero.get(0);
+        Assert.assertTrue(adjacency.add(home0[0], home0[1]));
+        pairs.add(FilamentAdjacency.key(home0[0], home0[1]));
+        Assert.assertEquals(16, adjacency.keys.length);
+        //the pairs at home in the last slot occupy mask, 0 and 1, so the pair at home in 0 is in 2.
+        Assert.assertEquals(FilamentAdjacency.key(last.get(1)[0], last.get(1)[1]), adjacency.keys[0]);
+        Assert.assertEquals(FilamentAdjacency.key(home0[0], home0[1]), adjacency.keys[2]);
+
+        Assert.assertTrue(adjacency.remove(last.get(0)[0], last.get(0)[1]));
+        pairs.remove(FilamentAdjacency.key(last.get(0)[0], last.get(0)[1]));
+        //the wrapped pairs move back towards their home, the pair at home in 0 moves into 1.
+        Assert.assertEquals(FilamentAdjacency.key(last.get(1)[0], last.get(1)[1]), adjacency.keys[mask]);
+        Assert.assertEquals(FilamentAdjacency.key(last.get(2)[0], last.get(2)[1]), adjacency.keys[0]);
+        Assert.assertEquals(FilamentAdjacency.key(home0[0], home0[1]), adjacency.keys[1]);
+        Assert.assertEquals(FilamentAdjacency.EMPTY, adjacency.keys[2]);
+        assertSame(pairs, adjacency, 201);
+
+        Assert.assertTrue(adjacency.remove(last.get(2)[0], last.get(2)[1]));
+        pairs.remove(FilamentAdjacency.key(last.get(2)[0], last.get(2)[1]));
+        Assert.assertEquals(FilamentAdjacency.key(home0[0], home0[1]), adjacency.keys[0]);
+        Assert.assertFalse(adjacency.contains(last.get(0)[0], last.get(0)[1]));
+        assertSame(pairs, adjacency, 201);
+    }
+}
@@ -0,0 +1,114 @@
+package org.paluchlab.agentcortex.io;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Removing chunks from an elements file, see BinaryElementsFile.
+ *
+ * Created on 10/19/26.
+ */
+public class BinaryElementsFileTest {
+    final static int CHUNKS = 10;
+    File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = SimulationFixtures.createDirectory();
+    }
+
+    @After
+    public void deleteDirectory(){
+        SimulationFixtures.delete(directory);
+    }
+
+    /**
+     * Chunks of different sizes, with different contents.
+     */
+    static List<byte[]> createChunks(){
+        List<byte[]> chunks = new ArrayList<>();
+        for(int i = 0; i<CHUNKS; i++){
+            byte[] chunk = new byte[17 + 31*i];
+            for(int j = 0; j<chunk.length; j++){
+                chunk[j] = (byte)(7*i + j);
+            }
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    static File write(File file, List<byte[]> chunks) throws IOException {
+        try(DataOutputStream out = new DataOutputStream(new FileOutputStream(file))){
+            for(byte[] chunk: chunks){
+                out.writeInt(chunk.length);
+                out.write(chunk);
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Removes the chunks, then checks the chunks that are left are unchanged, in order, and the file is shorter by
+     * exactly the removed chunks and their sizes.
+     */
+    void assertRemoved(int... removed) throws IOException {
+        List<byte[]> chunks = createChunks();
+        File file = write(new File(directory, "chunks.dat"), chunks);
+        long length = file.length();
+        long removedLength = 0;
+        try(BinaryElementsFile elements = new BinaryElementsFile(file.toPath(), true)){
+            while(elements.skipNextChunk()>=0){
+                //all of the chunks are found before any are removed.
+            }
+            Assert.assertEquals(CHUNKS, elements.getLineCount());
+            for(int index: removed){
+                elements.removeLine(index);
+                removedLength += 4 + chunks.get(index).length;
+            }
+        }
+        Assert.assertEquals(length - removedLength, file.length());
+
+        List<byte[]> expected = new ArrayList<>();
+        for(int i = 0; i<CHUNKS; i++){
+            final int index = i;
+            if(Arrays.stream(removed).noneMatch(r -> r==index)){
+                expected.add(chunks.get(i));
+            }
+        }
+        try(BinaryElementsFile elements = new BinaryElementsFile(file.toPath())){
+            for(byte[] chunk: expected){
+                Assert.assertArrayEquals(chunk, elements.readNextChunk());
+            }
+            Assert.assertNull(elements.readNextChunk());
+        }
+    }
+
+    @Test
+    public void testRemoveChunks() throws IOException {
+        assertRemoved(0);
+        assertRemoved(4);
+        assertRemoved(CHUNKS - 1);
+        assertRemoved(5, 6);
+        //the first, a middle, two adjacent and the last chunk, marked out of order.
+        assertRemoved(CHUNKS - 1, 3, 0, 6, 7);
+    }
+
+    @Test
+    public void testRemoveAll() throws IOException {
+        int[] all = new int[CHUNKS];
+        for(int i = 0; i<CHUNKS; i++){
+            all[i] = i;
+        }
+        assertRemoved(all);
+    }
+}
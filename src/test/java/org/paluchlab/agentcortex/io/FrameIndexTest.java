@@ -0,0 +1,158 @@
+package org.paluchlab.agentcortex.io;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Index and recovery of the time points of written simulations, see FrameIndex.
+ *
+ * Created on 10/19/26.
+ */
+public class FrameIndexTest {
+    final static int FRAMES = 8;
+    File directory;
+    List<double[]> rods = new ArrayList<>();
+    List<String> interactions = new ArrayList<>();
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = SimulationFixtures.createDirectory();
+    }
+
+    @After
+    public void deleteDirectory(){
+        SimulationFixtures.delete(directory);
+    }
+
+    static void assertIndexed(File index, List<TimePointKey> keys) throws IOException {
+        Assert.assertEquals(FrameIndex.HEADER + FrameIndex.RECORD*keys.size(), index.length());
+        Assert.assertTrue(FrameIndex.matches(index, keys));
+    }
+
+    /**
+     * An index that is missing the last records, eg. the writer stopped before appending them, is rewritten when the
+     * time points past its end are found.
+     */
+    @Test
+    public void testShortIndexIsRewritten() throws IOException {
+        File sim = SimulationFixtures.write(directory, FRAMES, rods, interactions);
+        File index = FrameIndex.getIndexFile(sim);
+        try(RandomAccessFile file = new RandomAccessFile(index, "rw")){
+            file.setLength(FrameIndex.HEADER + 3*FrameIndex.RECORD);
+        }
+
+        SimulationReader reader = SimulationReader.fromSimulationFile(sim);
+        Assert.assertEquals(FRAMES, reader.getPointCount());
+        assertIndexed(index, reader.keys);
+        Assert.assertEquals(interactions.get(FRAMES - 1), SimulationFixtures.interactions(
+                reader.getTimePoint(FRAMES - 1).getBindings(), reader.getTimePoint(FRAMES - 1).getLinkers()
+        ));
+    }
+
+    /**
+     * An index that does not match the data files is replaced by the time points that were found by walking the chunks.
+     */
+    @Test
+    public void testMismatchedIndexIsRewritten() throws IOException {
+        File sim = SimulationFixtures.write(directory, FRAMES, rods, interactions);
+        File index = FrameIndex.getIndexFile(sim);
+        List<TimePointKey> keys = FrameIndex.read(index);
+        keys.get(0).rodPosition += 4;
+        FrameIndex.write(index, keys);
+
+        SimulationReader reader = SimulationReader.fromSimulationFile(sim);
+        Assert.assertEquals(FRAMES, reader.getPointCount());
+        assertIndexed(index, reader.keys);
+        Assert.assertEquals(4, reader.keys.get(0).rodPosition);
+    }
+
+    /**
+     * Cuts the interactions file in the middle of the last chunk, and corrupts the crc of the rods of the time point
+     * before it, so the last committed time point is FRAMES - 3.
+     *
+     * @return the keys of the time points as they were written.
+     */
+    static List<TimePointKey> damage(File sim) throws IOException {
+        List<TimePointKey> keys = FrameIndex.read(FrameIndex.getIndexFile(sim));
+        Assert.assertEquals(FRAMES, keys.size());
+        SimulationReader reader = SimulationReader.fromSimulationFile(sim, false);
+        TimePointKey last = keys.get(FRAMES - 1);
+        try(RandomAccessFile file = new RandomAccessFile(reader.getInteractionsFile(), "rw")){
+            file.setLength(last.interactionPosition + last.interactionLength/2);
+        }
+        TimePointKey corrupt = keys.get(FRAMES - 2);
+        try(RandomAccessFile file = new RandomAccessFile(reader.getRodsFile(), "rw")){
+            long crc = corrupt.rodPosition + corrupt.rodLength - 4;
+            file.seek(crc);
+            int value = file.readInt();
+            file.seek(crc);
+            file.writeInt(~value);
+        }
+        return keys;
+    }
+
+    void assertRecovered(File sim, List<TimePointKey> written) throws IOException {
+        int committed = FRAMES - 2;
+        TimePointKey last = written.get(committed - 1);
+
+        SimulationReader reader = SimulationReader.fromSimulationFile(sim);
+        Assert.assertEquals(committed, reader.getPointCount());
+        long rodLength = reader.getRodsFile().length();
+        long interactionLength = reader.getInteractionsFile().length();
+
+        RemoveBrokenTimePoints.mode = RemoveBrokenTimePoints.ScanMode.doNothing;
+        RemoveBrokenTimePoints.LoadResult result = RemoveBrokenTimePoints.checkSimulationFile(sim.getPath());
+        Assert.assertFalse(result.success);
+        Assert.assertEquals(committed, result.committed);
+        Assert.assertEquals(rodLength, reader.getRodsFile().length());
+        Assert.assertEquals(interactionLength, reader.getInteractionsFile().length());
+
+        RemoveBrokenTimePoints.mode = RemoveBrokenTimePoints.ScanMode.modifyEnd;
+        result = RemoveBrokenTimePoints.checkSimulationFile(sim.getPath());
+        Assert.assertFalse(result.success);
+        Assert.assertEquals(committed, result.committed);
+        Assert.assertEquals(last.rodPosition + last.rodLength, reader.getRodsFile().length());
+        Assert.assertEquals(last.interactionPosition + last.interactionLength, reader.getInteractionsFile().length());
+        assertIndexed(FrameIndex.getIndexFile(sim), written.subList(0, committed));
+
+        result = RemoveBrokenTimePoints.checkSimulationFile(sim.getPath());
+        Assert.assertTrue(result.success);
+        reader = SimulationReader.fromSimulationFile(sim);
+        Assert.assertEquals(committed, reader.getPointCount());
+        for(int i = 0; i<committed; i++){
+            TimePoint tp = reader.getTimePoint(i);
+            Assert.assertArrayEquals(rods.get(i), SimulationFixtures.rods(tp.getFilaments(), tp.getMotors()), 0);
+            Assert.assertEquals(interactions.get(i), SimulationFixtures.interactions(tp.getBindings(), tp.getLinkers()));
+        }
+    }
+
+    /**
+     * The index still has records for the damaged time points, the last record fails to verify and the time points
+     * after the last committed one are walked and verified.
+     */
+    @Test
+    public void testRecoverWithIndex() throws IOException {
+        File sim = SimulationFixtures.write(directory, FRAMES, rods, interactions);
+        assertRecovered(sim, damage(sim));
+    }
+
+    /**
+     * Without an index every chunk is walked and verified.
+     */
+    @Test
+    public void testRecoverWithoutIndex() throws IOException {
+        File sim = SimulationFixtures.write(directory, FRAMES, rods, interactions);
+        List<TimePointKey> written = damage(sim);
+        Files.delete(FrameIndex.getIndexFile(sim).toPath());
+        assertRecovered(sim, written);
+    }
+}
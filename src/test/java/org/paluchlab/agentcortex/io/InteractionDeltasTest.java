@@ -0,0 +1,222 @@
+package org.paluchlab.agentcortex.io;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.paluchlab.agentcortex.ModelConstants;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Round trips of the interaction keyframes and deltas, see InteractionDeltas.
+ *
+ * Created on 10/19/26.
+ */
+public class InteractionDeltasTest {
+    final static int KEYFRAMES = 4;
+
+    /**
+     * Records of a complete interactions chunk, which are changed between frames.
+     */
+    static class Frame{
+        double time;
+        List<byte[]> bindings = new ArrayList<>();
+        List<byte[]> links = new ArrayList<>();
+
+        Frame(Random random, int bindingCount, int linkCount){
+            for(int i = 0; i<bindingCount; i++){
+                bindings.add(record(random, SimulationWriter.BINDING_BYTES));
+            }
+            for(int i = 0; i<linkCount; i++){
+                links.add(record(random, SimulationWriter.CROSSLINK_BYTES));
+            }
+        }
+
+        /**
+         * Changes a few records, adds crosslinks and sometimes removes the last binding.
+         */
+        void change(Random random, int frame){
+            time += 0.01;
+            for(int i = 0; i<bindings.size(); i++){
+                if(random.nextInt(4)==0){
+                    bindings.set(i, record(random, SimulationWriter.BINDING_BYTES));
+                }
+            }
+            if(frame%2==0){
+                links.add(record(random, SimulationWriter.CROSSLINK_BYTES));
+            }
+            if(frame%5==0){
+                bindings.remove(bindings.size() - 1);
+            }
+        }
+
+        /**
+         * Writes the complete chunk as the SimulationWriter prepares it for the encoder.
+         */
+        void write(ChunkBuffer full){
+            ByteBuffer buffer = full.begin(16 + SimulationWriter.BINDING_BYTES*bindings.size() + SimulationWriter.CROSSLINK_BYTES*links.size());
+            buffer.putDouble(time);
+            buffer.putInt(bindings.size());
+            for(byte[] record: bindings){
+                buffer.put(record);
+            }
+            buffer.putInt(links.size());
+            for(byte[] record: links){
+                buffer.put(record);
+            }
+            full.finish();
+        }
+
+        static byte[] record(Random random, int size){
+            byte[] record = new byte[size];
+            random.nextBytes(record);
+            return record;
+        }
+    }
+
+    @Test
+    public void testKeyframeIntervals() throws IOException {
+        Random random = new Random(1);
+        Frame frame = new Frame(random, 12, 5);
+        InteractionDeltas.Encoder encoder = new InteractionDeltas.Encoder(QuantizedRodsTest.format(0, KEYFRAMES));
+        InteractionDeltas.Decoder decoder = new InteractionDeltas.Decoder();
+        ChunkBuffer data = new ChunkBuffer();
+
+        for(int i = 0; i<3*KEYFRAMES + 2; i++){
+            if(i>0){
+                frame.change(random, i);
+            }
+            frame.write(encoder.full);
+            encoder.encode(data);
+            byte[] chunk = QuantizedRodsTest.chunk(data);
+            Assert.assertEquals("frame " + i, i%KEYFRAMES==0, InteractionDeltas.isKeyframe(chunk));
+            Assert.assertEquals(frame.links.size(), InteractionDeltas.getLinkCount(ByteBuffer.wrap(chunk)));
+
+            byte[] decoded = decoder.decode(chunk);
+            Assert.assertArrayEquals("frame " + i, QuantizedRodsTest.chunk(encoder.full), decoded);
+        }
+    }
+
+    /**
+     * Delta frames only store the changed records, so they are smaller than keyframes when little changes.
+     */
+    @Test
+    public void testDeltasAreSmaller(){
+        Random random = new Random(2);
+        Frame frame = new Frame(random, 50, 50);
+        InteractionDeltas.Encoder encoder = new InteractionDeltas.Encoder(QuantizedRodsTest.format(0, KEYFRAMES));
+        ChunkBuffer data = new ChunkBuffer();
+        frame.write(encoder.full);
+        encoder.encode(data);
+        int keyframe = data.size();
+        frame.time += 0.01;
+        frame.bindings.set(3, Frame.record(random, SimulationWriter.BINDING_BYTES));
+        frame.write(encoder.full);
+        encoder.encode(data);
+        Assert.assertFalse(InteractionDeltas.isKeyframe(QuantizedRodsTest.chunk(data)));
+        Assert.assertTrue(data.size() < keyframe/10);
+    }
+
+    /**
+     * A delta frame cannot be decoded by itself, it is decoded after walking forward from the previous keyframe.
+     */
+    @Test
+    public void testWalkBackToKeyframe() throws IOException {
+        Random random = new Random(3);
+        Frame frame = new Frame(random, 8, 3);
+        InteractionDeltas.Encoder encoder = new InteractionDeltas.Encoder(QuantizedRodsTest.format(0, KEYFRAMES));
+        ChunkBuffer data = new ChunkBuffer();
+        List<byte[]> chunks = new ArrayList<>();
+        List<byte[]> expected = new ArrayList<>();
+        for(int i = 0; i<2*KEYFRAMES + 1; i++){
+            if(i>0){
+                frame.change(random, i);
+            }
+            frame.write(encoder.full);
+            encoder.encode(data);
+            chunks.add(QuantizedRodsTest.chunk(data));
+            expected.add(QuantizedRodsTest.chunk(encoder.full));
+        }
+
+        int target = 2*KEYFRAMES - 2;
+        InteractionDeltas.Decoder fresh = new InteractionDeltas.Decoder();
+        try{
+            fresh.decode(chunks.get(target));
+            Assert.fail("a delta frame was decoded without the previous frame.");
+        } catch(IOException e){
+            //expected.
+        }
+        int start = target;
+        while(!InteractionDeltas.isKeyframe(chunks.get(start))){
+            start--;
+        }
+        Assert.assertEquals(KEYFRAMES, start);
+        byte[] decoded = null;
+        for(int i = start; i<=target; i++){
+            decoded = fresh.decode(chunks.get(i));
+        }
+        Assert.assertArrayEquals(expected.get(target), decoded);
+    }
+
+    @Test
+    public void testTruncatedChunk(){
+        Random random = new Random(4);
+        Frame frame = new Frame(random, 8, 3);
+        InteractionDeltas.Encoder encoder = new InteractionDeltas.Encoder(QuantizedRodsTest.format(0, KEYFRAMES));
+        ChunkBuffer data = new ChunkBuffer();
+        frame.write(encoder.full);
+        encoder.encode(data);
+        byte[] chunk = QuantizedRodsTest.chunk(data);
+        byte[] truncated = new byte[chunk.length - 7];
+        System.arraycopy(chunk, 0, truncated, 0, truncated.length);
+        try{
+            new InteractionDeltas.Decoder().decode(truncated);
+            Assert.fail("a truncated chunk was decoded.");
+        } catch(IOException e){
+            //expected.
+        }
+    }
+
+    /**
+     * Interactions written by the SimulationWriter and read back out of order.
+     */
+    @Test
+    public void testReadOutOfOrder() throws IOException {
+        File directory = SimulationFixtures.createDirectory();
+        try{
+            List<double[]> rods = new ArrayList<>();
+            List<String> interactions = new ArrayList<>();
+            File sim = SimulationFixtures.write(directory, 11, rods, interactions, "KEYFRAME_INTERVAL " + KEYFRAMES, "INTERACTION_DELTAS 1");
+            SimulationReader reader = SimulationReader.fromSimulationFile(sim);
+            Assert.assertTrue(reader.getFormat().hasInteractionDeltas());
+            reader.setCacheLimits(1, Long.MAX_VALUE);
+            int[] order = {10, 3, 6, 5, 0, 9, 7, 1, 2, 8, 4};
+            for(int frame: order){
+                TimePoint tp = reader.getTimePoint(frame);
+                Assert.assertNotNull(tp);
+                Assert.assertEquals("frame " + frame, interactions.get(frame), SimulationFixtures.interactions(tp.getBindings(), tp.getLinkers()));
+                Assert.assertArrayEquals(rods.get(frame), SimulationFixtures.rods(tp.getFilaments(), tp.getMotors()), 0);
+            }
+        } finally{
+            SimulationFixtures.delete(directory);
+        }
+    }
+
+    /**
+     * New simulations store complete interactions, even with a keyframe interval, unless deltas are requested.
+     */
+    @Test
+    public void testDeltasAreOptIn(){
+        ModelConstants constants = new ModelConstants();
+        Assert.assertTrue(constants.KEYFRAME_INTERVAL>1);
+        Assert.assertFalse(StorageFormat.fromConstants(constants).hasInteractionDeltas());
+        constants.INTERACTION_DELTAS = 1;
+        Assert.assertTrue(StorageFormat.fromConstants(constants).hasInteractionDeltas());
+        constants.KEYFRAME_INTERVAL = 1;
+        Assert.assertFalse(StorageFormat.fromConstants(constants).hasInteractionDeltas());
+    }
+}
@@ -0,0 +1,254 @@
+package org.paluchlab.agentcortex.io;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.paluchlab.agentcortex.CortexModel;
+import org.paluchlab.agentcortex.ModelConstants;
+import org.paluchlab.agentcortex.agents.ActinFilament;
+import org.paluchlab.agentcortex.agents.MyosinMotor;
+import org.paluchlab.agentcortex.agents.Rod;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Round trips of the quantized rods encoding, see QuantizedRods.
+ *
+ * Created on 10/19/26.
+ */
+public class QuantizedRodsTest {
+    final static double PRECISION = 1e-6;
+    final static int KEYFRAMES = 4;
+
+    static StorageFormat format(double precision, int keyframes){
+        ModelConstants constants = new ModelConstants();
+        constants.ROD_PRECISION = precision;
+        constants.KEYFRAME_INTERVAL = keyframes;
+        return StorageFormat.fromConstants(constants);
+    }
+
+    /**
+     * @return the chunk without the size.
+     */
+    static byte[] chunk(ChunkBuffer data){
+        ByteBuffer buffer = data.buffer.duplicate();
+        buffer.position(4);
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    static CortexModel createModel(int actins, int motors, Random random){
+        CortexModel model = new CortexModel(new ModelConstants());
+        for(int i = 0; i<actins; i++){
+            ActinFilament f = new ActinFilament();
+            randomize(f, random);
+            model.addActin(f);
+        }
+        for(int i = 0; i<motors; i++){
+            MyosinMotor m = new MyosinMotor();
+            randomize(m, random);
+            model.addMyosin(m);
+        }
+        return model;
+    }
+
+    static void randomize(Rod rod, Random random){
+        for(int i = 0; i<3; i++){
+            rod.position[i] = 4*random.nextDouble() - 2;
+            rod.direction[i] = random.nextGaussian();
+        }
+        double m = Math.sqrt(rod.direction[0]*rod.direction[0] + rod.direction[1]*rod.direction[1] + rod.direction[2]*rod.direction[2]);
+        for(int i = 0; i<3; i++){
+            rod.direction[i] /= m;
+        }
+    }
+
+    static void move(CortexModel model, Random random){
+        List<Rod> rods = new ArrayList<>(model.getActin());
+        rods.addAll(model.getMyosins());
+        for(Rod rod: rods){
+            for(int i = 0; i<3; i++){
+                rod.position[i] += 1e-3*random.nextGaussian();
+                rod.direction[i] += 1e-3*random.nextGaussian();
+            }
+        }
+        model.time += 0.01;
+    }
+
+    static double[] decoded(QuantizedRods.Decoder decoder){
+        double[] values = new double[6*(decoder.actins + decoder.motors)];
+        decoder.getValues(values);
+        return values;
+    }
+
+    /**
+     * Every decoded value is within half of the precision of the original, and is exactly the rounded value, so the
+     * deltas do not accumulate errors.
+     */
+    static void assertQuantized(double[] expected, double[] decoded, double precision){
+        Assert.assertEquals(expected.length, decoded.length);
+        for(int i = 0; i<expected.length; i++){
+            Assert.assertEquals("value " + i, expected[i], decoded[i], 0.5*precision + 1e-12);
+            Assert.assertEquals("value " + i, Math.round(expected[i]*(1/precision))*precision, decoded[i], 0);
+        }
+    }
+
+    @Test
+    public void testKeyframeIntervals() throws IOException {
+        Random random = new Random(1);
+        CortexModel model = createModel(30, 5, random);
+        StorageFormat format = format(PRECISION, KEYFRAMES);
+        QuantizedRods.Encoder encoder = new QuantizedRods.Encoder(format);
+        QuantizedRods.Decoder decoder = new QuantizedRods.Decoder(format);
+        ChunkBuffer data = new ChunkBuffer();
+
+        for(int frame = 0; frame<3*KEYFRAMES + 2; frame++){
+            encoder.encode(model, data);
+            byte[] chunk = chunk(data);
+            Assert.assertEquals("frame " + frame, frame%KEYFRAMES==0, QuantizedRods.isKeyframe(chunk));
+
+            decoder.decode(chunk);
+            Assert.assertEquals(model.time, decoder.time, 0);
+            Assert.assertEquals(30, decoder.actins);
+            Assert.assertEquals(5, decoder.motors);
+            assertQuantized(SimulationFixtures.rods(model.getActin(), model.getMyosins()), decoded(decoder), PRECISION);
+            move(model, random);
+        }
+    }
+
+    @Test
+    public void testForcedKeyframe() throws IOException {
+        Random random = new Random(2);
+        CortexModel model = createModel(10, 2, random);
+        QuantizedRods.Encoder encoder = new QuantizedRods.Encoder(format(PRECISION, KEYFRAMES));
+        ChunkBuffer data = new ChunkBuffer();
+        encoder.encode(model, data);
+        move(model, random);
+        encoder.encode(model, data);
+        Assert.assertFalse(QuantizedRods.isKeyframe(chunk(data)));
+        encoder.forceKeyframe();
+        move(model, random);
+        encoder.encode(model, data);
+        Assert.assertTrue(QuantizedRods.isKeyframe(chunk(data)));
+    }
+
+    /**
+     * A delta frame cannot be decoded by itself, it is decoded after walking forward from the previous keyframe.
+     */
+    @Test
+    public void testWalkBackToKeyframe() throws IOException {
+        Random random = new Random(3);
+        CortexModel model = createModel(20, 4, random);
+        StorageFormat format = format(PRECISION, KEYFRAMES);
+        QuantizedRods.Encoder encoder = new QuantizedRods.Encoder(format);
+        ChunkBuffer data = new ChunkBuffer();
+        List<byte[]> chunks = new ArrayList<>();
+        List<double[]> expected = new ArrayList<>();
+        for(int frame = 0; frame<2*KEYFRAMES + 1; frame++){
+            encoder.encode(model, data);
+            chunks.add(chunk(data));
+            expected.add(SimulationFixtures.rods(model.getActin(), model.getMyosins()));
+            move(model, random);
+        }
+
+        int target = KEYFRAMES + KEYFRAMES - 1;
+        QuantizedRods.Decoder fresh = new QuantizedRods.Decoder(format);
+        try{
+            fresh.decode(chunks.get(target));
+            Assert.fail("a delta frame was decoded without the previous frame.");
+        } catch(IOException e){
+            //expected.
+        }
+
+        int start = target;
+        while(!QuantizedRods.isKeyframe(chunks.get(start))){
+            start--;
+        }
+        Assert.assertEquals(KEYFRAMES, start);
+        for(int i = start; i<=target; i++){
+            fresh.decode(chunks.get(i));
+        }
+        assertQuantized(expected.get(target), decoded(fresh), PRECISION);
+    }
+
+    /**
+     * Direction components smaller than half of the precision are stored as 0, and the sign of values near zero does
+     * not matter.
+     */
+    @Test
+    public void testNearZeroDirections() throws IOException {
+        CortexModel model = createModel(0, 0, new Random(4));
+        double[][] directions = {
+                {0, 0, 1},
+                {1e-12, -1e-12, 1},
+                {-4.9e-7, 4.9e-7, -1},
+                {5.1e-7, -5.1e-7, 1},
+                {-0.0, 1, 0},
+                {Math.sqrt(0.5), -Math.sqrt(0.5), 1e-9}
+        };
+        for(double[] d: directions){
+            ActinFilament f = new ActinFilament();
+            System.arraycopy(d, 0, f.direction, 0, 3);
+            f.position[0] = -1e-9;
+            f.position[1] = 2.5e-7;
+            f.position[2] = -2.5e-7;
+            model.addActin(f);
+        }
+        StorageFormat format = format(PRECISION, KEYFRAMES);
+        QuantizedRods.Encoder encoder = new QuantizedRods.Encoder(format);
+        QuantizedRods.Decoder decoder = new QuantizedRods.Decoder(format);
+        ChunkBuffer data = new ChunkBuffer();
+        for(int frame = 0; frame<KEYFRAMES + 1; frame++){
+            encoder.encode(model, data);
+            decoder.decode(chunk(data));
+            double[] expected = SimulationFixtures.rods(model.getActin(), model.getMyosins());
+            double[] values = decoded(decoder);
+            assertQuantized(expected, values, PRECISION);
+            for(int i = 0; i<expected.length; i++){
+                if(Math.abs(expected[i])<0.5*PRECISION){
+                    Assert.assertEquals(0, values[i], 0);
+                }
+            }
+            //flip the signs of the small components for the next frame.
+            for(ActinFilament f: model.getActin()){
+                for(int i = 0; i<3; i++){
+                    if(Math.abs(f.direction[i])<1e-6){
+                        f.direction[i] = -f.direction[i];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Rods written by the SimulationWriter and read back out of order, so the reader has to decode the previous
+     * frames from the keyframe before the requested frame.
+     */
+    @Test
+    public void testReadOutOfOrder() throws IOException {
+        File directory = SimulationFixtures.createDirectory();
+        try{
+            List<double[]> rods = new ArrayList<>();
+            List<String> interactions = new ArrayList<>();
+            File sim = SimulationFixtures.write(
+                    directory, 11, rods, interactions, "ROD_PRECISION " + PRECISION, "KEYFRAME_INTERVAL " + KEYFRAMES
+            );
+            SimulationReader reader = SimulationReader.fromSimulationFile(sim);
+            reader.setCacheLimits(1, Long.MAX_VALUE);
+            Assert.assertEquals(rods.size(), reader.getPointCount());
+            int[] order = {10, 3, 6, 5, 0, 9, 7, 1, 2, 8, 4};
+            for(int frame: order){
+                TimePoint tp = reader.getTimePoint(frame);
+                Assert.assertNotNull(tp);
+                assertQuantized(rods.get(frame), SimulationFixtures.rods(tp.getFilaments(), tp.getMotors()), PRECISION);
+            }
+        } finally{
+            SimulationFixtures.delete(directory);
+        }
+    }
+}
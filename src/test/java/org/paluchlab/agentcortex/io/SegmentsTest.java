@@ -0,0 +1,262 @@
+package org.paluchlab.agentcortex.io;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Segmented data files, see Segments and SegmentedChannel.
+ *
+ * Created on 10/19/26.
+ */
+public class SegmentsTest {
+    File directory;
+    List<double[]> rods = new ArrayList<>();
+    List<String> interactions = new ArrayList<>();
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = SimulationFixtures.createDirectory();
+    }
+
+    @After
+    public void deleteDirectory(){
+        SimulationFixtures.delete(directory);
+    }
+
+    @Test
+    public void testDeleteDataFiles() throws IOException {
+        File sim = SimulationFixtures.write(directory, 10, rods, interactions, "SEGMENT_FRAMES 3");
+        Segments segments = Segments.forDataFile(new File(directory, "t" + SimulationReader.ROD_TAIL));
+        Assert.assertEquals(4, segments.size());
+        //a segment created by a roll that was interrupted before the manifest was replaced.
+        Files.createFile(segments.getFile(4, true).toPath());
+        Files.createFile(segments.getFile(4, false).toPath());
+        File other = new File(directory, "other-rods-0001.dat");
+        Files.createFile(other.toPath());
+
+        Segments.deleteDataFiles(sim);
+        for(String name: directory.list()){
+            Assert.assertFalse(name, name.startsWith("t-rods") || name.startsWith("t-interactions"));
+        }
+        Assert.assertFalse(Segments.getManifestFile(sim).exists());
+        Assert.assertTrue(sim.exists());
+        Assert.assertTrue(other.exists());
+    }
+
+    /**
+     * Byte at a position of the continuous file, so every segment has different contents.
+     */
+    static byte value(long position, boolean rods){
+        return (byte)((rods ? position : 3*position)%251);
+    }
+
+    static void append(FileChannel channel, int count, boolean rods) throws IOException {
+        long start = channel.size();
+        ByteBuffer buffer = ByteBuffer.allocate(count);
+        for(int i = 0; i<count; i++){
+            buffer.put(value(start + i, rods));
+        }
+        buffer.flip();
+        while(buffer.hasRemaining()){
+            channel.write(buffer);
+        }
+    }
+
+    static void assertContents(FileChannel channel, long position, int count, boolean rods) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(count);
+        FrameIndex.readFully(channel, buffer, position);
+        for(int i = 0; i<count; i++){
+            Assert.assertEquals("position " + (position + i), value(position + i, rods), buffer.get(i));
+        }
+    }
+
+    /**
+     * Creates a segmented pair of data files, with segments of 100, 60 and 50 bytes in the rods file and 40, 20 and
+     * 30 bytes in the interactions file.
+     */
+    Segments createSegments() throws IOException {
+        File rods = new File(directory, "s" + SimulationReader.ROD_TAIL);
+        Segments segments = Segments.create(rods, 0.0);
+        try(
+                FileChannel r = segments.open(true, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                FileChannel ia = segments.open(false, StandardOpenOption.WRITE, StandardOpenOption.APPEND)
+        ){
+            append(r, 100, true);
+            append(ia, 40, false);
+            segments.roll(3, 0.3, 0.2, r.size(), ia.size());
+            append(r, 60, true);
+            append(ia, 20, false);
+            segments.roll(5, 0.5, 0.4, r.size(), ia.size());
+            append(r, 50, true);
+            append(ia, 30, false);
+            Assert.assertEquals(210, r.size());
+            Assert.assertEquals(90, ia.size());
+        }
+        return segments;
+    }
+
+    @Test
+    public void testRollover() throws IOException {
+        Segments segments = createSegments();
+        File rods = segments.getFile(0, true);
+        File interactions = segments.getFile(0, false);
+        Assert.assertEquals(3, segments.size());
+        Assert.assertEquals(100, rods.length());
+        Assert.assertEquals(60, segments.getFile(1, true).length());
+        Assert.assertEquals(50, segments.getFile(2, true).length());
+        Assert.assertEquals(30, segments.getFile(2, false).length());
+        Assert.assertEquals(210, Segments.length(rods));
+        Assert.assertEquals(90, Segments.length(interactions));
+
+        try(FileChannel r = Segments.open(rods); FileChannel ia = Segments.open(interactions)){
+            assertContents(r, 0, 210, true);
+            assertContents(ia, 0, 90, false);
+            //reads stop at the end of a segment.
+            ByteBuffer buffer = ByteBuffer.allocate(20);
+            Assert.assertEquals(10, r.read(buffer, 90));
+            Assert.assertEquals(-1, r.read(ByteBuffer.allocate(1), 210));
+        }
+    }
+
+    /**
+     * A read only channel opened before a roll finds the new segment when its size is requested.
+     */
+    @Test
+    public void testFollowRollover() throws IOException {
+        File rods = new File(directory, "s" + SimulationReader.ROD_TAIL);
+        Segments segments = Segments.create(rods, 0.0);
+        try(
+                FileChannel writer = segments.open(true, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                FileChannel reader = Segments.open(rods)
+        ){
+            append(writer, 100, true);
+            Assert.assertEquals(100, reader.size());
+            segments.roll(1, 0.1, 0.0, writer.size(), 0);
+            append(writer, 25, true);
+            Assert.assertEquals(125, reader.size());
+            assertContents(reader, 0, 125, true);
+        }
+    }
+
+    @Test
+    public void testManifestReadBack() throws IOException {
+        Segments segments = createSegments();
+        Segments loaded = Segments.forDataFile(segments.getFile(0, false));
+        Assert.assertEquals(segments.size(), loaded.size());
+        for(int i = 0; i<segments.size(); i++){
+            Segments.Segment expected = segments.get(i);
+            Segments.Segment segment = loaded.get(i);
+            Assert.assertEquals(expected.firstFrame, segment.firstFrame);
+            Assert.assertEquals(expected.frames, segment.frames);
+            Assert.assertEquals(expected.startTime, segment.startTime, 0);
+            Assert.assertEquals(expected.endTime, segment.endTime, 0);
+            Assert.assertEquals(expected.rodStart, segment.rodStart);
+            Assert.assertEquals(expected.interactionStart, segment.interactionStart);
+            Assert.assertEquals(expected.closed, segment.closed);
+        }
+        Assert.assertEquals(3, loaded.get(1).firstFrame);
+        Assert.assertEquals(2, loaded.get(1).frames);
+        Assert.assertEquals(160, loaded.get(2).rodStart);
+        Assert.assertEquals(60, loaded.get(2).interactionStart);
+        Assert.assertTrue(loaded.get(1).closed);
+        Assert.assertFalse(loaded.get(2).closed);
+        Assert.assertEquals(-1, loaded.get(2).frames);
+        Assert.assertTrue(Double.isNaN(loaded.get(2).endTime));
+        Assert.assertEquals(1, loaded.findFrame(4));
+        Assert.assertEquals(2, loaded.find(160, true));
+        Assert.assertEquals(1, loaded.find(159, true));
+    }
+
+    /**
+     * Truncating into the first segment removes the later segments of both files, and the first segment becomes the
+     * open segment that is appended to.
+     */
+    @Test
+    public void testTruncateAcrossSegments() throws IOException {
+        Segments segments = createSegments();
+        File rods = segments.getFile(0, true);
+        File interactions = segments.getFile(0, false);
+        Segments.truncate(rods, interactions, 80, 30);
+
+        Segments loaded = Segments.forDataFile(rods);
+        Assert.assertEquals(1, loaded.size());
+        Assert.assertFalse(loaded.get(0).closed);
+        Assert.assertEquals(-1, loaded.get(0).frames);
+        for(int i = 1; i<3; i++){
+            Assert.assertFalse(segments.getFile(i, true).exists());
+            Assert.assertFalse(segments.getFile(i, false).exists());
+        }
+        Assert.assertEquals(80, Segments.length(rods));
+        Assert.assertEquals(30, Segments.length(interactions));
+
+        try(FileChannel r = Segments.open(rods, StandardOpenOption.WRITE, StandardOpenOption.APPEND)){
+            append(r, 15, true);
+        }
+        try(FileChannel r = Segments.open(rods)){
+            Assert.assertEquals(95, r.size());
+            assertContents(r, 0, 95, true);
+        }
+    }
+
+    /**
+     * Truncating inside a later segment keeps the segments before it.
+     */
+    @Test
+    public void testTruncateInLaterSegment() throws IOException {
+        Segments segments = createSegments();
+        File rods = segments.getFile(0, true);
+        File interactions = segments.getFile(0, false);
+        Segments.truncate(rods, interactions, 130, 50);
+
+        Segments loaded = Segments.forDataFile(rods);
+        Assert.assertEquals(2, loaded.size());
+        Assert.assertTrue(loaded.get(0).closed);
+        Assert.assertFalse(loaded.get(1).closed);
+        Assert.assertEquals(100, rods.length());
+        Assert.assertEquals(30, segments.getFile(1, true).length());
+        Assert.assertEquals(10, segments.getFile(1, false).length());
+        Assert.assertFalse(segments.getFile(2, true).exists());
+        try(FileChannel r = Segments.open(rods)){
+            Assert.assertEquals(130, r.size());
+            assertContents(r, 0, 130, true);
+        }
+    }
+
+    /**
+     * A mapped region is limited to the segment containing its start.
+     */
+    @Test
+    public void testMapAtSegmentEnd() throws IOException {
+        Segments segments = createSegments();
+        try(FileChannel r = Segments.open(segments.getFile(0, true))){
+            MappedByteBuffer end = r.map(FileChannel.MapMode.READ_ONLY, 90, 20);
+            Assert.assertEquals(10, end.remaining());
+            for(int i = 0; i<10; i++){
+                Assert.assertEquals(value(90 + i, true), end.get(i));
+            }
+            MappedByteBuffer exact = r.map(FileChannel.MapMode.READ_ONLY, 95, 5);
+            Assert.assertEquals(5, exact.remaining());
+
+            MappedByteBuffer next = r.map(FileChannel.MapMode.READ_ONLY, 100, 20);
+            Assert.assertEquals(20, next.remaining());
+            for(int i = 0; i<20; i++){
+                Assert.assertEquals(value(100 + i, true), next.get(i));
+            }
+            MappedByteBuffer last = r.map(FileChannel.MapMode.READ_ONLY, 200, 50);
+            Assert.assertEquals(10, last.remaining());
+            Assert.assertEquals(value(209, true), last.get(9));
+        }
+    }
+}
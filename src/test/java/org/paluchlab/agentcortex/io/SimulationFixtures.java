@@ -0,0 +1,192 @@
+package org.paluchlab.agentcortex.io;
+
+import org.paluchlab.agentcortex.CortexModel;
+import org.paluchlab.agentcortex.agents.ActinFilament;
+import org.paluchlab.agentcortex.agents.Crosslinker;
+import org.paluchlab.agentcortex.agents.Rod;
+import org.paluchlab.agentcortex.interactions.CrosslinkedFilaments;
+import org.paluchlab.agentcortex.interactions.MyosinMotorBinding;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Small simulations for the tests. The model is changed between frames by moving the rods and changing some of the
+ * interactions, instead of running the simulation, so writing a few frames is fast. Tests that need the forces of a
+ * real simulation step it, see #simulate.
+ *
+ * Created on 10/19/26.
+ */
+public class SimulationFixtures {
+
+    /**
+     * Creates a small initialized model.
+     *
+     * @param constants extra "NAME value" pairs, eg. "ROD_PRECISION 1e-6".
+     * @return a headless model with actins, motors, bindings and crosslinks.
+     */
+    public static CortexModel createModel(String... constants){
+        CortexModel model = new CortexModel(true);
+        List<String> lines = new ArrayList<>();
+        lines.add("filaments 40");
+        lines.add("motors 6");
+        lines.add("WIDTH 2.0");
+        lines.add("SEED_WIDTH 2.0");
+        lines.add("CHECKPOINT_INTERVAL 0");
+        for(String line: constants){
+            lines.add(line);
+        }
+        for(String line: lines){
+            SimulationReader.setConstant(line.split(" "), model.constants);
+        }
+        model.number_generator = new Random(1);
+        model.initializeSimulation();
+        return model;
+    }
+
+    /**
+     * Moves every rod a little, changes the times of some bindings, and every 'linkEvery' frames adds a crosslink.
+     */
+    static void change(CortexModel model, Random random, int frame, int linkEvery){
+        List<Rod> rods = new ArrayList<>();
+        rods.addAll(model.getActin());
+        rods.addAll(model.getMyosins());
+        for(Rod rod: rods){
+            for(int i = 0; i<3; i++){
+                rod.position[i] += 1e-3*random.nextGaussian();
+                rod.direction[i] += 1e-2*random.nextGaussian();
+            }
+            double m = Math.sqrt(rod.direction[0]*rod.direction[0] + rod.direction[1]*rod.direction[1] + rod.direction[2]*rod.direction[2]);
+            for(int i = 0; i<3; i++){
+                rod.direction[i] /= m;
+            }
+        }
+        for(MyosinMotorBinding binding: model.getMotorBindings()){
+            if(random.nextInt(3)==0){
+                binding.current_time[0] += model.constants.DT;
+            }
+        }
+        if(linkEvery>0 && frame%linkEvery==0){
+            List<ActinFilament> actins = model.getActin();
+            ActinFilament a = actins.get(random.nextInt(actins.size()));
+            ActinFilament b = actins.get(random.nextInt(actins.size()));
+            Crosslinker link = model.createNewCrossLinker();
+            model.addCrossLinking(new CrosslinkedFilaments(model, a, b, link, 0.1, -0.1, Double.MAX_VALUE));
+            model.addXLinker(link);
+        }
+        model.time += model.constants.DT;
+    }
+
+    /**
+     * Positions and directions of every rod, actins followed by motors.
+     */
+    static double[] rods(List<? extends Rod> actins, List<? extends Rod> motors){
+        double[] values = new double[6*(actins.size() + motors.size())];
+        int dex = 0;
+        List<Rod> rods = new ArrayList<>(actins);
+        rods.addAll(motors);
+        for(Rod rod: rods){
+            for(int i = 0; i<3; i++){
+                values[dex++] = rod.position[i];
+            }
+            for(int i = 0; i<3; i++){
+                values[dex++] = rod.direction[i];
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Text description of the bindings and crosslinks, for comparing frames.
+     */
+    static String interactions(List<MyosinMotorBinding> bindings, List<CrosslinkedFilaments> links){
+        StringBuilder builder = new StringBuilder();
+        for(MyosinMotorBinding binding: bindings){
+            builder.append(binding.motor.id);
+            for(int head = 0; head<2; head++){
+                if(binding.motor.isBound(head)){
+                    builder.append(',').append(binding.motor.getBound(head).id)
+                            .append(',').append(binding.binding_position[head])
+                            .append(',').append(binding.current_time[head])
+                            .append(',').append(binding.unbind_time[head]);
+                } else{
+                    builder.append(",-1");
+                }
+            }
+            builder.append(';');
+        }
+        builder.append('|');
+        for(CrosslinkedFilaments x: links){
+            builder.append(x.a.id).append(',').append(x.b.id).append(',')
+                    .append(x.a_s).append(',').append(x.b_s).append(';');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Writes a simulation, keeping the state of the model at each frame.
+     *
+     * @param directory destination.
+     * @param frames number of time points.
+     * @param rods receives the rods of each frame.
+     * @param interactions receives the interactions of each frame.
+     * @param constants see #createModel.
+     * @return the simulation file.
+     */
+    public static File write(File directory, int frames, List<double[]> rods, List<String> interactions, String... constants){
+        CortexModel model = createModel(constants);
+        Random random = new Random(2);
+        SimulationWriter writer = new SimulationWriter("t", directory);
+        writer.writeSimulation(model);
+        for(int i = 0; i<frames; i++){
+            if(i>0){
+                change(model, random, i, 3);
+            }
+            writer.writeTimeStep(model);
+            rods.add(rods(model.getActin(), model.getMyosins()));
+            interactions.add(interactions(model.getMotorBindings(), model.getCrosslinkedFilaments()));
+        }
+        writer.close();
+        return new File(directory, "t-simulation.txt");
+    }
+
+    /**
+     * Writes a simulation by stepping the model between frames.
+     *
+     * @param directory destination.
+     * @param frames number of time points.
+     * @param constants see #createModel.
+     * @return the simulation file.
+     */
+    public static File simulate(File directory, int frames, String... constants){
+        CortexModel model = createModel(constants);
+        SimulationWriter writer = new SimulationWriter("t", directory);
+        writer.writeSimulation(model);
+        for(int i = 0; i<frames; i++){
+            if(i>0){
+                model.stepSimulation();
+            }
+            writer.writeTimeStep(model);
+        }
+        writer.close();
+        return new File(directory, "t-simulation.txt");
+    }
+
+    public static File createDirectory() throws IOException {
+        return Files.createTempDirectory("cortex-test").toFile();
+    }
+
+    public static void delete(File file){
+        File[] files = file.listFiles();
+        if(files!=null){
+            for(File f: files){
+                delete(f);
+            }
+        }
+        file.delete();
+    }
+}
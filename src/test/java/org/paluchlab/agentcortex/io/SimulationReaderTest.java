@@ -0,0 +1,153 @@
+package org.paluchlab.agentcortex.io;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.paluchlab.agentcortex.CortexModel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Reading simulations that change while they are open, see SimulationReader#refresh.
+ *
+ * Created on 10/19/26.
+ */
+public class SimulationReaderTest {
+    final static int FRAMES = 8;
+    File directory;
+    List<double[]> rods = new ArrayList<>();
+    List<String> interactions = new ArrayList<>();
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = SimulationFixtures.createDirectory();
+    }
+
+    @After
+    public void deleteDirectory(){
+        SimulationFixtures.delete(directory);
+    }
+
+    /**
+     * Continues the simulation after the provided time point, as a restart would, with a different model. The times
+     * are shifted by half a step, a rewritten time point is only found by FrameIndex#isCurrent when its chunk sizes
+     * or time differ, and the chunk sizes depend on the random crosslinks of the model.
+     *
+     * @return the rods of the rewritten time points.
+     */
+    List<double[]> restart(File sim, int last, int frames){
+        SimulationReader other = SimulationReader.fromSimulationFile(sim);
+        double time = other.getTimePoint(last).getTime();
+        try{
+            other.truncateAfter(last);
+        } catch(IOException e){
+            throw new AssertionError(e);
+        }
+        other.close();
+        new File(directory, "t.lock").delete();
+
+        CortexModel model = SimulationFixtures.createModel();
+        Random random = new Random(5);
+        SimulationWriter writer = new SimulationWriter("t", directory);
+        List<double[]> written = new ArrayList<>();
+        model.time = time + 0.5*model.constants.DT;
+        for(int i = 0; i<frames; i++){
+            SimulationFixtures.change(model, random, i, 2);
+            writer.writeTimeStep(model);
+            written.add(SimulationFixtures.rods(model.getActin(), model.getMyosins()));
+        }
+        writer.close();
+        return written;
+    }
+
+    @Test
+    public void testRefreshAppended() throws IOException {
+        File sim = SimulationFixtures.write(directory, FRAMES, rods, interactions);
+        SimulationReader reader = SimulationReader.fromSimulationFile(sim);
+        Assert.assertEquals(0, reader.refresh());
+
+        List<double[]> written = restart(sim, FRAMES - 1, 3);
+        Assert.assertEquals(3, reader.refresh());
+        Assert.assertEquals(FRAMES + 3, reader.getPointCount());
+        Assert.assertEquals(0, reader.refresh());
+        for(int i = 0; i<3; i++){
+            TimePoint tp = reader.getTimePoint(FRAMES + i);
+            Assert.assertArrayEquals(written.get(i), SimulationFixtures.rods(tp.getFilaments(), tp.getMotors()), 0);
+        }
+    }
+
+    /**
+     * A restart that truncates the files and writes more than was removed leaves the files longer than before, so the
+     * changed time points are found by checking the last known time point.
+     */
+    @Test
+    public void testRefreshAfterRestart() throws IOException {
+        File sim = SimulationFixtures.write(directory, FRAMES, rods, interactions);
+        SimulationReader reader = SimulationReader.fromSimulationFile(sim);
+        reader.getTimePoint(FRAMES - 1);
+        long rodSize = Segments.length(reader.getRodsFile());
+
+        int last = 4;
+        List<double[]> written = restart(sim, last, 6);
+        Assert.assertTrue(Segments.length(reader.getRodsFile())>rodSize);
+
+        Assert.assertEquals(last + 1 - FRAMES, reader.refresh());
+        Assert.assertEquals(last + 1, reader.getPointCount());
+        Assert.assertEquals(6, reader.refresh());
+        Assert.assertEquals(last + 7, reader.getPointCount());
+        for(int i = 0; i<=last; i++){
+            TimePoint tp = reader.getTimePoint(i);
+            Assert.assertArrayEquals(rods.get(i), SimulationFixtures.rods(tp.getFilaments(), tp.getMotors()), 0);
+        }
+        for(int i = 0; i<written.size(); i++){
+            TimePoint tp = reader.getTimePoint(last + 1 + i);
+            Assert.assertArrayEquals(written.get(i), SimulationFixtures.rods(tp.getFilaments(), tp.getMotors()), 0);
+        }
+    }
+
+    /**
+     * A refresh replaces the list of time points, so a list read before the refresh, eg. by another thread, does not
+     * change, and a follower tells its listeners about the removed time points before delivering the new ones.
+     */
+    @Test
+    public void testFollowRestart() throws IOException {
+        File sim = SimulationFixtures.write(directory, FRAMES, rods, interactions);
+        SimulationReader reader = SimulationReader.fromSimulationFile(sim);
+        List<TimePointKey> before = reader.keys;
+        List<Integer> removed = new ArrayList<>();
+        List<Integer> added = new ArrayList<>();
+        SimulationFollower follower = new SimulationFollower(reader);
+        follower.addListener(new SimulationFollower.Listener(){
+            @Override
+            public void frameAdded(int index, TimePoint point){
+                Assert.assertNotNull(point);
+                added.add(index);
+            }
+
+            @Override
+            public void framesRemoved(int count){
+                removed.add(count);
+            }
+        });
+
+        int last = 4;
+        restart(sim, last, 6);
+        Assert.assertEquals(0, follower.poll());
+        Assert.assertEquals(FRAMES, before.size());
+        Assert.assertEquals(last + 1, reader.getPointCount());
+        Assert.assertEquals(1, removed.size());
+        Assert.assertEquals(last + 1, (int)removed.get(0));
+
+        Assert.assertEquals(6, follower.poll());
+        Assert.assertEquals(FRAMES, before.size());
+        Assert.assertEquals(6, added.size());
+        for(int i = 0; i<added.size(); i++){
+            Assert.assertEquals(last + 1 + i, (int)added.get(i));
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.paluchlab.agentcortex.io;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.paluchlab.agentcortex.CortexModel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Writing time steps with the output thread, see SimulationWriter.
+ *
+ * Created on 10/19/26.
+ */
+public class SimulationWriterTest {
+    File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = SimulationFixtures.createDirectory();
+    }
+
+    @After
+    public void deleteDirectory(){
+        SimulationFixtures.delete(directory);
+    }
+
+    /**
+     * Time steps written after closing are ignored, and never wait for a frame buffer, even when there are more of them
+     * than buffers.
+     */
+    @Test
+    public void testWriteAfterClose() throws Exception {
+        CortexModel model = SimulationFixtures.createModel("WRITE_QUEUE 2");
+        Random random = new Random(2);
+        SimulationWriter writer = new SimulationWriter("t", directory);
+        writer.writeSimulation(model);
+        for(int i = 0; i<3; i++){
+            SimulationFixtures.change(model, random, i, 3);
+            writer.writeTimeStep(model);
+        }
+        writer.close();
+
+        SimulationReader reader = SimulationReader.fromSimulationFile(new File(directory, "t-simulation.txt"));
+        long rodLength = reader.getRodsFile().length();
+        long interactionLength = reader.getInteractionsFile().length();
+        Thread late = new Thread(() -> {
+            for(int i = 0; i<5; i++){
+                SimulationFixtures.change(model, random, i, 3);
+                writer.writeTimeStep(model);
+            }
+            writer.close();
+        });
+        late.setDaemon(true);
+        late.start();
+        late.join(10000);
+        Assert.assertFalse("writing after close is blocked.", late.isAlive());
+
+        Assert.assertEquals(rodLength, reader.getRodsFile().length());
+        Assert.assertEquals(interactionLength, reader.getInteractionsFile().length());
+        Assert.assertEquals(0, reader.refresh());
+        Assert.assertEquals(3, reader.getPointCount());
+        reader.close();
+    }
+}